@@ -0,0 +1,125 @@
+/**
+ * Package choucas.benchmarks
+ * Provides JMH benchmarks of the WPS adapters utilities
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import choucas.utils.WsUtils;
+import okio.Buffer;
+
+/**
+ * This class benchmarks the WsUtils converters feeding create_ngram, create_vector and use_model
+ * against the string concatenation converters they replace (LegacyConverters).
+ * The legacy converters are quadratic : on 100000 rows one invocation takes minutes,
+ * run them alone with e.g. java -jar target/benchmarks.jar ConverterBenchmark.legacy -p rows=100000 -i 1 -wi 0
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConverterBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int rows;
+
+	private JSONArray pos;
+	private JSONArray sentences;
+	private JSONArray ngrams;
+	private JSONArray vectors;
+	private Buffer buffer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		pos = Payloads.pos(rows);
+		JSONObject ngram = Payloads.ngram(rows);
+		sentences = ngram.getJSONArray("texte_sortie_1");
+		ngrams = ngram.getJSONArray("texte_sortie_2");
+		vectors = Payloads.vector(rows).getJSONArray("texte_sortie");
+		buffer = new Buffer();
+	}
+
+	@Benchmark
+	public String legacyPos() {
+		return LegacyConverters.jsonToPos(pos);
+	}
+
+	@Benchmark
+	public String pos() {
+		return WsUtils.jsonToPos(pos);
+	}
+
+	@Benchmark
+	public long posToSink() throws IOException {
+		buffer.clear();
+		WsUtils.writePos(pos, buffer);
+		return buffer.size();
+	}
+
+	@Benchmark
+	public String legacyNgram() {
+		return LegacyConverters.jsonToNgram(ngrams);
+	}
+
+	@Benchmark
+	public String ngram() {
+		return WsUtils.jsonToNgram(ngrams);
+	}
+
+	@Benchmark
+	public long ngramToSink() throws IOException {
+		buffer.clear();
+		WsUtils.writeNgram(ngrams, buffer);
+		return buffer.size();
+	}
+
+	@Benchmark
+	public String legacyVector() {
+		return LegacyConverters.jsonToVector(vectors);
+	}
+
+	@Benchmark
+	public String vector() {
+		return WsUtils.jsonToVector(vectors);
+	}
+
+	@Benchmark
+	public long vectorToSink() throws IOException {
+		buffer.clear();
+		WsUtils.writeVector(vectors, buffer);
+		return buffer.size();
+	}
+
+	@Benchmark
+	public String legacyText() {
+		return LegacyConverters.jsonToText(sentences);
+	}
+
+	@Benchmark
+	public String text() {
+		return WsUtils.jsonToText(sentences);
+	}
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Package choucas.benchmarks
+ * Provides JMH benchmarks of the WPS adapters utilities
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.benchmarks;
+
+import org.json.JSONArray;
+
+/**
+ * This class keeps the string concatenation converters WsUtils used before the
+ * streaming converters, as the baseline of ConverterBenchmark.
+ */
+
+public class LegacyConverters {
+
+	public static String jsonToPos(JSONArray data) {
+		String stringData="";
+		int dataLength = data.length();
+
+		for (int i=0;i<dataLength;i++) {
+			for (int j=0;j<3;j++) {
+				stringData+=data.getJSONArray(i).get(j).toString();
+				if (j < 2)
+					stringData+="\t";
+				}
+			if (i < dataLength - 1)
+				stringData+="\n";
+			}
+		return(stringData);
+	}
+
+	public static String jsonToNgram(JSONArray data) {
+		String stringData="";
+		int dataLength = data.length();
+
+		for (int i=0;i<dataLength;i++) {
+			stringData+=data.getJSONArray(i).toString();
+			if (i < dataLength - 1)
+				stringData+="\n";
+			}
+		return(stringData.replaceAll(",", ", "));
+	}
+
+	public static String jsonToVector(JSONArray data) {
+		String stringData="[";
+		int dataLength = data.length();
+
+		for (int i=0;i<dataLength;i++) {
+			stringData+=data.getJSONArray(i).toString();
+			if (i < dataLength - 1)
+				stringData+="\n";
+			}
+		stringData+="]";
+		return(stringData.replaceAll(",", " "));
+	}
+
+	public static String jsonToText(JSONArray data) {
+		String stringData="";
+		int dataLength = data.length();
+
+		for (int i=0;i<dataLength - 1;i++) {
+			stringData+=data.getString(i)+"],[";
+		}
+		stringData+=data.getString(dataLength - 1);
+		return(stringData);
+	}
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Package choucas.benchmarks
+ * Provides JMH benchmarks of the WPS adapters utilities
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.benchmarks;
+
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * This class builds synthetic outputs of the choucas.univ-pau.fr services,
+ * shaped as the responses to a hiking narrative : text_to_POS (word, tag, lemma rows),
+ * create_ngram (texte_sortie_1 sentences, texte_sortie_2 ngram rows)
+ * and create_vector (texte_sortie rows of floats).
+ * The generator is seeded, every run converts the same payloads.
+ */
+
+public class Payloads {
+
+	private static final String[][] WORDS = {
+			{"Depuis", "PRP", "depuis"}, {"le", "DET:ART", "le"}, {"parking", "NOM", "parking"},
+			{"du", "PRP:det", "du"}, {"Pont", "NAM", "Pont"}, {"d'Espagne", "NAM", "d'Espagne"},
+			{",", "PUN", ","}, {"suivre", "VER:infi", "suivre"}, {"le", "DET:ART", "le"},
+			{"sentier", "NOM", "sentier"}, {"balisé", "VER:pper", "baliser"}, {"vers", "PRP", "vers"},
+			{"le", "DET:ART", "le"}, {"refuge", "NOM", "refuge"}, {"Wallon", "NAM", "Wallon"},
+			{"puis", "ADV", "puis"}, {"monter", "VER:infi", "monter"}, {"au", "PRP:det", "au"},
+			{"col", "NOM", "col"}, {"des", "PRP:det", "du"}, {"Gentianes", "NAM", "Gentianes"},
+			{".", "SENT", "."}};
+
+	/**
+	 * text_to_POS texte_sortie : [word, tag, lemma] rows
+	 */
+	public static JSONArray pos(int rows) {
+		JSONArray data = new JSONArray();
+		for (int i = 0; i < rows; i++) {
+			String[] word = WORDS[i % WORDS.length];
+			data.put(new JSONArray().put(word[0]).put(word[1]).put(word[2]));
+		}
+		return data;
+	}
+
+	/**
+	 * create_ngram output : texte_sortie_1 sentences and texte_sortie_2 ngram rows
+	 */
+	public static JSONObject ngram(int rows) {
+		JSONArray sentences = new JSONArray();
+		JSONArray ngrams = new JSONArray();
+		StringBuilder sentence = new StringBuilder();
+		for (int i = 0; i < rows; i++) {
+			JSONArray ngram = new JSONArray();
+			for (int j = 0; j < 5; j++) {
+				String[] word = WORDS[(i + j) % WORDS.length];
+				ngram.put(word[0] + "_" + word[1]);
+			}
+			ngrams.put(ngram);
+
+			sentence.append(WORDS[i % WORDS.length][0]).append(' ');
+			if (i % WORDS.length == WORDS.length - 1 || i == rows - 1) {
+				sentences.put(sentence.toString().trim());
+				sentence.setLength(0);
+			}
+		}
+		return new JSONObject().put("texte_sortie_1", sentences).put("texte_sortie_2", ngrams);
+	}
+
+	/**
+	 * create_vector output : texte_sortie rows of floats
+	 */
+	public static JSONObject vector(int rows) {
+		Random random = new Random(42);
+		JSONArray vectors = new JSONArray();
+		for (int i = 0; i < rows; i++) {
+			JSONArray vector = new JSONArray();
+			for (int j = 0; j < 16; j++) {
+				vector.put(random.nextFloat());
+			}
+			vectors.put(vector);
+		}
+		return new JSONObject().put("texte_sortie", vectors);
+	}
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Package choucas.benchmarks
+ * Provides JMH benchmarks of the WPS adapters utilities
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import choucas.utils.JsonRequest;
+import okio.Buffer;
+
+/**
+ * This class benchmarks the encoding of a PERDIDO geoparsing request on a 1 MB French text :
+ * JsonRequest writing the escaped parameters into the body, against the former path
+ * (string concatenation, JSONObject parsing of the {"request":...} envelope, serialization, UTF-8 encoding).
+ * The former path fails on texts with quotes or line breaks, it is only run on the plain text.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestEncoderBenchmark {
+
+	private static final int SIZE = 1024 * 1024;
+
+	private static final String[] SENTENCES = {
+			"Depuis le parking du Pont d'Espagne, suivre le sentier balisé vers le refuge Wallon. ",
+			"On passe au col de la Mine de Fer puis on descend vers le Lac de Crop, été comme hiver. ",
+			"Après la passerelle, la montée est raide jusqu'à la cabane de Bellefont, à 1 820 m. ",
+			"Je passe à Grenoble puis je pars en direction de Bourg-d'Oisans par la vallée de la Romanche. "};
+
+	private String plainText;
+	private String escapedText;
+	private Buffer buffer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StringBuilder plain = new StringBuilder(SIZE + 128);
+		StringBuilder escaped = new StringBuilder(SIZE + 128);
+		for (int i = 0; plain.length() < SIZE; i++) {
+			String sentence = SENTENCES[i % SENTENCES.length];
+			plain.append(sentence);
+			escaped.append(i % 5 == 4 ? sentence.replace("le sentier", "le \"sentier\"") + "\n\t" : sentence);
+		}
+		plainText = plain.toString();
+		escapedText = escaped.toString();
+		buffer = new Buffer();
+	}
+
+	@Benchmark
+	public long legacy() {
+		String request = "{\"api_key\":\"" + "demo"
+				+ "\",\"content\":\"" + plainText
+				+ "\",\"lang\":\"" + "French"
+				+ "\",\"geocoding\":\"" + "false"
+				+ "\",\"POStagger\":\"" + "nominal"
+				+ "\",\"version\":\"" + "Standard"
+				+ "\",\"mode\":\"" + "s"
+				+ "\",\"gazetier\":\"" + "bdnyme_ign"
+				+ "\",\"bbox\":\"" + null + "\"}";
+		JSONObject jsonObject = new JSONObject("{\"request\":" + request + "}");
+		buffer.clear();
+		buffer.writeUtf8(jsonObject.toString());
+		return buffer.size();
+	}
+
+	@Benchmark
+	public long encoder() throws IOException {
+		return encode(plainText);
+	}
+
+	@Benchmark
+	public long encoderWithEscapes() throws IOException {
+		return encode(escapedText);
+	}
+
+	@Benchmark
+	public long contentLength() {
+		return request(plainText).contentLength();
+	}
+
+	protected long encode(String text) throws IOException {
+		buffer.clear();
+		request(text).writeTo(buffer);
+		return buffer.size();
+	}
+
+	protected static JsonRequest request(String text) {
+		return new JsonRequest()
+				.put("api_key", "demo")
+				.put("content", text)
+				.put("lang", "French")
+				.put("geocoding", "false")
+				.put("POStagger", "nominal")
+				.put("version", "Standard")
+				.put("mode", "s")
+				.put("gazetier", "bdnyme_ign")
+				.put("bbox", null);
+	}
+
+}
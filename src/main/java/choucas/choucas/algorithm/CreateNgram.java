@@ -9,7 +9,6 @@
 
 package choucas.choucas.algorithm;
 
-import java.io.File;
 import java.io.IOException;
 
 import org.n52.wps.algorithm.annotation.Algorithm;
@@ -98,6 +97,7 @@ public class CreateNgram extends AbstractAnnotatedAlgorithm {
 		  } catch (Exception e) {
 			  System.out.println("\n Adapter: Error while calling REST Service");
 			  e.printStackTrace();
+			  WsUtils.failIfUnavailable(e);
 			  }
 		  }
         else {
@@ -112,11 +112,7 @@ public class CreateNgram extends AbstractAnnotatedAlgorithm {
     protected static String callCreateNgram(String api_url, String url, String textInput, String contentType) throws IOException {
     	api_url += "/api/create_ngram/";
     	String response = null;
-    	File fileToLoad = File.createTempFile("ChoucasFileToLoad", "tsv");    
-    	IoUtils.writeFile(fileToLoad.getPath(), textInput);
-    	//fileToLoad = new File("C:\\Users\\gouarder\\Nuage\\Stage-CMI-BD\\Lot2\\Data\\temp\\1_tag_Perdido.tsv");
-    	response =  WsUtils.callServicePostM(api_url, url, fileToLoad, contentType);
-    	//fileToLoad.delete();
+    	response =  WsUtils.callServicePostM(api_url, url, "ChoucasFileToLoad.tsv", textInput, contentType);
     	return response;
     }
     
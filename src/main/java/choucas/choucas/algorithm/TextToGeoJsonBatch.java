@@ -0,0 +1,115 @@
+/**
+ * Package choucas.choucas
+ * Provides WPS processes (services) and tools to access services hosted on choucas.univ-pau.fr HTTP server
+ * WPS processes (services) are hosted on a 52°North WPS server
+ * See http://choucas.univ-pau.fr/docs
+ * See https://52north.org/software/software-projects/wps/ 
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.choucas.algorithm;
+
+import java.util.List;
+
+import org.n52.wps.algorithm.annotation.Algorithm;
+import org.n52.wps.algorithm.annotation.ComplexDataInput;
+import org.n52.wps.algorithm.annotation.ComplexDataOutput;
+import org.n52.wps.algorithm.annotation.Execute;
+import org.n52.wps.algorithm.annotation.LiteralDataInput;
+import org.n52.wps.server.AbstractAnnotatedAlgorithm;
+
+import choucas.io.data.BatchResultsDataBinding;
+import choucas.io.data.DocumentsDataBinding;
+import choucas.pipeline.BatchPipeline;
+import choucas.pipeline.BatchResults;
+import choucas.pipeline.Pipeline;
+import choucas.pipeline.PipelineContext;
+import choucas.pipeline.Stages;
+import choucas.utils.ChoucasConfig;
+import choucas.utils.WsUtils;
+
+/**
+ * This WPS process is the batch variant of the text to geojson Web Service chain :
+ * many documents in one request, one result per document streamed back as JSON lines.
+ */
+
+@Algorithm(version = "1.0.0", 
+		title = "Text to geojson Web Service chain batch process", 
+		abstrakt = "Extraction of spatial features and spatial relationships from many texts (zip archive or JSON lines)."
+				+ "Provides one JSON line per text : its id, its GeoJson document (topoList) and its XML/TEI tagged text (taggedText)."
+				+ "See Text to geojson Web Service chain process.")
+
+public class TextToGeoJsonBatch extends AbstractAnnotatedAlgorithm {
+
+	private static final BatchPipeline BATCH = new BatchPipeline(new Pipeline("TextToGeoJsonBatch", Stages.TEXT)
+			.add(Stages.textToPos())
+			.add(Stages.createNgram())
+			.add(Stages.createVector())
+			.add(Stages.useModel())
+			.add(Stages.unitexFromModel())
+			.add(Stages.geoparsing())
+			.add(Stages.toponymsFromText())
+			.add(Stages.geoJson()))
+			.output("topoList", Stages.GEO)
+			.output("taggedText", Stages.GEOPARSING);
+
+	private List<BatchPipeline.Document> documents;
+	private String priority = "batch";
+	private String api_key = "demo", lang = "French";
+
+	private BatchResults results;
+
+	@ComplexDataInput(identifier = "documents", abstrakt = "Texts to annotate : zip archive of text files, or JSON lines {\"id\":..., \"text\":...}", minOccurs = 1, maxOccurs = 1, binding = DocumentsDataBinding.class)
+	public void setDocuments(List<BatchPipeline.Document> documents) {
+		this.documents = documents;
+	}
+
+	@LiteralDataInput(identifier = "api_key", abstrakt = "Your API key", defaultValue = "demo", minOccurs = 0, maxOccurs = 1)
+	public void setLiteralKey(String literalInput) {
+		this.api_key = literalInput;
+	}
+
+	@LiteralDataInput(identifier = "lang", abstrakt = "Content language", defaultValue = "French", allowedValues = {
+			"French", "Spanish", "English" }, minOccurs = 0, maxOccurs = 1)
+	public void setLiteralLang(String literalInput) {
+		this.lang = literalInput;
+	}
+
+	@LiteralDataInput(identifier = "priority", abstrakt = "Interactive requests (live localisation) overtake batch requests (re-processing) on upstream services", defaultValue = "batch", allowedValues = {
+			"interactive", "batch" }, minOccurs = 0, maxOccurs = 1)
+	public void setLiteralPriority(String literalInput) {
+		this.priority = literalInput;
+	}
+
+	@ComplexDataOutput(identifier = "results", abstrakt = "One JSON line per text : id, status, topoList and taggedText, or error", binding = BatchResultsDataBinding.class)
+	public BatchResults getResults() {
+		return results;
+	}
+
+	@Execute
+	public void run() {
+
+		String separator = "****************";
+
+		// begin application settings
+		ChoucasConfig.setup();
+		System.out.println("HostUrl : " + ChoucasConfig.getHostUrl());
+		System.out.println("TempPath : " + ChoucasConfig.getTempPath());		
+		System.out.println("TempDir :" + ChoucasConfig.getTempDir());
+		WsUtils.setStdoutFlag(false);
+		// End application settings
+
+		if (documents != null) {
+			PipelineContext context = new PipelineContext()
+					.put(Stages.API_KEY, api_key)
+					.put(Stages.LANG, lang)
+					.put(Stages.PRIORITY, priority);
+			// the documents run while the results are streamed
+			results = BATCH.run(documents, context);
+		}
+		else {
+			System.out.println("No content");
+		}
+		System.out.println("\n" + separator);
+	}
+}
@@ -9,10 +9,6 @@
 
 package choucas.choucas.algorithm;
 
-import java.io.File;
-import java.io.IOException;
-
-import org.json.JSONObject;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.server.AbstractAnnotatedAlgorithm;
 import org.n52.wps.algorithm.annotation.Execute;
@@ -22,7 +18,9 @@ import org.n52.wps.algorithm.annotation.LiteralDataOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import choucas.utils.IoUtils;
+import choucas.pipeline.Pipeline;
+import choucas.pipeline.PipelineContext;
+import choucas.pipeline.Stages;
 import choucas.utils.WsUtils;
 
 
@@ -45,7 +43,12 @@ public class TextToNgramChain extends AbstractAnnotatedAlgorithm {
 	// private static final Logger log = LoggerFactory.getLogger(TextToNgram.class);	
 	
 
+	private static final Pipeline PIPELINE = new Pipeline("TextToNgramChain", Stages.TEXT)
+			.add(Stages.textToPos())
+			.add(Stages.createNgram());
+
     private String url=null, textInput=null, dataOutput=null;
+    private String priority = "interactive";
 
     @LiteralDataInput(
     		identifier = "url", 
@@ -65,6 +68,12 @@ public class TextToNgramChain extends AbstractAnnotatedAlgorithm {
 	public void setTextInput(String textInput) {
 		this.textInput = textInput;
 	}
+
+	@LiteralDataInput(identifier = "priority", abstrakt = "Interactive requests (live localisation) overtake batch requests (re-processing) on upstream services", defaultValue = "interactive", allowedValues = {
+			"interactive", "batch" }, minOccurs = 0, maxOccurs = 1)
+	public void setLiteralPriority(String literalInput) {
+		this.priority = literalInput;
+	}
     
        
     @LiteralDataOutput(identifier = "dataOutput")
@@ -75,48 +84,25 @@ public class TextToNgramChain extends AbstractAnnotatedAlgorithm {
     @Execute
     public void run() {
     	
-        String url_base =  "http://choucas.univ-pau.fr";
-        String response = "";
         String separator = "****************";
-        String input=null, output=null;
-        File inputFile=null, posFile=null;
     	
         // log.debug("Running choucas process");
         
         if (textInput != null) {
 		  
 		  try {
-			  input = textInput;
-			  System.out.println("\n" + separator);               
-			  System.out.println("Adapter : Calling text_to_POS...");
-			  inputFile = File.createTempFile("inputFile", ".txt");
-			  IoUtils.writeFile(inputFile.getPath(), input);
-			  output = calltextPOS(url_base, url, inputFile, "text/plain");
-			  dataOutput = output;
-			  if (WsUtils.getStdoutFlag()) {
-				  System.out.println("\nInput :\n" + input);
-				  System.out.println("\nOutput :\n");
-				  IoUtils.prettyPrintJson(dataOutput);
-			  }
-			  System.out.println("\nAdapter : Service Invoked Successfully !");
+			  PipelineContext context = new PipelineContext()
+					  .put(Stages.TEXT, textInput)
+					  .put(Stages.URL, url)
+					  .put(Stages.PRIORITY, priority);
+			  PIPELINE.run(context);
 			  
-			  input = WsUtils.jsonToPos(new JSONObject(output).getJSONArray("texte_sortie"));
-			  System.out.println("\n" + separator);               
-			  System.out.println("Adapter : Calling create_ngram...");
-			  posFile = File.createTempFile("posFile", ".tsv");
-			  IoUtils.writeFile(posFile.getPath(), input);
-			  output = callCreateNgram(url_base, url, posFile, "text/plain");
-			  dataOutput = output;
-			  if (WsUtils.getStdoutFlag()) {
-				  System.out.println("\nInput :\n" + input);
-				  System.out.println("\nOutput :\n");
-				  IoUtils.prettyPrintJson(dataOutput);
-			  }
-			  System.out.println("\nAdapter : Service Invoked Successfully !");
+			  dataOutput = context.getString(Stages.CREATE_NGRAM);
 			  
 		  } catch (Exception e) {
 			  System.out.println("\n Adapter: Error while calling REST Service");
 			  e.printStackTrace();
+			  WsUtils.failIfUnavailable(e);
 			  }
 		  }
         else {
@@ -126,22 +112,4 @@ public class TextToNgramChain extends AbstractAnnotatedAlgorithm {
         System.out.println("\n" + separator);  
         //log.debug("Finished Choucas process, output is : {}", outputTSV);
     }
-    
-    
-    // text_to_POS service call
-    protected static String calltextPOS(String api_url, String url, File fileToLoad, String contentType) throws IOException {
-    	api_url += "/api/text_to_POS/";
-    	String response = null;
-    	response =  WsUtils.callServicePostM(api_url, url, fileToLoad, contentType);
-    	return response;
-    }
-    
-    // cretae_ngram service call
-    protected static String callCreateNgram(String api_url, String url, File fileToLoad, String contentType) throws IOException {
-    	api_url += "/api/create_ngram/";
-    	String response = null;
-    	response =  WsUtils.callServicePostM(api_url, url, fileToLoad, contentType);
-    	return response;
-    }
-    
 }
@@ -9,7 +9,6 @@
 
 package choucas.choucas.algorithm;
 
-import java.io.File;
 import java.io.IOException;
 
 import org.n52.wps.algorithm.annotation.Algorithm;
@@ -98,6 +97,7 @@ public class TextToPOS extends AbstractAnnotatedAlgorithm {
 		  } catch (Exception e) {
 			  System.out.println("\n Adapter: Error while calling REST Service");
 			  e.printStackTrace();
+			  WsUtils.failIfUnavailable(e);
 			  }
 		  }
         else {
@@ -113,10 +113,7 @@ public class TextToPOS extends AbstractAnnotatedAlgorithm {
     protected static String calltextPOS(String api_url, String url, String textInput, String contentType) throws IOException {
     	api_url += "/api/text_to_POS/";
     	String response = null;
-    	File fileToLoad = File.createTempFile("ChoucasFileToLoad", "txt");    
-    	IoUtils.writeFile(fileToLoad.getPath(), textInput);
-    	response =  WsUtils.callServicePostM(api_url, url, fileToLoad, contentType);
-    	//fileToLoad.delete();
+    	response =  WsUtils.callServicePostM(api_url, url, "ChoucasFileToLoad.txt", textInput, contentType);
     	return response;
     }
     
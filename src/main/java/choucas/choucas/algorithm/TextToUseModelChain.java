@@ -9,11 +9,6 @@
 
 package choucas.choucas.algorithm;
 
-import java.io.File;
-import java.io.IOException;
-
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.server.AbstractAnnotatedAlgorithm;
 import org.n52.wps.algorithm.annotation.Execute;
@@ -23,7 +18,9 @@ import org.n52.wps.algorithm.annotation.LiteralDataOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import choucas.utils.IoUtils;
+import choucas.pipeline.Pipeline;
+import choucas.pipeline.PipelineContext;
+import choucas.pipeline.Stages;
 import choucas.utils.WsUtils;
 
 
@@ -46,7 +43,14 @@ public class TextToUseModelChain extends AbstractAnnotatedAlgorithm {
 	// private static final Logger log = LoggerFactory.getLogger(TextToUseModelclass);	
 	
 
+	private static final Pipeline PIPELINE = new Pipeline("TextToUseModelChain", Stages.TEXT)
+			.add(Stages.textToPos())
+			.add(Stages.createNgram())
+			.add(Stages.createVector())
+			.add(Stages.useModel());
+
     private String url=null, textInput=null, dataOutput=null;
+    private String priority = "interactive";
 
     @LiteralDataInput(
     		identifier = "url", 
@@ -66,6 +70,12 @@ public class TextToUseModelChain extends AbstractAnnotatedAlgorithm {
 	public void setTextInput(String textInput) {
 		this.textInput = textInput;
 	}
+
+	@LiteralDataInput(identifier = "priority", abstrakt = "Interactive requests (live localisation) overtake batch requests (re-processing) on upstream services", defaultValue = "interactive", allowedValues = {
+			"interactive", "batch" }, minOccurs = 0, maxOccurs = 1)
+	public void setLiteralPriority(String literalInput) {
+		this.priority = literalInput;
+	}
     
        
     @LiteralDataOutput(identifier = "dataOutput")
@@ -76,93 +86,25 @@ public class TextToUseModelChain extends AbstractAnnotatedAlgorithm {
     @Execute
     public void run() {
     	
-        String url_base =  "http://choucas.univ-pau.fr";
-        String response = "";
         String separator = "****************";
-        String input=null, output=null;
-        JSONObject outputJson = null;
-		String mpFileContent = null;
-		String textFileContent = null;
-        File inputFile=null, posFile=null, mpFile=null, vectorFile=null, textFile=null;
     	
         // log.debug("Running choucas process");
         
         if (textInput != null) {
 		  
 		  try {
-			  // POS tagging
-			  
-			  input = textInput;
-			  System.out.println("\n" + separator);               
-			  System.out.println("Adapter : Calling text_to_POS...");
-			  inputFile = File.createTempFile("inputFile", ".txt");
-			  IoUtils.writeFile(inputFile.getPath(), input);
-			  output = calltextPOS(url_base, url, inputFile, "text/plain");
-			  dataOutput = output;
-			  if (WsUtils.getStdoutFlag()) {
-				  System.out.println("\nInput :\n" + input);
-				  System.out.println("\nOutput :\n");
-				  IoUtils.prettyPrintJson(dataOutput);
-			  }
-			  System.out.println("\nAdapter : Service Invoked Successfully !");
-			  
-			  // text_to_POS
-			  input = WsUtils.jsonToPos(new JSONObject(output).getJSONArray("texte_sortie"));
-			  System.out.println("\n" + separator);               
-			  System.out.println("Adapter : Calling create_ngram...");
-			  posFile = File.createTempFile("posFile", ".tsv");
-			  IoUtils.writeFile(posFile.getPath(), input);
-			  output = callCreateNgram(url_base, url, posFile, "text/plain");
-			  dataOutput = output;
-			  if (WsUtils.getStdoutFlag()) {
-				  System.out.println("\nInput :\n" + input);
-				  System.out.println("\nOutput :\n");
-				  IoUtils.prettyPrintJson(dataOutput);
-			  }
-			  System.out.println("\nAdapter : Service Invoked Successfully !");
-			  outputJson = new JSONObject(output);
-			  mpFileContent = WsUtils.jsonToNgram(outputJson.getJSONArray("texte_sortie_2"));
-			  textFileContent = WsUtils.jsonToText(outputJson.getJSONArray("texte_sortie_1"));
-			  textFile = File.createTempFile("textFile", ".tsv");
-			  IoUtils.writeFile(textFile.getPath(), textFileContent);
-			  
-			  // create_ngram
-			  input = mpFileContent;
-			  System.out.println("\n" + separator);               
-			  System.out.println("Adapter : Calling create_vector...");
-			  mpFile = File.createTempFile("mpFile", ".tsv");
-			  IoUtils.writeFile(mpFile.getPath(), input);
-			  output = callCreateVector(url_base, url, mpFile, "text/plain");
-			  dataOutput = output;
-			  if (WsUtils.getStdoutFlag()) {
-				  System.out.println("\nInput :\n" + input);
-				  System.out.println("\nOutput :\n");
-				  IoUtils.prettyPrintJson(dataOutput);
-			  }
-			  System.out.println("\nAdapter : Service Invoked Successfully !");
-			  outputJson = new JSONObject(output);
+			  PipelineContext context = new PipelineContext()
+					  .put(Stages.TEXT, textInput)
+					  .put(Stages.URL, url)
+					  .put(Stages.PRIORITY, priority);
+			  PIPELINE.run(context);
 			  
-			  // Use_model
-			  input = WsUtils.jsonToVector(outputJson.getJSONArray("texte_sortie"));
-			  System.out.println("\n" + separator);               
-			  System.out.println("Adapter : Calling use_model...");
-			  vectorFile = File.createTempFile("vectorFile", ".tsv");
-			  IoUtils.writeFile(vectorFile.getPath(), input);
-			  //vectorFile = new File ("C:\\Users\\gouarder\\Nuage\\Stage-CMI-BD\\Lot2\\Data\\temp\\2_vecteurs.tsv");
-			  //mpFile = new File ("C:\\Users\\gouarder\\Nuage\\Stage-CMI-BD\\Lot2\\Data\\temp\\2_a_classer_MP.tsv");
-			  //textFile = new File ("C:\\Users\\gouarder\\Nuage\\Stage-CMI-BD\\Lot2\\Data\\temp\\2_text.tsv");
-			  output = callUseModel(url_base, url, vectorFile, mpFile, textFile, "text/plain");
-			  dataOutput = output;
-			  if (WsUtils.getStdoutFlag()) {
-				  System.out.println("\nInput :\n" + input);
-				  System.out.println("\nOutput :\n");
-				  IoUtils.prettyPrintJson(dataOutput);
-			  }
-			  System.out.println("\nAdapter : Service Invoked Successfully !");
+			  dataOutput = context.getString(Stages.USE_MODEL);
 			  
 		  } catch (Exception e) {
 			  System.out.println("\n Adapter: Error while calling REST Service");
 			  e.printStackTrace();
+			  WsUtils.failIfUnavailable(e);
 			  }
 		  }
         else {
@@ -172,37 +114,4 @@ public class TextToUseModelChain extends AbstractAnnotatedAlgorithm {
         System.out.println("\n" + separator);  
         //log.debug("Finished Choucas process, output is : {}", outputTSV);
     }
-    
-    
-    // text_to_POS service call
-    protected static String calltextPOS(String api_url, String url, File fileToLoad, String contentType) throws IOException {
-    	api_url += "/api/text_to_POS/";
-    	String response = null;
-    	response =  WsUtils.callServicePostM(api_url, url, fileToLoad, contentType);
-    	return response;
-    }
-    
-    // create_ngram service call
-    protected static String callCreateNgram(String api_url, String url, File fileToLoad, String contentType) throws IOException {
-    	api_url += "/api/create_ngram/";
-    	String response = null;
-    	response =  WsUtils.callServicePostM(api_url, url, fileToLoad, contentType);
-    	return response;
-    }
-    
-    // create_vector service call
-    protected static String callCreateVector(String api_url, String url, File fileToLoad, String contentType) throws IOException {
-    	api_url += "/api/create_vector/";
-    	String response = null;
-    	response =  WsUtils.callServicePostM(api_url, url, fileToLoad, contentType);
-    	return response;
-    }
-    
-    // use_model service call
-    protected static String callUseModel(String api_url, String url, File vectorFile, File mpFile ,File textFile, String contentType) throws IOException {
-    	api_url += "/api/use_model/";
-    	String response = null;
-    	response =  WsUtils.callServicePostUseM(api_url, url, vectorFile, mpFile, textFile, contentType);
-    	return response;
-    }
 }
@@ -0,0 +1,51 @@
+/**
+ * Package choucas.erig
+ * Provides WPS processes (services) and tools to access services hosted on erig.univ-pau.fr HTTP server
+ * WPS processes (services) are hosted on a 52°North WPS server
+ * See http://erig.univ-pau.fr/PERDIDO/api.jsp
+ * See https://52north.org/software/software-projects/wps/ 
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.choucas.tests;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import choucas.choucas.algorithm.TextToGeoJsonBatch;
+import choucas.io.data.DocumentsDataParser;
+import choucas.pipeline.BatchResults;
+
+/**
+ * Test application for Choucas text to geojson service chain batch adapter.
+ */
+
+public class TextToGeoJsonBatchTest 
+{
+    public static void main( String[] args )
+    {
+    	TextToGeoJsonBatch service = new TextToGeoJsonBatch();
+
+    	// zip archive of text files
+    	String zipFilePath = "C:\\Users\\gouarder\\Nuage\\Stage-CMI-BD\\Lot2\\Data\\temp\\reports.zip";
+
+        try (InputStream zip = new FileInputStream(zipFilePath)) {
+	        service.setDocuments(DocumentsDataParser.parseZip(zip));
+
+	        System.out.println( "--------------------------------" );
+	        System.out.println( "Test : Calling Choucas text to geojson service chain batch" );
+	        service.run();
+	        BatchResults results = service.getResults();
+	        for (String line = results.next(); line != null; line = results.next()) {
+		        System.out.println( "\n--------------------------------------");
+		        System.out.println("Test: Result of Choucas Chain batch\n\n" + line);
+	        }
+	        System.out.println( "\n--------------------------------------");
+	        System.out.println("Test: " + results.getSucceeded() + " documents processed, " + results.getFailed() + " failed");
+
+		} catch (Exception e) {
+			System.out.println( "Test: Error in calling Choucas text to geojson service chain batch\n");
+			e.printStackTrace();
+		}
+    }
+}
@@ -9,32 +9,26 @@
 
 package choucas.erig.algorithm;
 
-import java.io.IOException;
-import java.net.URLEncoder;
-
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.apache.xmlbeans.XmlObject;
-import org.apache.xmlbeans.XmlObject.Factory;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.Execute;
 import org.n52.wps.algorithm.annotation.LiteralDataInput;
 import org.n52.wps.algorithm.annotation.LiteralDataOutput;
 import org.n52.wps.algorithm.annotation.ComplexDataOutput;
-import org.n52.wps.io.data.binding.complex.GenericXMLDataBinding;
 import org.n52.wps.server.AbstractAnnotatedAlgorithm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
+import choucas.io.data.TeiDataBinding;
+import choucas.pipeline.Pipeline;
+import choucas.pipeline.PipelineContext;
+import choucas.pipeline.ShardMergers;
+import choucas.pipeline.ShardedPipeline;
+import choucas.pipeline.Stages;
+import choucas.pipeline.TextSharder;
 import choucas.utils.ChoucasConfig;
 import choucas.utils.IoUtils;
+import choucas.utils.TeiDocument;
 import choucas.utils.WsUtils;
-import choucas.utils.XmlUtils;
 
 /**
  * This WPS process is an implementation of an Erig Web Service chain .
@@ -52,9 +46,22 @@ public class ErigChainTxtJson1 extends AbstractAnnotatedAlgorithm {
 	// private static final Logger log =
 	// LoggerFactory.getLogger(ErigChainTxtJson1.class);
 
+	private static final Pipeline PIPELINE = new Pipeline("ErigChainTxtJson1", Stages.TEXT)
+			.add(Stages.posUnitex())
+			.add(Stages.unitexFromPos())
+			.add(Stages.ner())
+			.add(Stages.toponymsFromNer())
+			.add(Stages.geoJson());
+
+	private static final ShardedPipeline SHARDED = new ShardedPipeline(PIPELINE)
+			.merge(Stages.NER, ShardMergers.tei(Stages.UNITEX))
+			.merge(Stages.GEO, ShardMergers.geoJson());
+
 	private String textInput = "", api_key = "demo", lang = "French";
+	private String sharding = TextSharder.NONE;
+	private String priority = "interactive";
 
-	private XmlObject taggedText;
+	private TeiDocument taggedText;
 	private String topoList, topoUrl, textUrl;
 
 	@LiteralDataInput(identifier = "api_key", abstrakt = "Your API key", defaultValue = "demo", minOccurs = 0, maxOccurs = 1)
@@ -73,8 +80,20 @@ public class ErigChainTxtJson1 extends AbstractAnnotatedAlgorithm {
 		this.textInput = textInput;
 	}
 
-	@ComplexDataOutput(identifier = "taggedText", abstrakt = "XML/TEI NER tagged text", binding = GenericXMLDataBinding.class)
-	public XmlObject getTaggedText() {
+	@LiteralDataInput(identifier = "sharding", abstrakt = "Splits long texts into sentences or paragraphs processed concurrently", defaultValue = "none", allowedValues = {
+			"none", "sentence", "paragraph" }, minOccurs = 0, maxOccurs = 1)
+	public void setLiteralSharding(String literalInput) {
+		this.sharding = literalInput;
+	}
+
+	@LiteralDataInput(identifier = "priority", abstrakt = "Interactive requests (live localisation) overtake batch requests (re-processing) on upstream services", defaultValue = "interactive", allowedValues = {
+			"interactive", "batch" }, minOccurs = 0, maxOccurs = 1)
+	public void setLiteralPriority(String literalInput) {
+		this.priority = literalInput;
+	}
+
+	@ComplexDataOutput(identifier = "taggedText", abstrakt = "XML/TEI NER tagged text", binding = TeiDataBinding.class)
+	public TeiDocument getTaggedText() {
 		return taggedText;
 	}
 
@@ -96,89 +115,39 @@ public class ErigChainTxtJson1 extends AbstractAnnotatedAlgorithm {
 	@Execute
 	public void run() {
 
-		String url_base = "http://erig.univ-pau.fr";
-		String text = "Je visite les Pyrénées au sud de Toulouse.";
-		String input = "";
-		String output = "";
 		String separator = "****************";
 
 		// begin application settings
 		ChoucasConfig.setup();
-		String hostUrl = ChoucasConfig.getHostUrl();
-		String tempPath = ChoucasConfig.getTempPath();
-		String tempDir = ChoucasConfig.getTempDir();
-		String timeFile; // The time a file is saved
-
-		System.out.println("HostUrl : " + hostUrl);
-		System.out.println("TempPath : " + tempPath);		
-		System.out.println("TempDir :" + tempDir);
+		System.out.println("HostUrl : " + ChoucasConfig.getHostUrl());
+		System.out.println("TempPath : " + ChoucasConfig.getTempPath());		
+		System.out.println("TempDir :" + ChoucasConfig.getTempDir());
 		WsUtils.setStdoutFlag(true);
 		// End application settings
 		
 		if (textInput != null) {
 
 			try {
-				//input = textInput;
-				input = IoUtils.readDataString(textInput);
-				System.out.println("\n" + separator);
-				System.out.println("Calling POS...");
-				output = callPOSUnitex(url_base, api_key, lang, input);
-				if (WsUtils.getStdoutFlag()) {
-					System.out.println("\nInput :\n" + input);
-					System.out.println("\nOutput :\n" + output);
-				}
-				System.out.println("\nService Invoked Successfully !");
-
-				input = WsUtils.stringToUnitex(output);
-				System.out.println("\n" + separator);
-				System.out.println("Calling NER...");
-				output = callNER(url_base, api_key, lang, input);
-				if (WsUtils.getStdoutFlag()) {
-					System.out.println("\nInput :\n" + input);
-					System.out.println("\nOutput :\n" + output);
-				}
-				System.out.println("\nService Invoked Successfully !");
-
-				timeFile = java.time.LocalDateTime.now().toString().replace(":", "-");
-				IoUtils.writeFile(tempPath + tempDir + "taggedText" + timeFile + ".xml", output);
-				taggedText = Factory.parse(output);
-				textUrl = hostUrl + tempDir + "taggedText" + timeFile + ".xml";
-
-
-				input = IoUtils.stringCleaning(output);
-				System.out.println("\n" + separator);
-				System.out.println("Calling TOP...");
-				output = callTOP(url_base, api_key, lang, input);
-				output = output.toString();
-				if (WsUtils.getStdoutFlag()) {
-					System.out.println("\nInput :\n" + input);
-					System.out.println("\nOutput :\n");
-					IoUtils.prettyPrintJson(output);
-				}
-				System.out.println("\nService Invoked Successfully !");
-
-				input = output;
-				System.out.println("\n" + separator);
-				System.out.println("Calling GEO...");
-				output = callGEO(url_base, api_key, new JSONArray(input));
-				if (WsUtils.getStdoutFlag()) {
-					System.out.println("\nInput :\n");
-					IoUtils.prettyPrintJson(input);
-					System.out.println("\nOutput :\n");
-					IoUtils.prettyPrintJson(output);
-				}
-				System.out.println("\nService Invoked Successfully !");
-
-				// Response from CallGEO is a String, so returned using literalOutput.
+				PipelineContext context = new PipelineContext()
+						.put(Stages.TEXT, IoUtils.readDataString(textInput))
+						.put(Stages.API_KEY, api_key)
+						.put(Stages.LANG, lang)
+						.put(Stages.PRIORITY, priority);
+				SHARDED.run(context, TextSharder.split(context.getString(Stages.TEXT), sharding));
+
+				String output = context.getString(Stages.NER);
+				taggedText = TeiDocument.of(output);
+				textUrl = IoUtils.publishFile("taggedText", ".xml", output);
+
+				// Response from GEO is a String, so returned using literalOutput.
 				// Despite it represents structured data.
-				timeFile = java.time.LocalDateTime.now().toString().replace(":", "-");
-				IoUtils.writeFile(tempPath + tempDir + "topoList" + timeFile + ".json", output);
-				topoList = output;
-				topoUrl = hostUrl + tempDir + "topoList" + timeFile + ".json";
+				topoList = context.getString(Stages.GEO);
+				topoUrl = IoUtils.publishFile("topoList", ".json", topoList);
 
 			} catch (Exception e) {
 				System.out.println("\nError while calling REST Service");
 				e.printStackTrace();
+				WsUtils.failIfUnavailable(e);
 			}
 
 		} else {
@@ -190,65 +159,4 @@ public class ErigChainTxtJson1 extends AbstractAnnotatedAlgorithm {
 		// log.debug("Finished erig process, complex output is : {}", taggedText);
 	}
 
-	// POS processing service, unitex output
-	protected static String callPOSUnitex(String api_url, String api_key, String lang, String content)
-			throws JSONException, IOException {
-		api_url += "/PERDIDO/api/pos/txt_unitex/";
-
-		String request = "{\"api_key\":\"" + api_key + "\",\"content\":\"" + content + "\",\"lang\":\"" + lang + "\"}";
-
-		return WsUtils.callServicePost(api_url, request);
-
-	}
-
-	// Expanded named entity recognition service
-	protected static String callNER(String api_url, String api_key, String lang, String content)
-			throws JSONException, IOException {
-		api_url += "/PERDIDO/api/ner/pos_xml/";
-
-		String request = "{\"api_key\":\"" + api_key + "\",\"content\":\"" + content + "\",\"lang\":\"" + lang + "\"}";
-
-		return WsUtils.callServicePost(api_url, request);
-	}
-
-	// GetToponyms service
-	protected static String callTOP(String api_url, String api_key, String lang, String content)
-			throws JSONException, IOException {
-		api_url += "/PERDIDO/api/toponyms/ner_json/";
-
-		// String contentTest="<?xml version=\"1.0\" encoding=\"UTF-8\"?><TEI
-		// xmlns=\"http://www.tei-c.org/ns/1.0\"><teiHeader><fileDesc><titleStmt><title><!--
-		// title of the resource --></title></titleStmt><publicationStmt><p><!--
-		// Information about distribution of the resource
-		// --></p></publicationStmt><sourceDesc><p><!-- Information about source from
-		// which the resource derives
-		// --></p></sourceDesc></fileDesc></teiHeader><text><body><p><s><rs><name><w
-		// lemma=\"pau\" type=\"NPr\">Pau</w></name></rs><pc
-		// force=\"strong\">.</pc></s><s/></p></body></text></TEI>";
-
-		content = URLEncoder.encode(content, "UTF-8");
-
-		String request = "{\"api_key\":\"" + api_key + "\",\"content\":\"" + content + "\",\"lang\":\"" + lang + "\"}";
-
-		return WsUtils.callServicePost(api_url, request);
-	}
-
-	// GeoJson, KML or GPX service.
-	// Returns a String containing a list of toponyms with their geo-location
-	// structured using standard output format (GeoJSON, KML, GPX).
-	// The expected output format is specified as a parameter value.
-	protected static String callGEO(String api_url, String api_key, JSONArray content)
-			throws JSONException, IOException {
-		api_url += "/PERDIDO/api/toponyms/json_gps/";
-
-		String outputFormat = "GeoJson";
-		String getURL = "false";
-
-		String request = "{\"api_key\":\"" + api_key + "\",\"content\":" + content + ",\"outputFormat\":\""
-				+ outputFormat + "\",\"getURL\":\"" + getURL + "\"}";
-
-		return WsUtils.callServicePost(api_url, request);
-
-	}
-
 }
@@ -13,6 +13,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URLEncoder;
+import java.util.Map;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -35,7 +36,9 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 
-import choucas.io.data.GenericJSONDataBinding;
+import choucas.io.data.RawJSON;
+import choucas.io.data.RawJSONDataBinding;
+import choucas.utils.GazetteerFanOut;
 import choucas.utils.WsUtils;
 
 /**
@@ -59,9 +62,9 @@ public class ErigGeocoding extends AbstractAnnotatedAlgorithm {
 	//private static final Logger log = LoggerFactory.getLogger(ErigGeocoding.class);	
 	
     private String content=null, api_key="choucas", lang="French", geocoding="true", POStagger="treetagger", version="Standard", 
-    		mode="s", gazetier="bdnyme_ign", bbox=null;
+    		mode="s", gazetier="bdnyme_ign", bbox=null, fanout="false", deadline=null;
 
-    private JSONObject complexOutput;
+    private RawJSON complexOutput;
 
     @LiteralDataInput(
     		identifier = "api_key", 
@@ -166,15 +169,37 @@ public class ErigGeocoding extends AbstractAnnotatedAlgorithm {
     }
     
     
-    @ComplexDataOutput(identifier = "complexOutput", binding = GenericJSONDataBinding.class)
-    public JSONObject getComplexOutput() {
+    @LiteralDataInput(
+    		identifier = "fanout",
+    		abstrakt = "With several gazeteers, query each gazeteer concurrently and merge the features (true), or let the service query them in turn (false)",
+    		defaultValue = "false",
+    		allowedValues = {"true", "false"}, 
+    		minOccurs = 0, 
+    		maxOccurs = 1
+    		)
+    public void setLiteralFanout(String literalInput) {
+        this.fanout = literalInput;
+    }
+    
+    @LiteralDataInput(
+    		identifier = "deadline",
+    		abstrakt = "Fan-out only : time given to each gazeteer in ms, the features of the gazeteers answering later are left out",
+    		minOccurs = 0, 
+    		maxOccurs = 1)
+    public void setLiteralDeadline(String literalInput) {
+        this.deadline = literalInput;
+    }
+    
+    
+    @ComplexDataOutput(identifier = "complexOutput", binding = RawJSONDataBinding.class)
+    public RawJSON getComplexOutput() {
         return complexOutput;
     }
   
   @Execute
   public void run() {
 	  String url_base =  "http://erig.univ-pau.fr";
-	  JSONObject response;
+	  RawJSON response;
 	  String separator = "****************";
 	  
 	  //log.debug("Running erig process");
@@ -184,7 +209,12 @@ public class ErigGeocoding extends AbstractAnnotatedAlgorithm {
 		  try {
 			  System.out.println("\n" + separator);               
 			  System.out.println("Adapter : Calling Geocoding...");
-			  response = callGEO(url_base, api_key, lang, content, geocoding, POStagger, version, mode, gazetier, bbox);
+			  if (Boolean.parseBoolean(fanout) && GazetteerFanOut.isMultiple(gazetier)) {
+				  response = RawJSON.of(callGEOFanOut(url_base, api_key, lang, content, geocoding, POStagger, version, mode, gazetier, bbox, deadline));
+			  }
+			  else {
+				  response = callGEO(url_base, api_key, lang, content, geocoding, POStagger, version, mode, gazetier, bbox);
+			  }
 			  complexOutput = response;
 			  if (WsUtils.getStdoutFlag()) {
 				  System.out.println("\nInput :\n" + content);
@@ -195,6 +225,7 @@ public class ErigGeocoding extends AbstractAnnotatedAlgorithm {
 		  } catch (Exception e) {
 			  System.out.println("\n Adapter: Error while calling REST Service");
 			  e.printStackTrace();
+			  WsUtils.failIfUnavailable(e);
 			  }
 		  }
       else {
@@ -205,25 +236,32 @@ public class ErigGeocoding extends AbstractAnnotatedAlgorithm {
       //log.debug("Finished erig process, complex output is : {}", complexOutput);
   }
   
-  protected static JSONObject callGEO(String api_url, String api_key, String lang, String content, String geocoding, String POStagger, String version, String mode, String gazetier, String bbox) throws JSONException, IOException
+  /**
+   * The service response passed through as is, not parsed
+   */
+  protected static RawJSON callGEO(String api_url, String api_key, String lang, String content, String geocoding, String POStagger, String version, String mode, String gazetier, String bbox) throws JSONException, IOException
   {
-	  String response;
+	  byte[] response;
 	  
-	  String request = "{\"api_key\":\""+api_key
-			  +"\",\"content\":\""+content
-			  +"\",\"lang\":\""+lang
-			  +"\",\"geocoding\":\""+geocoding
-			  +"\",\"POStagger\":\""+POStagger
-			  +"\",\"version\":\""+version
-			  +"\",\"mode\":\""+mode
-			  +"\",\"gazetier\":\""+gazetier
-			  +"\",\"bbox\":\""+bbox+"\"}";
+	  Map<String, String> params = WsUtils.perdidoParams(api_key, content, lang, geocoding, POStagger, version, mode, gazetier, bbox);
 	  
 	  api_url += "/PERDIDO/api/geocoding/";
 
-  	response = WsUtils.callServicePost(api_url, request);
+  	response = WsUtils.callServicePostJsonBytesCached(api_url, params);
 		
-  	return (new JSONObject(response)); 	
+  	return RawJSON.of(response); 	
   } 
+  
+  /**
+   * One request per gazetier, sent concurrently, features merged
+   */
+  protected static JSONObject callGEOFanOut(String api_url, String api_key, String lang, String content, String geocoding, String POStagger, String version, String mode, String gazetier, String bbox, String deadline) throws JSONException, IOException
+  {
+	  Map<String, String> params = WsUtils.perdidoParams(api_key, content, lang, geocoding, POStagger, version, mode, gazetier, bbox);
+	  
+	  api_url += "/PERDIDO/api/geocoding/";
+	  
+	  return deadline == null ? GazetteerFanOut.geocode(api_url, params) : GazetteerFanOut.geocode(api_url, params, Long.parseLong(deadline));
+  }
 	
 }
@@ -12,23 +12,22 @@ package choucas.erig.algorithm;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Map;
 
 import org.json.JSONException;
  
-import org.apache.xmlbeans.XmlObject;
-import org.apache.xmlbeans.XmlObject.Factory;
-
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.ComplexDataOutput;
 import org.n52.wps.algorithm.annotation.Execute;
 import org.n52.wps.algorithm.annotation.LiteralDataInput;
-import org.n52.wps.io.data.binding.complex.GenericXMLDataBinding;
 import org.n52.wps.io.datahandler.generator.GenericXMLDataGenerator;
 import org.n52.wps.server.AbstractAnnotatedAlgorithm;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import choucas.io.data.TeiDataBinding;
+import choucas.utils.TeiDocument;
 import choucas.utils.WsUtils;
 
 /**
@@ -54,7 +53,7 @@ public class ErigGeoparsing extends AbstractAnnotatedAlgorithm {
     private String content=null, api_key="choucas", lang="French", geocoding="true", POStagger="treetagger", version="Standard", 
     		mode="s", gazetier="bdnyme_ign", bbox=null;
 
-    private XmlObject complexOutput;
+    private TeiDocument complexOutput;
 
     @LiteralDataInput(
     		identifier = "api_key", 
@@ -159,8 +158,8 @@ public class ErigGeoparsing extends AbstractAnnotatedAlgorithm {
     }
     
     
-  @ComplexDataOutput(identifier = "complexOutput", binding = GenericXMLDataBinding.class)
-  public XmlObject getComplexOutput() {
+  @ComplexDataOutput(identifier = "complexOutput", binding = TeiDataBinding.class)
+  public TeiDocument getComplexOutput() {
       return complexOutput;
   }
   
@@ -178,7 +177,7 @@ public class ErigGeoparsing extends AbstractAnnotatedAlgorithm {
 			  System.out.println("\n" + separator);               
 			  System.out.println("Adapter : Calling Geoparsing...");
 			  response = callGEO(url_base, api_key, lang, content, geocoding, POStagger, version, mode, gazetier, bbox);
-			  complexOutput = Factory.parse(response);
+			  complexOutput = TeiDocument.of(response);
 			  if (WsUtils.getStdoutFlag()) {
 				  System.out.println("\nInput :\n" + content);
 				  System.out.println("\nOutput :\n"+ complexOutput);
@@ -188,6 +187,7 @@ public class ErigGeoparsing extends AbstractAnnotatedAlgorithm {
 		  } catch (Exception e) {
 			  System.out.println("\n Adapter: Error while calling REST Service");
 			  e.printStackTrace();
+			  WsUtils.failIfUnavailable(e);
 			  }
 		  }
       else {
@@ -203,19 +203,10 @@ public class ErigGeoparsing extends AbstractAnnotatedAlgorithm {
     {
     	api_url += "/PERDIDO/api/geoparsing/";
 
-    	String request = "{\"api_key\":\""+api_key
-    			+"\",\"content\":\""+content
-    			+"\",\"lang\":\""+lang
-    			+"\",\"geocoding\":\""+geocoding
-    			+"\",\"POStagger\":\""+POStagger
-    			+"\",\"version\":\""+version
-    			+"\",\"mode\":\""+mode
-    			+"\",\"gazetier\":\""+gazetier
-    			+"\",\"bbox\":\""+bbox+"\"}";
+    	Map<String, String> params = WsUtils.perdidoParams(api_key, content, lang, geocoding, POStagger, version, mode, gazetier, bbox);
 
     	//System.out.println(content);
-    	//System.out.println(request);
-    	return WsUtils.callServicePost(api_url, request);
+    	return WsUtils.callServicePostCached(api_url, params);
     }
 	
 }
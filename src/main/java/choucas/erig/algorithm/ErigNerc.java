@@ -12,7 +12,6 @@ package choucas.erig.algorithm;
 import java.io.IOException;
 import org.json.JSONException;
 import org.apache.xmlbeans.XmlObject;
-import org.apache.xmlbeans.XmlObject.Factory;
 
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.ComplexDataOutput;
@@ -23,6 +22,7 @@ import org.n52.wps.server.AbstractAnnotatedAlgorithm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import choucas.utils.JsonRequest;
 import choucas.utils.WsUtils;
 
 /**
@@ -91,7 +91,6 @@ public class ErigNerc extends AbstractAnnotatedAlgorithm {
     public void run() {
     	
         String url_base =  "http://erig.univ-pau.fr";
-        String response = "";
         String separator = "****************";
     	
         // log.debug("Running erig process");
@@ -101,8 +100,7 @@ public class ErigNerc extends AbstractAnnotatedAlgorithm {
 		  try {
 			  System.out.println("\n" + separator);               
 			  System.out.println("Adapter : Calling Nerc...");
-			  response = callNERC(url_base, api_key, lang, content);
-			  complexOutput = Factory.parse(response);
+			  complexOutput = callNERC(url_base, api_key, lang, content);
 			  if (WsUtils.getStdoutFlag()) {
 				  System.out.println("\nInput :\n" + content);
 				  System.out.println("\nOutput :\n"+ complexOutput);
@@ -112,6 +110,7 @@ public class ErigNerc extends AbstractAnnotatedAlgorithm {
 		  } catch (Exception e) {
 			  System.out.println("\n Adapter: Error while calling REST Service");
 			  e.printStackTrace();
+			  WsUtils.failIfUnavailable(e);
 			  }
 		  }
         else {
@@ -124,13 +123,16 @@ public class ErigNerc extends AbstractAnnotatedAlgorithm {
     
     
     // Expanded named entity recognition and classification service
-    protected static String callNERC(String api_url, String api_key, String lang, String content) throws JSONException, IOException
+    protected static XmlObject callNERC(String api_url, String api_key, String lang, String content) throws JSONException, IOException
     {
     		api_url += "/PERDIDO/api/nerc/txt_xml/";
     		
-        	String request = "{\"api_key\":\""+api_key+"\",\"content\":\""+content+"\",\"lang\":\""+lang+"\"}";
+        	JsonRequest request = new JsonRequest()
+        			.put("api_key", api_key)
+        			.put("content", content)
+        			.put("lang", lang);
    		
-    		return WsUtils.callServicePost(api_url, request);
+    		return WsUtils.callServicePostXml(api_url, request);
     }
     
 }
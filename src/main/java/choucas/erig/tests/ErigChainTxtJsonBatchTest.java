@@ -0,0 +1,51 @@
+/**
+ * Package choucas.erig
+ * Provides WPS processes (services) and tools to access services hosted on erig.univ-pau.fr HTTP server
+ * WPS processes (services) are hosted on a 52°North WPS server
+ * See http://erig.univ-pau.fr/PERDIDO/api.jsp
+ * See https://52north.org/software/software-projects/wps/ 
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.erig.tests;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import choucas.erig.algorithm.ErigChainTxtJsonBatch;
+import choucas.io.data.DocumentsDataParser;
+import choucas.pipeline.BatchResults;
+
+/**
+ * Test application for Erig Chain batch process.
+ */
+
+public class ErigChainTxtJsonBatchTest 
+{
+    public static void main( String[] args )
+    {
+    	ErigChainTxtJsonBatch service = new ErigChainTxtJsonBatch();
+
+    	String documents = "{\"id\":\"report-1\",\"text\":\"Je vais à  Bourg-d'Oisans, en passant près de Grenoble. Puis je pars en direction du col de Bellefont.\"}\n"
+    			+ "{\"id\":\"report-2\",\"text\":\"On est passé au col de la Mine de Fer. On descend vers le Lac de Crop.\"}\n";
+
+        try {
+			service.setDocuments(DocumentsDataParser.parseJsonLines(new ByteArrayInputStream(documents.getBytes(StandardCharsets.UTF_8))));
+
+	        System.out.println( "--------------------------------" );
+	        System.out.println( "Test : Calling Erig Chain Txt to GeoJson batch Service" );
+	        service.run();
+	        BatchResults results = service.getResults();
+	        for (String line = results.next(); line != null; line = results.next()) {
+		        System.out.println( "\n--------------------------------------");
+		        System.out.println("Test: Result of Erig Chain batch\n\n" + line);
+	        }
+	        System.out.println( "\n--------------------------------------");
+	        System.out.println("Test: " + results.getSucceeded() + " documents processed, " + results.getFailed() + " failed");
+
+		} catch (Exception e) {
+			System.out.println( "Test: Error in calling Erig Chain batch\n");
+			e.printStackTrace();
+		}
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import org.n52.wps.io.data.IComplexData;
+
+import choucas.pipeline.BatchResults;
+
+/**
+ * 
+ * This class holds the results of a batch as payload, read while the batch runs. 
+ *
+ */
+
+public class BatchResultsDataBinding implements IComplexData {
+
+	private static final long serialVersionUID = 2837305519664071520L;
+
+	private final transient BatchResults results;
+
+	public BatchResultsDataBinding(BatchResults results) {
+		this.results = results;
+	}
+
+	@Override
+	public BatchResults getPayload() {
+		return results;
+	}
+
+	@Override
+	public Class<BatchResults> getSupportedClass() {
+		return BatchResults.class;
+	}
+
+	@Override
+	public void dispose() {}
+}
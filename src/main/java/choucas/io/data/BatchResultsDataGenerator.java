@@ -0,0 +1,56 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.datahandler.generator.AbstractGenerator;
+
+/**
+ * 
+ * This Class is a generator for the results of a batch, as JSON lines : 
+ * the stream returns each document result as soon as it is done. 
+ * 
+ */
+
+public class BatchResultsDataGenerator extends AbstractGenerator {
+
+	public static final String JSON_LINES = "application/x-ndjson";
+
+	public BatchResultsDataGenerator(){
+		super();
+		supportedIDataTypes.add(BatchResultsDataBinding.class);
+		supportedFormats.add(JSON_LINES);
+	}
+
+	@Override
+	public boolean isSupportedSchema(String schema) {
+		//no schema checks
+		return true;
+	}
+
+	@Override
+	public InputStream generateStream(IData data, String mimeType, String schema)
+			throws IOException {
+
+		InputStream in = null;
+
+		if(data instanceof BatchResultsDataBinding){
+
+			in = ((BatchResultsDataBinding)data).getPayload().openStream();
+
+		}
+
+		return in;
+	}
+
+}
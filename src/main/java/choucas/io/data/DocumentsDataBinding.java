@@ -0,0 +1,46 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.util.List;
+
+import org.n52.wps.io.data.IComplexData;
+
+import choucas.pipeline.BatchPipeline;
+
+/**
+ * 
+ * This class holds the documents of a batch as payload. 
+ *
+ */
+
+public class DocumentsDataBinding implements IComplexData {
+
+	private static final long serialVersionUID = -6180236462310471539L;
+
+	private final List<BatchPipeline.Document> documents;
+
+	public DocumentsDataBinding(List<BatchPipeline.Document> documents) {
+		this.documents = documents;
+	}
+
+	@Override
+	public List<BatchPipeline.Document> getPayload() {
+		return documents;
+	}
+
+	@Override
+	public Class<?> getSupportedClass() {
+		return List.class;
+	}
+
+	@Override
+	public void dispose() {}
+}
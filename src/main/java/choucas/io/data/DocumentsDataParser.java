@@ -0,0 +1,168 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.json.JSONObject;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.datahandler.parser.AbstractParser;
+
+import choucas.pipeline.BatchPipeline;
+
+/**
+ * 
+ * This Class is a parser for the documents of a batch : a zip archive of UTF-8 texts,
+ * identified by their file names, or JSON lines {"id":..., "text":...}, a line that is
+ * not a JSON object being the text itself, identified by its line number. 
+ * The documents are bounded (choucas.batch.zip.entryMB by zip entry, choucas.batch.zip.totalMB
+ * uncompressed or in JSON lines, choucas.batch.zip.maxEntries documents) : the parse fails past a bound. Directories,
+ * __MACOSX/ metadata and hidden files (.DS_Store...) are not documents.
+ * 
+ */
+
+public class DocumentsDataParser extends AbstractParser {
+
+	public static final String ZIP = "application/zip";
+	public static final String JSON_LINES = "application/x-ndjson";
+
+	protected static long maxEntryBytes = Long.getLong("choucas.batch.zip.entryMB", 16) * 1024 * 1024;
+	protected static long maxTotalBytes = Long.getLong("choucas.batch.zip.totalMB", 256) * 1024 * 1024;
+	protected static int maxEntries = Integer.getInteger("choucas.batch.zip.maxEntries", 10000);
+
+	public DocumentsDataParser(){
+		super();
+		supportedIDataTypes.add(DocumentsDataBinding.class);
+		supportedFormats.add(ZIP);
+		supportedFormats.add(JSON_LINES);
+	}
+
+	@Override
+	public boolean isSupportedSchema(String schema) {
+		//no schema checks
+		return true;
+	}
+
+	@Override
+	public IData parse(InputStream input, String mimeType, String schema) {
+		try {
+			if (ZIP.equals(mimeType) || "application/x-zip-compressed".equals(mimeType)) {
+				return new DocumentsDataBinding(parseZip(input));
+			}
+			return new DocumentsDataBinding(parseJsonLines(input));
+		} catch (IOException e) {
+			System.out.println("DocumentsDataParser : cannot read the documents");
+			e.printStackTrace();
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public static List<BatchPipeline.Document> parseZip(InputStream input) throws IOException {
+		List<BatchPipeline.Document> documents = new ArrayList<BatchPipeline.Document>();
+		try (ZipInputStream zip = new ZipInputStream(input, StandardCharsets.UTF_8)) {
+			byte[] buffer = new byte[8192];
+			long total = 0;
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+				if (entry.isDirectory() || isIgnored(entry.getName())) {
+					continue;
+				}
+				if (documents.size() >= maxEntries) {
+					throw new IOException("zip archive has more than " + maxEntries + " documents (choucas.batch.zip.maxEntries)");
+				}
+				// sizes declared in the archive can lie : the bytes inflated are counted
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				for (int count = zip.read(buffer); count >= 0; count = zip.read(buffer)) {
+					content.write(buffer, 0, count);
+					total += count;
+					if (content.size() > maxEntryBytes) {
+						throw new IOException("zip entry " + entry.getName() + " is larger than " + maxEntryBytes + " bytes uncompressed (choucas.batch.zip.entryMB)");
+					}
+					if (total > maxTotalBytes) {
+						throw new IOException("zip archive is larger than " + maxTotalBytes + " bytes uncompressed (choucas.batch.zip.totalMB)");
+					}
+				}
+				documents.add(new BatchPipeline.Document(entry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8)));
+			}
+		}
+		return documents;
+	}
+
+	/**
+	 * Metadata added by archivers (macOS resource forks, .DS_Store) and hidden files
+	 */
+	protected static boolean isIgnored(String name) {
+		if (name.startsWith("__MACOSX/")) {
+			return true;
+		}
+		String fileName = name.substring(name.lastIndexOf('/') + 1);
+		return fileName.startsWith(".");
+	}
+
+	public static List<BatchPipeline.Document> parseJsonLines(InputStream input) throws IOException {
+		List<BatchPipeline.Document> documents = new ArrayList<BatchPipeline.Document>();
+		// bytes counted as read : a line without end cannot fill the heap either
+		InputStream bounded = new FilterInputStream(input) {
+			private long total = 0;
+
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				count(b < 0 ? -1 : 1);
+				return b;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				int count = super.read(buffer, offset, length);
+				count(count);
+				return count;
+			}
+
+			private void count(int count) throws IOException {
+				if (count > 0 && (total += count) > maxTotalBytes) {
+					throw new IOException("JSON lines are larger than " + maxTotalBytes + " bytes (choucas.batch.zip.totalMB)");
+				}
+			}
+		};
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(bounded, StandardCharsets.UTF_8))) {
+			int number = 0;
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				number++;
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				if (documents.size() >= maxEntries) {
+					throw new IOException("JSON lines have more than " + maxEntries + " documents (choucas.batch.zip.maxEntries)");
+				}
+				if (line.trim().startsWith("{")) {
+					JSONObject document = new JSONObject(line);
+					String text = document.has("text") ? document.getString("text") : document.optString("textInput", "");
+					documents.add(new BatchPipeline.Document(document.optString("id", String.valueOf(number)), text));
+				}
+				else {
+					documents.add(new BatchPipeline.Document(String.valueOf(number), line));
+				}
+			}
+		}
+		return documents;
+	}
+
+}
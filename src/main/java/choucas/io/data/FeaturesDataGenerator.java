@@ -9,7 +9,6 @@
 
 package choucas.io.data;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -45,7 +44,8 @@ public class FeaturesDataGenerator extends AbstractGenerator {
 		if(data instanceof FeaturesDataBinding){
 			
 			Object objData = ((FeaturesDataBinding)data).getPayload();
-			in = new ByteArrayInputStream(objData.toString().getBytes());
+			// written as read, without a String copy of the whole payload
+			in = GeoJSONStream.of(objData, false);
 			
 		}
 		
@@ -0,0 +1,602 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation
+ * They are returned by parsers (inputs) or provided by generators(outputs)
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ *
+ * This class writes GeoJSON features as FlatGeobuf (https://flatgeobuf.org, version 3) :
+ * magic bytes, the header, the packed Hilbert R-tree of the feature boxes, then the features
+ * in Hilbert order. Header and features are size-prefixed flatbuffers, written here without
+ * the flatbuffers library. The properties become columns, typed from their values
+ * (Long, Double, Bool, String, Json for objects, arrays and mixed types).
+ * Coordinates are written in 2D, in EPSG:4326.
+ *
+ */
+
+public class FlatGeobufWriter {
+
+	protected static final byte[] MAGIC = { 0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00 };
+	protected static final int NODE_SIZE = 16;
+	protected static final int NODE_ITEM_LENGTH = 40;
+
+	// GeometryType
+	protected static final int UNKNOWN = 0, POINT = 1, LINESTRING = 2, POLYGON = 3,
+			MULTIPOINT = 4, MULTILINESTRING = 5, MULTIPOLYGON = 6, GEOMETRYCOLLECTION = 7;
+	protected static final List<String> GEOMETRY_TYPES = Arrays.asList("Unknown", "Point", "LineString", "Polygon",
+			"MultiPoint", "MultiLineString", "MultiPolygon", "GeometryCollection");
+
+	// ColumnType
+	protected static final int BOOL = 2, LONG = 7, DOUBLE = 10, STRING = 11, JSON = 12;
+
+	/**
+	 * A feature ready to be written : its encoded flatbuffer, box and Hilbert value
+	 */
+	protected static class Item {
+		final byte[] buffer;
+		final double[] box;
+		long hilbert;
+
+		Item(byte[] buffer, double[] box) {
+			this.buffer = buffer;
+			this.box = box;
+		}
+	}
+
+	public static byte[] write(GeoJSONFeatures data) {
+		List<JSONObject> features = data.getFeatures();
+		Map<String, Integer> columns = columns(features);
+		List<String> names = new ArrayList<String>(columns.keySet());
+
+		int geometryType = -1;
+		double[] extent = emptyBox();
+		List<Item> items = new ArrayList<Item>();
+		for (JSONObject feature : features) {
+			JSONObject geometry = GeoJSONFeatures.geometry(feature);
+			int type = geometry == null ? UNKNOWN : type(geometry);
+			geometryType = geometryType < 0 || geometryType == type ? type : UNKNOWN;
+			double[] box = emptyBox();
+			Table table = new Table();
+			if (geometry != null) {
+				table.add(0, geometry(geometry, box));
+			}
+			byte[] properties = properties(GeoJSONFeatures.properties(feature), names, columns);
+			if (properties.length > 0) {
+				table.add(1, properties);
+			}
+			expand(extent, box);
+			items.add(new Item(finish(table), box));
+		}
+
+		// packed Hilbert R-tree : features sorted by the Hilbert value of their box center
+		int nodeSize = items.isEmpty() ? 0 : NODE_SIZE;
+		for (Item item : items) {
+			item.hilbert = hilbert(item.box, extent);
+		}
+		Collections.sort(items, new Comparator<Item>() {
+			@Override
+			public int compare(Item a, Item b) {
+				return Long.compare(a.hilbert, b.hilbert);
+			}
+		});
+
+		Table header = new Table();
+		header.add(0, "choucas");
+		if (extent[0] <= extent[2]) {
+			header.add(1, extent);
+		}
+		header.add(2, Scalar.ubyte(Math.max(geometryType, UNKNOWN)));
+		List<Table> columnTables = new ArrayList<Table>();
+		for (String name : names) {
+			columnTables.add(new Table().add(0, name).add(1, Scalar.ubyte(columns.get(name))));
+		}
+		if (!columnTables.isEmpty()) {
+			header.add(7, columnTables);
+		}
+		header.add(8, Scalar.uint64(items.size()));
+		header.add(9, Scalar.ushort(nodeSize));
+		header.add(10, new Table().add(0, "EPSG").add(1, Scalar.int32(4326)));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(MAGIC, 0, MAGIC.length);
+		byte[] headerBuffer = finish(header);
+		out.write(headerBuffer, 0, headerBuffer.length);
+		if (nodeSize > 0) {
+			byte[] index = index(items, nodeSize);
+			out.write(index, 0, index.length);
+		}
+		for (Item item : items) {
+			out.write(item.buffer, 0, item.buffer.length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Column types of the properties, in order of first appearance
+	 */
+	protected static Map<String, Integer> columns(List<JSONObject> features) {
+		Map<String, Integer> columns = new LinkedHashMap<String, Integer>();
+		for (JSONObject feature : features) {
+			JSONObject properties = GeoJSONFeatures.properties(feature);
+			for (String key : properties.keySet()) {
+				Object value = properties.opt(key);
+				Integer type = columns.get(key);
+				if (value == null || value == JSONObject.NULL) {
+					if (type == null) {
+						columns.put(key, -1);
+					}
+					continue;
+				}
+				int valueType = value instanceof Boolean ? BOOL
+						: value instanceof Number ? (GeoJSONFeatures.isIntegral(value) ? LONG : DOUBLE)
+						: value instanceof String ? STRING : JSON;
+				if (type == null || type < 0 || type == valueType) {
+					columns.put(key, valueType);
+				}
+				else if ((type == LONG && valueType == DOUBLE) || (type == DOUBLE && valueType == LONG)) {
+					columns.put(key, DOUBLE);
+				}
+				else {
+					columns.put(key, JSON);
+				}
+			}
+		}
+		// only null values
+		for (Map.Entry<String, Integer> column : columns.entrySet()) {
+			if (column.getValue() < 0) {
+				column.setValue(STRING);
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Properties buffer : column index (ushort) and value of each non null property
+	 */
+	protected static byte[] properties(JSONObject properties, List<String> names, Map<String, Integer> columns) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer scalar = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+		for (String key : properties.keySet()) {
+			Object value = properties.opt(key);
+			if (value == null || value == JSONObject.NULL) {
+				continue;
+			}
+			scalar.clear();
+			scalar.putShort((short) names.indexOf(key));
+			switch (columns.get(key)) {
+			case BOOL:
+				scalar.put((byte) (((Boolean) value) ? 1 : 0));
+				break;
+			case LONG:
+				scalar.putLong(((Number) value).longValue());
+				break;
+			case DOUBLE:
+				scalar.putDouble(((Number) value).doubleValue());
+				break;
+			default:
+				String text = columns.get(key) == STRING ? (String) value : JSONObject.valueToString(value);
+				byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+				scalar.putInt(bytes.length);
+				out.write(scalar.array(), 0, scalar.position());
+				out.write(bytes, 0, bytes.length);
+				continue;
+			}
+			out.write(scalar.array(), 0, scalar.position());
+		}
+		return out.toByteArray();
+	}
+
+	protected static int type(JSONObject geometry) {
+		int type = GEOMETRY_TYPES.indexOf(geometry.optString("type", ""));
+		return type < 0 ? UNKNOWN : type;
+	}
+
+	/**
+	 * Geometry table : xy coordinates, ends of the rings and lines, parts of the multi polygons
+	 * and collections. The box of the geometry is expanded.
+	 */
+	protected static Table geometry(JSONObject geometry, double[] box) {
+		int type = type(geometry);
+		Table table = new Table().add(6, Scalar.ubyte(type));
+		if (type == GEOMETRYCOLLECTION || type == MULTIPOLYGON) {
+			JSONArray members = type == GEOMETRYCOLLECTION ? geometry.optJSONArray("geometries") : geometry.optJSONArray("coordinates");
+			List<Table> parts = new ArrayList<Table>();
+			for (int i = 0; members != null && i < members.length(); i++) {
+				JSONObject part = type == GEOMETRYCOLLECTION ? members.getJSONObject(i)
+						: new JSONObject().put("type", "Polygon").put("coordinates", members.getJSONArray(i));
+				parts.add(geometry(part, box));
+			}
+			return table.add(7, parts);
+		}
+		JSONArray coordinates = geometry.optJSONArray("coordinates");
+		if (coordinates == null) {
+			return table;
+		}
+		List<double[]> points = new ArrayList<double[]>();
+		List<Integer> ends = new ArrayList<Integer>();
+		if (type == POINT) {
+			points.add(point(coordinates));
+		}
+		else if (type == MULTIPOINT || type == LINESTRING) {
+			line(coordinates, points);
+		}
+		else if (type == POLYGON || type == MULTILINESTRING) {
+			for (int i = 0; i < coordinates.length(); i++) {
+				line(coordinates.getJSONArray(i), points);
+				ends.add(points.size());
+			}
+		}
+		double[] xy = new double[points.size() * 2];
+		for (int i = 0; i < points.size(); i++) {
+			xy[2 * i] = points.get(i)[0];
+			xy[2 * i + 1] = points.get(i)[1];
+			expand(box, new double[] { xy[2 * i], xy[2 * i + 1], xy[2 * i], xy[2 * i + 1] });
+		}
+		table.add(1, xy);
+		if (ends.size() > 1) {
+			int[] values = new int[ends.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = ends.get(i);
+			}
+			table.add(0, values);
+		}
+		return table;
+	}
+
+	protected static double[] point(JSONArray coordinates) {
+		return new double[] { coordinates.getDouble(0), coordinates.getDouble(1) };
+	}
+
+	protected static void line(JSONArray coordinates, List<double[]> points) {
+		for (int i = 0; i < coordinates.length(); i++) {
+			points.add(point(coordinates.getJSONArray(i)));
+		}
+	}
+
+	protected static double[] emptyBox() {
+		return new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+	}
+
+	protected static void expand(double[] box, double[] other) {
+		box[0] = Math.min(box[0], other[0]);
+		box[1] = Math.min(box[1], other[1]);
+		box[2] = Math.max(box[2], other[2]);
+		box[3] = Math.max(box[3], other[3]);
+	}
+
+	/**
+	 * The index nodes, root first : minX, minY, maxX, maxY, offset (40 bytes each).
+	 * Leaves point to the features (byte offset after the index), other nodes to their first child.
+	 */
+	protected static byte[] index(List<Item> items, int nodeSize) {
+		// level bounds, leaves first
+		List<Integer> levelNodes = new ArrayList<Integer>();
+		int n = items.size();
+		int nodes = n;
+		levelNodes.add(n);
+		do {
+			n = (n + nodeSize - 1) / nodeSize;
+			nodes += n;
+			levelNodes.add(n);
+		} while (n != 1);
+		int[] levelStarts = new int[levelNodes.size()];
+		int end = nodes;
+		for (int level = 0; level < levelStarts.length; level++) {
+			end -= levelNodes.get(level);
+			levelStarts[level] = end;
+		}
+
+		double[][] boxes = new double[nodes][];
+		long[] offsets = new long[nodes];
+		long offset = 0;
+		for (int i = 0; i < items.size(); i++) {
+			boxes[levelStarts[0] + i] = items.get(i).box;
+			offsets[levelStarts[0] + i] = offset;
+			offset += items.get(i).buffer.length;
+		}
+		for (int level = 0; level < levelStarts.length - 1; level++) {
+			int position = levelStarts[level];
+			int last = position + levelNodes.get(level);
+			int parent = levelStarts[level + 1];
+			while (position < last) {
+				double[] box = emptyBox();
+				offsets[parent] = position;
+				for (int j = 0; j < nodeSize && position < last; j++) {
+					expand(box, boxes[position++]);
+				}
+				boxes[parent++] = box;
+			}
+		}
+
+		ByteBuffer index = ByteBuffer.allocate(nodes * NODE_ITEM_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < nodes; i++) {
+			for (double value : boxes[i]) {
+				index.putDouble(value);
+			}
+			index.putLong(offsets[i]);
+		}
+		return index.array();
+	}
+
+	/**
+	 * Hilbert value (32 bits) of the center of a box, on a 65536 x 65536 grid over the extent
+	 */
+	protected static long hilbert(double[] box, double[] extent) {
+		if (box[0] > box[2]) {
+			return 0;
+		}
+		double width = extent[2] - extent[0];
+		double height = extent[3] - extent[1];
+		int x = width > 0 ? (int) Math.floor(0xFFFF * ((box[0] + box[2]) / 2 - extent[0]) / width) : 0;
+		int y = height > 0 ? (int) Math.floor(0xFFFF * ((box[1] + box[3]) / 2 - extent[1]) / height) : 0;
+		return hilbert(x, y) & 0xFFFFFFFFL;
+	}
+
+	protected static int hilbert(int x, int y) {
+		int a = x ^ y;
+		int b = 0xFFFF ^ a;
+		int c = 0xFFFF ^ (x | y);
+		int d = x & (y ^ 0xFFFF);
+
+		int A = a | (b >>> 1);
+		int B = (a >>> 1) ^ a;
+		int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+		int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+		a = A; b = B; c = C; d = D;
+		A = (a & (a >>> 2)) ^ (b & (b >>> 2));
+		B = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+		C ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+		D ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+		a = A; b = B; c = C; d = D;
+		A = (a & (a >>> 4)) ^ (b & (b >>> 4));
+		B = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+		C ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+		D ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+		a = A; b = B; c = C; d = D;
+		C ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+		D ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+		a = C ^ (C >>> 1);
+		b = D ^ (D >>> 1);
+
+		int i0 = x ^ y;
+		int i1 = b | (0xFFFF ^ (i0 | a));
+		return (interleave(i1) << 1) | interleave(i0);
+	}
+
+	protected static int interleave(int value) {
+		value = (value | (value << 8)) & 0x00FF00FF;
+		value = (value | (value << 4)) & 0x0F0F0F0F;
+		value = (value | (value << 2)) & 0x33333333;
+		value = (value | (value << 1)) & 0x55555555;
+		return value;
+	}
+
+	/**
+	 * A little-endian scalar field of a table
+	 */
+	protected static class Scalar {
+		final byte[] bytes;
+
+		Scalar(int size, long value) {
+			bytes = new byte[size];
+			for (int i = 0; i < size; i++) {
+				bytes[i] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		static Scalar ubyte(int value) {
+			return new Scalar(1, value);
+		}
+
+		static Scalar ushort(int value) {
+			return new Scalar(2, value);
+		}
+
+		static Scalar int32(int value) {
+			return new Scalar(4, value);
+		}
+
+		static Scalar uint64(long value) {
+			return new Scalar(8, value);
+		}
+	}
+
+	/**
+	 * A flatbuffers table : its fields by id, Scalar or references to a String, a Table,
+	 * a vector of Tables, of doubles (double[]), of uint (int[]) or of ubyte (byte[])
+	 */
+	protected static class Table {
+		final Map<Integer, Object> fields = new TreeMap<Integer, Object>();
+
+		Table add(int id, Object value) {
+			fields.put(id, value);
+			return this;
+		}
+	}
+
+	/**
+	 * Writes a size-prefixed flatbuffer. Tables are written front to back : the vtable, the table,
+	 * then the objects it refers to, so every reference points forward. Alignments are taken
+	 * from the start of the buffer, which is padded to 8 bytes.
+	 */
+	protected static byte[] finish(Table root) {
+		Buffer buffer = new Buffer();
+		buffer.putInt(0);
+		buffer.putInt(0);
+		int table = buffer.table(root);
+		buffer.patch(4, table - 4);
+		buffer.align(8);
+		buffer.patch(0, buffer.size() - 4);
+		return buffer.toByteArray();
+	}
+
+	protected static class Buffer extends ByteArrayOutputStream {
+
+		void align(int alignment) {
+			while (count % alignment != 0) {
+				write(0);
+			}
+		}
+
+		void putShort(int value) {
+			write(value);
+			write(value >>> 8);
+		}
+
+		void putInt(int value) {
+			putShort(value);
+			putShort(value >>> 16);
+		}
+
+		void putLong(long value) {
+			putInt((int) value);
+			putInt((int) (value >>> 32));
+		}
+
+		void patch(int position, int value) {
+			for (int i = 0; i < 4; i++) {
+				buf[position + i] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		static int size(Object value) {
+			return value instanceof Scalar ? ((Scalar) value).bytes.length : 4;
+		}
+
+		int table(Table table) {
+			// inline layout, widest fields first
+			List<Map.Entry<Integer, Object>> fields = new ArrayList<Map.Entry<Integer, Object>>(table.fields.entrySet());
+			Collections.sort(fields, new Comparator<Map.Entry<Integer, Object>>() {
+				@Override
+				public int compare(Map.Entry<Integer, Object> a, Map.Entry<Integer, Object> b) {
+					return Integer.compare(size(b.getValue()), size(a.getValue()));
+				}
+			});
+			int slots = fields.isEmpty() ? 0 : ((TreeMap<Integer, Object>) table.fields).lastKey() + 1;
+			int[] offsets = new int[slots];
+			int inline = 4;
+			int alignment = 4;
+			for (Map.Entry<Integer, Object> field : fields) {
+				int size = size(field.getValue());
+				inline = (inline + size - 1) / size * size;
+				offsets[field.getKey()] = inline;
+				inline += size;
+				alignment = Math.max(alignment, size);
+			}
+
+			align(2);
+			int vtable = count;
+			putShort(4 + 2 * slots);
+			putShort(inline);
+			for (int offset : offsets) {
+				putShort(offset);
+			}
+			align(alignment);
+			int start = count;
+			putInt(start - vtable);
+			Map<Integer, Object> references = new LinkedHashMap<Integer, Object>();
+			for (Map.Entry<Integer, Object> field : fields) {
+				while (count < start + offsets[field.getKey()]) {
+					write(0);
+				}
+				if (field.getValue() instanceof Scalar) {
+					byte[] bytes = ((Scalar) field.getValue()).bytes;
+					write(bytes, 0, bytes.length);
+				}
+				else {
+					references.put(count, field.getValue());
+					putInt(0);
+				}
+			}
+			while (count < start + inline) {
+				write(0);
+			}
+			for (Map.Entry<Integer, Object> reference : references.entrySet()) {
+				int target = reference(reference.getValue());
+				patch(reference.getKey(), target - reference.getKey());
+			}
+			return start;
+		}
+
+		int reference(Object value) {
+			align(4);
+			if (value instanceof Table) {
+				return table((Table) value);
+			}
+			if (value instanceof double[]) {
+				// the doubles are aligned to 8, after the length
+				if ((count + 4) % 8 != 0) {
+					putInt(0);
+				}
+			}
+			int start = count;
+			if (value instanceof String) {
+				byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+				putInt(bytes.length);
+				write(bytes, 0, bytes.length);
+				write(0);
+			}
+			else if (value instanceof double[]) {
+				double[] values = (double[]) value;
+				putInt(values.length);
+				for (double v : values) {
+					putLong(Double.doubleToLongBits(v));
+				}
+			}
+			else if (value instanceof int[]) {
+				int[] values = (int[]) value;
+				putInt(values.length);
+				for (int v : values) {
+					putInt(v);
+				}
+			}
+			else if (value instanceof byte[]) {
+				byte[] values = (byte[]) value;
+				putInt(values.length);
+				write(values, 0, values.length);
+			}
+			else {
+				@SuppressWarnings("unchecked")
+				List<Table> tables = (List<Table>) value;
+				putInt(tables.size());
+				int[] slots = new int[tables.size()];
+				for (int i = 0; i < slots.length; i++) {
+					slots[i] = count;
+					putInt(0);
+				}
+				for (int i = 0; i < slots.length; i++) {
+					int target = table(tables.get(i));
+					patch(slots[i], target - slots[i]);
+				}
+			}
+			return start;
+		}
+	}
+
+}
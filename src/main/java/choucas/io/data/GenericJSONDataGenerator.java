@@ -9,7 +9,6 @@
 
 package choucas.io.data;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -47,7 +46,8 @@ public class GenericJSONDataGenerator extends AbstractGenerator {
 		if(data instanceof GenericJSONDataBinding){
 			
 			JSONObject jsonData = ((GenericJSONDataBinding)data).getPayload();
-			in = new ByteArrayInputStream(jsonData.toString().getBytes());
+			// written as read, without a String copy of the whole payload
+			in = GeoJSONStream.of(jsonData, false);
 			
 		}
 		
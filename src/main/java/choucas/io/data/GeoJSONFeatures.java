@@ -0,0 +1,111 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation
+ * They are returned by parsers (inputs) or provided by generators(outputs)
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ *
+ * This class reads the features of a GeoJSON payload (Gson JsonObject, JSONObject,
+ * RawJSON or its text) for the binary encodings (FlatGeobuf, Geobuf) : a FeatureCollection,
+ * a single Feature or a bare Geometry are all read as a list of features.
+ *
+ */
+
+public class GeoJSONFeatures {
+
+	private final List<JSONObject> features;
+	private final JSONObject collection;
+
+	protected GeoJSONFeatures(List<JSONObject> features, JSONObject collection) {
+		this.features = features;
+		this.collection = collection;
+	}
+
+	public static GeoJSONFeatures of(Object payload) {
+		JSONObject object;
+		if (payload instanceof RawJSON) {
+			object = ((RawJSON) payload).getJSONObject();
+		}
+		else if (payload instanceof JSONObject) {
+			object = (JSONObject) payload;
+		}
+		else {
+			// a Gson JsonObject writes itself as JSON
+			object = new JSONObject(String.valueOf(payload));
+		}
+		String type = object.optString("type", "");
+		if ("FeatureCollection".equals(type)) {
+			JSONArray array = object.optJSONArray("features");
+			List<JSONObject> features = new ArrayList<JSONObject>();
+			for (int i = 0; array != null && i < array.length(); i++) {
+				JSONObject feature = array.optJSONObject(i);
+				if (feature != null) {
+					features.add(feature);
+				}
+			}
+			return new GeoJSONFeatures(features, object);
+		}
+		if ("Feature".equals(type)) {
+			return new GeoJSONFeatures(Collections.singletonList(object), null);
+		}
+		if (object.has("coordinates") || object.has("geometries")) {
+			JSONObject feature = new JSONObject();
+			feature.put("type", "Feature");
+			feature.put("geometry", object);
+			feature.put("properties", new JSONObject());
+			return new GeoJSONFeatures(Collections.singletonList(feature), null);
+		}
+		throw new IllegalArgumentException("Not a GeoJSON document, type : " + type);
+	}
+
+	public List<JSONObject> getFeatures() {
+		return features;
+	}
+
+	/**
+	 * The FeatureCollection object, null if the payload was a single Feature or Geometry
+	 */
+	public JSONObject getCollection() {
+		return collection;
+	}
+
+	/**
+	 * The geometry of a feature, null if none
+	 */
+	public static JSONObject geometry(JSONObject feature) {
+		return feature.optJSONObject("geometry");
+	}
+
+	/**
+	 * The properties of a feature, empty if none
+	 */
+	public static JSONObject properties(JSONObject feature) {
+		JSONObject properties = feature.optJSONObject("properties");
+		return properties == null ? new JSONObject() : properties;
+	}
+
+	/**
+	 * True for a JSON number without fractional part (as JavaScript clients read it)
+	 */
+	public static boolean isIntegral(Object value) {
+		if (!(value instanceof Number)) {
+			return false;
+		}
+		double number = ((Number) value).doubleValue();
+		return number == Math.rint(number) && Math.abs(number) < 9007199254740992d;
+	}
+
+}
@@ -0,0 +1,287 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation
+ * They are returned by parsers (inputs) or provided by generators(outputs)
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * This class reads a GeoJSON document as an InputStream written on demand : the members
+ * of a FeatureCollection, then its features one at a time, each one serialized in UTF-8
+ * when the reader gets to it. The document is never held as a whole String nor byte array.
+ * As GeoJSON text sequence (RFC 8142, application/geo+json-seq), each feature is a record :
+ * RS (0x1E), the feature, LF. The output can be gzipped on the fly.
+ *
+ */
+
+public class GeoJSONStream extends InputStream {
+
+	protected static final String RS = "\u001e";
+
+	private final Iterator<String> chunks;
+	private byte[] chunk = new byte[0];
+	private int position = 0;
+
+	protected GeoJSONStream(Iterator<String> chunks) {
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Streams a GeoJSON payload : a Gson JsonObject, a JSONObject, a RawJSON or its text
+	 */
+	public static InputStream of(Object payload, boolean seq, boolean gzip) throws IOException {
+		InputStream in = of(payload, seq);
+		return gzip ? new Gzip(in) : in;
+	}
+
+	public static InputStream of(Object payload, boolean seq) {
+		if (payload instanceof RawJSON) {
+			RawJSON raw = (RawJSON) payload;
+			// the received bytes are already the GeoJSON text
+			if (!seq && !raw.isParsed()) {
+				return raw.openStream();
+			}
+			return new GeoJSONStream(seq ? seq(raw.getJSONObject()) : collection(raw.getJSONObject()));
+		}
+		if (payload instanceof JsonObject) {
+			return new GeoJSONStream(seq ? seq((JsonObject) payload) : collection((JsonObject) payload));
+		}
+		if (payload instanceof JSONObject) {
+			return new GeoJSONStream(seq ? seq((JSONObject) payload) : collection((JSONObject) payload));
+		}
+		if (seq) {
+			return new GeoJSONStream(seq(new JSONObject(String.valueOf(payload))));
+		}
+		return new GeoJSONStream(Collections.singletonList(String.valueOf(payload)).iterator());
+	}
+
+	/**
+	 * A FeatureCollection : its other members, then the features. Other objects are written whole.
+	 */
+	protected static Iterator<String> collection(JSONObject object) {
+		final JSONArray features = object.optJSONArray("features");
+		if (features == null) {
+			return Collections.singletonList(object.toString()).iterator();
+		}
+		StringBuilder header = new StringBuilder("{");
+		for (String key : object.keySet()) {
+			if (!"features".equals(key)) {
+				header.append(JSONObject.quote(key)).append(':').append(JSONObject.valueToString(object.get(key))).append(',');
+			}
+		}
+		header.append("\"features\":[");
+		return new Chunks(header.toString(), "]}", features.length()) {
+			@Override
+			protected String feature(int index) {
+				return JSONObject.valueToString(features.get(index));
+			}
+		};
+	}
+
+	protected static Iterator<String> collection(JsonObject object) {
+		final JsonArray features = object.get("features") instanceof JsonArray ? object.getAsJsonArray("features") : null;
+		if (features == null) {
+			return Collections.singletonList(object.toString()).iterator();
+		}
+		StringBuilder header = new StringBuilder("{");
+		for (Map.Entry<String, JsonElement> member : object.entrySet()) {
+			if (!"features".equals(member.getKey())) {
+				header.append(JSONObject.quote(member.getKey())).append(':').append(member.getValue().toString()).append(',');
+			}
+		}
+		header.append("\"features\":[");
+		final Iterator<JsonElement> iterator = features.iterator();
+		return new Chunks(header.toString(), "]}", features.size()) {
+			@Override
+			protected String feature(int index) {
+				return iterator.next().toString();
+			}
+		};
+	}
+
+	/**
+	 * GeoJSON text sequence : one record per feature, or the object itself if it has no features
+	 */
+	protected static Iterator<String> seq(final JSONObject object) {
+		final JSONArray features = object.optJSONArray("features");
+		if (features == null) {
+			return Collections.singletonList(RS + object.toString() + "\n").iterator();
+		}
+		return new Chunks(null, null, features.length()) {
+			@Override
+			protected String feature(int index) {
+				return RS + JSONObject.valueToString(features.get(index)) + "\n";
+			}
+		};
+	}
+
+	protected static Iterator<String> seq(final JsonObject object) {
+		final JsonArray features = object.get("features") instanceof JsonArray ? object.getAsJsonArray("features") : null;
+		if (features == null) {
+			return Collections.singletonList(RS + object.toString() + "\n").iterator();
+		}
+		final Iterator<JsonElement> iterator = features.iterator();
+		return new Chunks(null, null, features.size()) {
+			@Override
+			protected String feature(int index) {
+				return RS + iterator.next().toString() + "\n";
+			}
+		};
+	}
+
+	/**
+	 * Header, features separated by commas (if there is a header), footer
+	 */
+	protected abstract static class Chunks implements Iterator<String> {
+		private final String header;
+		private final String footer;
+		private final int size;
+		// -1 : header to write, size : footer to write
+		private int next;
+
+		protected Chunks(String header, String footer, int size) {
+			this.header = header;
+			this.footer = footer;
+			this.size = size;
+			this.next = header == null ? 0 : -1;
+		}
+
+		protected abstract String feature(int index);
+
+		@Override
+		public boolean hasNext() {
+			return next < size || (next == size && footer != null);
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int index = next++;
+			if (index < 0) {
+				return header;
+			}
+			if (index == size) {
+				return footer;
+			}
+			String feature = feature(index);
+			return header != null && index > 0 ? "," + feature : feature;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		while (position == chunk.length) {
+			if (!chunks.hasNext()) {
+				return -1;
+			}
+			chunk = chunks.next().getBytes(StandardCharsets.UTF_8);
+			position = 0;
+		}
+		int count = Math.min(length, chunk.length - position);
+		System.arraycopy(chunk, position, buffer, offset, count);
+		position += count;
+		return count;
+	}
+
+	/**
+	 * Gzips a stream while it is read, a buffer at a time
+	 */
+	protected static class Gzip extends InputStream {
+		private final InputStream source;
+		private final Buffer compressed = new Buffer();
+		private final GZIPOutputStream gzip;
+		private final byte[] read = new byte[8192];
+		private int position = 0;
+		private boolean finished = false;
+
+		protected Gzip(InputStream source) throws IOException {
+			this.source = source;
+			this.gzip = new GZIPOutputStream(compressed, read.length);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			while (position == compressed.size()) {
+				if (finished) {
+					return -1;
+				}
+				compressed.reset();
+				position = 0;
+				int count = source.read(read);
+				if (count < 0) {
+					// finishes the stream and releases the native zlib memory of the Deflater
+					gzip.close();
+					finished = true;
+				}
+				else {
+					gzip.write(read, 0, count);
+				}
+			}
+			int count = Math.min(length, compressed.size() - position);
+			System.arraycopy(compressed.bytes(), position, buffer, offset, count);
+			position += count;
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				gzip.close();
+			} finally {
+				source.close();
+			}
+		}
+	}
+
+	/**
+	 * Gives access to the written bytes without copy
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		byte[] bytes() {
+			return buf;
+		}
+	}
+
+}
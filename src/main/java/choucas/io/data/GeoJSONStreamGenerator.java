@@ -0,0 +1,65 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation
+ * They are returned by parsers (inputs) or provided by generators(outputs)
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.datahandler.generator.AbstractGenerator;
+
+/**
+ *
+ * This Class is a generator for GeoJSON FeatureCollections (Features, RawJSON and
+ * GenericJSON Complex Data), streamed feature by feature (GeoJSONStream).
+ * application/geo+json-seq writes a GeoJSON text sequence (RFC 8142), the +gzip
+ * mime types are gzipped on the fly.
+ *
+ */
+
+public class GeoJSONStreamGenerator extends AbstractGenerator {
+
+	public GeoJSONStreamGenerator(){
+		super();
+		supportedIDataTypes.add(FeaturesDataBinding.class);
+		supportedIDataTypes.add(RawJSONDataBinding.class);
+		supportedIDataTypes.add(GenericJSONDataBinding.class);
+		supportedFormats.add("application/geo+json");
+		supportedFormats.add("application/geo+json-seq");
+		supportedFormats.add("application/geo+json+gzip");
+		supportedFormats.add("application/geo+json-seq+gzip");
+	}
+
+	@Override
+	public boolean isSupportedSchema(String schema) {
+		//no schema checks
+		return true;
+	}
+
+	@Override
+	public InputStream generateStream(IData data, String mimeType, String schema)
+			throws IOException {
+
+		InputStream in = null;
+
+		String format = mimeType == null ? "" : mimeType.toLowerCase();
+		boolean seq = format.contains("geo+json-seq");
+		boolean gzip = format.contains("gzip");
+
+		if(data instanceof FeaturesDataBinding || data instanceof RawJSONDataBinding || data instanceof GenericJSONDataBinding){
+
+			in = GeoJSONStream.of(((IData)data).getPayload(), seq, gzip);
+
+		}
+
+		return in;
+	}
+
+}
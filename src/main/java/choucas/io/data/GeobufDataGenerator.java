@@ -0,0 +1,63 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation
+ * They are returned by parsers (inputs) or provided by generators(outputs)
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.datahandler.generator.AbstractGenerator;
+
+/**
+ *
+ * This Class is a generator for GeoJSON Complex Data (Features, RawJSON and GenericJSON)
+ * encoded as Geobuf (GeobufWriter), a compact
+ * protobuf encoding of GeoJSON.
+ *
+ */
+
+public class GeobufDataGenerator extends AbstractGenerator {
+
+	public GeobufDataGenerator(){
+		super();
+		supportedIDataTypes.add(FeaturesDataBinding.class);
+		supportedIDataTypes.add(RawJSONDataBinding.class);
+		supportedIDataTypes.add(GenericJSONDataBinding.class);
+		supportedFormats.add("application/vnd.geobuf");
+		supportedFormats.add("application/x-protobuf");
+	}
+
+	@Override
+	public boolean isSupportedSchema(String schema) {
+		//no schema checks
+		return true;
+	}
+
+	@Override
+	public InputStream generateStream(IData data, String mimeType, String schema)
+			throws IOException {
+
+		InputStream in = null;
+
+		if(data instanceof FeaturesDataBinding || data instanceof RawJSONDataBinding || data instanceof GenericJSONDataBinding){
+
+			try {
+				in = new ByteArrayInputStream(GeobufWriter.write(GeoJSONFeatures.of(data.getPayload())));
+			} catch (RuntimeException e) {
+				throw new IOException("Cannot encode the output as Geobuf : " + e.getMessage(), e);
+			}
+
+		}
+
+		return in;
+	}
+
+}
@@ -0,0 +1,352 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation
+ * They are returned by parsers (inputs) or provided by generators(outputs)
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ *
+ * This class writes GeoJSON features as Geobuf (https://github.com/mapbox/geobuf, geobuf.proto) :
+ * a protobuf Data message with the property keys, the dimensions, the precision and a
+ * FeatureCollection. Coordinates are integers (at most 6 decimals, as few as the
+ * data needs), delta encoded along lines and rings, as the reference encoder does.
+ *
+ */
+
+public class GeobufWriter {
+
+	protected static final int MAX_PRECISION = 1000000;
+	protected static final List<String> GEOMETRY_TYPES = Arrays.asList("Point", "MultiPoint", "LineString",
+			"MultiLineString", "Polygon", "MultiPolygon", "GeometryCollection");
+
+	private final Map<String, Integer> keys = new LinkedHashMap<String, Integer>();
+	private int dimensions = 2;
+	private long e = 1;
+
+	public static byte[] write(GeoJSONFeatures data) {
+		return new GeobufWriter().encode(data);
+	}
+
+	protected byte[] encode(GeoJSONFeatures data) {
+		JSONObject collection = data.getCollection();
+		for (JSONObject feature : data.getFeatures()) {
+			analyze(feature);
+		}
+		if (collection != null) {
+			analyzeCustom(collection, "FeatureCollection");
+		}
+
+		Proto message = new Proto();
+		for (String key : keys.keySet()) {
+			message.string(1, key);
+		}
+		message.varint(2, dimensions);
+		message.varint(3, Math.round(Math.log10(e)));
+		Proto features = new Proto();
+		for (JSONObject feature : data.getFeatures()) {
+			features.message(1, feature(feature));
+		}
+		if (collection != null) {
+			properties(features, collection, "FeatureCollection", true);
+		}
+		message.message(4, features);
+		return message.toByteArray();
+	}
+
+	/**
+	 * First pass : keys, dimensions and precision
+	 */
+	protected void analyze(JSONObject feature) {
+		for (String key : GeoJSONFeatures.properties(feature).keySet()) {
+			key(key);
+		}
+		analyzeCustom(feature, "Feature");
+		JSONObject geometry = GeoJSONFeatures.geometry(feature);
+		if (geometry != null) {
+			analyzeGeometry(geometry);
+		}
+	}
+
+	protected void analyzeCustom(JSONObject object, String type) {
+		for (String key : object.keySet()) {
+			if (!isSpecialKey(key, type)) {
+				key(key);
+			}
+		}
+	}
+
+	protected void analyzeGeometry(JSONObject geometry) {
+		String type = geometry.optString("type", "");
+		analyzeCustom(geometry, type);
+		if ("GeometryCollection".equals(type)) {
+			JSONArray geometries = geometry.optJSONArray("geometries");
+			for (int i = 0; geometries != null && i < geometries.length(); i++) {
+				analyzeGeometry(geometries.getJSONObject(i));
+			}
+		}
+		else {
+			analyzeCoordinates(geometry.optJSONArray("coordinates"));
+		}
+	}
+
+	protected void analyzeCoordinates(JSONArray coordinates) {
+		if (coordinates == null || coordinates.length() == 0) {
+			return;
+		}
+		if (!(coordinates.opt(0) instanceof JSONArray)) {
+			dimensions = Math.max(dimensions, coordinates.length());
+			for (int i = 0; i < coordinates.length() && e < MAX_PRECISION; i++) {
+				double value = coordinates.getDouble(i);
+				while (Math.round(value * e) / (double) e != value && e < MAX_PRECISION) {
+					e *= 10;
+				}
+			}
+			return;
+		}
+		for (int i = 0; i < coordinates.length(); i++) {
+			analyzeCoordinates(coordinates.getJSONArray(i));
+		}
+	}
+
+	protected int key(String key) {
+		Integer index = keys.get(key);
+		if (index == null) {
+			index = keys.size();
+			keys.put(key, index);
+		}
+		return index;
+	}
+
+	protected static boolean isSpecialKey(String key, String type) {
+		if ("type".equals(key)) {
+			return true;
+		}
+		if ("FeatureCollection".equals(type)) {
+			return "features".equals(key);
+		}
+		if ("Feature".equals(type)) {
+			return "id".equals(key) || "properties".equals(key) || "geometry".equals(key);
+		}
+		if ("GeometryCollection".equals(type)) {
+			return "geometries".equals(key);
+		}
+		return "coordinates".equals(key);
+	}
+
+	protected Proto feature(JSONObject feature) {
+		Proto message = new Proto();
+		JSONObject geometry = GeoJSONFeatures.geometry(feature);
+		if (geometry != null) {
+			message.message(1, geometry(geometry));
+		}
+		Object id = feature.opt("id");
+		if (id != null && id != JSONObject.NULL) {
+			if (GeoJSONFeatures.isIntegral(id)) {
+				message.svarint(12, ((Number) id).longValue());
+			}
+			else {
+				message.string(11, String.valueOf(id));
+			}
+		}
+		properties(message, GeoJSONFeatures.properties(feature), "", false);
+		properties(message, feature, "Feature", true);
+		return message;
+	}
+
+	/**
+	 * Values (13) of the properties, or of the custom members, and their key/value index pairs (14, 15)
+	 */
+	protected void properties(Proto message, JSONObject properties, String type, boolean custom) {
+		List<Long> indexes = new ArrayList<Long>();
+		long valueIndex = 0;
+		for (String key : properties.keySet()) {
+			if (custom && isSpecialKey(key, type)) {
+				continue;
+			}
+			message.message(13, value(properties.opt(key)));
+			indexes.add((long) key(key));
+			indexes.add(valueIndex++);
+		}
+		message.packed(custom ? 15 : 14, indexes, false);
+	}
+
+	protected static Proto value(Object value) {
+		Proto message = new Proto();
+		if (value instanceof String) {
+			message.string(1, (String) value);
+		}
+		else if (value instanceof Boolean) {
+			message.varint(5, ((Boolean) value) ? 1 : 0);
+		}
+		else if (GeoJSONFeatures.isIntegral(value)) {
+			long number = ((Number) value).longValue();
+			message.varint(number >= 0 ? 3 : 4, Math.abs(number));
+		}
+		else if (value instanceof Number) {
+			message.fixed64(2, Double.doubleToLongBits(((Number) value).doubleValue()));
+		}
+		else {
+			message.string(6, value == null ? "null" : JSONObject.valueToString(value));
+		}
+		return message;
+	}
+
+	protected Proto geometry(JSONObject geometry) {
+		Proto message = new Proto();
+		String type = geometry.optString("type", "");
+		message.varint(1, Math.max(GEOMETRY_TYPES.indexOf(type), 0));
+		JSONArray coordinates = geometry.optJSONArray("coordinates");
+		List<Long> lengths = new ArrayList<Long>();
+		List<Long> coords = new ArrayList<Long>();
+		if ("GeometryCollection".equals(type)) {
+			JSONArray geometries = geometry.optJSONArray("geometries");
+			for (int i = 0; geometries != null && i < geometries.length(); i++) {
+				message.message(4, geometry(geometries.getJSONObject(i)));
+			}
+		}
+		else if (coordinates == null) {
+			// empty geometry
+		}
+		else if ("Point".equals(type)) {
+			for (int d = 0; d < dimensions; d++) {
+				coords.add(round(coordinates, d));
+			}
+		}
+		else if ("MultiPoint".equals(type) || "LineString".equals(type)) {
+			line(coords, coordinates, false);
+		}
+		else if ("MultiLineString".equals(type) || "Polygon".equals(type)) {
+			boolean closed = "Polygon".equals(type);
+			if (coordinates.length() != 1) {
+				for (int i = 0; i < coordinates.length(); i++) {
+					lengths.add((long) coordinates.getJSONArray(i).length() - (closed ? 1 : 0));
+				}
+			}
+			for (int i = 0; i < coordinates.length(); i++) {
+				line(coords, coordinates.getJSONArray(i), closed);
+			}
+		}
+		else if ("MultiPolygon".equals(type)) {
+			if (coordinates.length() != 1 || coordinates.getJSONArray(0).length() != 1) {
+				lengths.add((long) coordinates.length());
+				for (int i = 0; i < coordinates.length(); i++) {
+					JSONArray polygon = coordinates.getJSONArray(i);
+					lengths.add((long) polygon.length());
+					for (int j = 0; j < polygon.length(); j++) {
+						lengths.add((long) polygon.getJSONArray(j).length() - 1);
+					}
+				}
+			}
+			for (int i = 0; i < coordinates.length(); i++) {
+				JSONArray polygon = coordinates.getJSONArray(i);
+				for (int j = 0; j < polygon.length(); j++) {
+					line(coords, polygon.getJSONArray(j), true);
+				}
+			}
+		}
+		message.packed(2, lengths, false);
+		message.packed(3, coords, true);
+		properties(message, geometry, type, true);
+		return message;
+	}
+
+	/**
+	 * Coordinates of a line or ring as deltas, without the closing point of a ring
+	 */
+	protected void line(List<Long> coords, JSONArray line, boolean closed) {
+		long[] sum = new long[dimensions];
+		int length = line.length() - (closed ? 1 : 0);
+		for (int i = 0; i < length; i++) {
+			JSONArray point = line.getJSONArray(i);
+			for (int d = 0; d < dimensions; d++) {
+				long n = round(point, d) - sum[d];
+				coords.add(n);
+				sum[d] += n;
+			}
+		}
+	}
+
+	protected long round(JSONArray point, int dimension) {
+		return dimension < point.length() ? Math.round(point.getDouble(dimension) * e) : 0;
+	}
+
+	/**
+	 * A protobuf message being written
+	 */
+	protected static class Proto extends ByteArrayOutputStream {
+
+		void raw(long value) {
+			while ((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		void tag(int field, int wireType) {
+			raw(field << 3 | wireType);
+		}
+
+		void varint(int field, long value) {
+			tag(field, 0);
+			raw(value);
+		}
+
+		void svarint(int field, long value) {
+			varint(field, (value << 1) ^ (value >> 63));
+		}
+
+		void fixed64(int field, long value) {
+			tag(field, 1);
+			for (int i = 0; i < 8; i++) {
+				write((int) (value >>> (8 * i)));
+			}
+		}
+
+		void bytes(int field, byte[] bytes, int length) {
+			tag(field, 2);
+			raw(length);
+			write(bytes, 0, length);
+		}
+
+		void string(int field, String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			bytes(field, bytes, bytes.length);
+		}
+
+		void message(int field, Proto message) {
+			bytes(field, message.buf, message.count);
+		}
+
+		/**
+		 * Packed varints (zigzag encoded if signed), nothing if empty
+		 */
+		void packed(int field, List<Long> values, boolean signed) {
+			if (values.isEmpty()) {
+				return;
+			}
+			Proto packed = new Proto();
+			for (long value : values) {
+				packed.raw(signed ? (value << 1) ^ (value >> 63) : value);
+			}
+			message(field, packed);
+		}
+	}
+
+}
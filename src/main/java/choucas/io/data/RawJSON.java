@@ -0,0 +1,90 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/**
+ * 
+ * This class holds a JSON document as received from a service : UTF-8 bytes,
+ * parsed only when a field is read (getJSONObject), and a JSONObject built by an
+ * algorithm, serialized only when written. 
+ *
+ */
+
+public class RawJSON implements Serializable {
+
+	private static final long serialVersionUID = -3306581962214926447L;
+
+	private byte[] bytes;
+	private transient JSONObject object;
+
+	protected RawJSON(byte[] bytes, JSONObject object) {
+		this.bytes = bytes;
+		this.object = object;
+	}
+
+	/**
+	 * JSON document in UTF-8, the array is not copied
+	 */
+	public static RawJSON of(byte[] bytes) {
+		return new RawJSON(bytes, null);
+	}
+
+	public static RawJSON of(String json) {
+		return new RawJSON(json.getBytes(StandardCharsets.UTF_8), null);
+	}
+
+	public static RawJSON of(JSONObject object) {
+		return new RawJSON(null, object);
+	}
+
+	/**
+	 * The document in UTF-8, not to be modified
+	 */
+	public synchronized byte[] getBytes() {
+		if (bytes == null) {
+			bytes = object.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads the document bytes, without copy
+	 */
+	public InputStream openStream() {
+		return new ByteArrayInputStream(getBytes());
+	}
+
+	/**
+	 * The parsed document, parsed on first call
+	 */
+	public synchronized JSONObject getJSONObject() {
+		if (object == null) {
+			object = new JSONObject(toString());
+		}
+		return object;
+	}
+
+	public boolean isParsed() {
+		return object != null;
+	}
+
+	@Override
+	public String toString() {
+		return new String(getBytes(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import org.n52.wps.io.data.IComplexData;
+
+/**
+ * 
+ * This class holds a RawJSON as payload : JSON bytes passed through without parsing. 
+ *
+ */
+
+public class RawJSONDataBinding implements IComplexData {
+
+	private static final long serialVersionUID = 5797254185117003146L;
+
+	private final RawJSON payload;
+
+	public RawJSONDataBinding(RawJSON payload) {
+		this.payload = payload;
+	}
+
+	@Override
+	public RawJSON getPayload() {
+		return payload;
+	}
+
+	@Override
+	public Class<RawJSON> getSupportedClass() {
+		return RawJSON.class;
+	}
+
+	@Override
+	public void dispose() {}
+}
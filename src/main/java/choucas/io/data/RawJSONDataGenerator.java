@@ -0,0 +1,55 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.datahandler.generator.AbstractGenerator;
+
+/**
+ * 
+ * This Class is a generator for a RawJSON Complex Data : the bytes received
+ * from the service are streamed as is, never parsed nor encoded again. 
+ * 
+ */
+
+public class RawJSONDataGenerator extends AbstractGenerator {
+
+	public RawJSONDataGenerator(){
+		super();
+		supportedIDataTypes.add(RawJSONDataBinding.class);
+		supportedFormats.add("application/json");
+		supportedFormats.add("application/geo+json");
+	}
+
+	@Override
+	public boolean isSupportedSchema(String schema) {
+		//no schema checks
+		return true;
+	}
+
+	@Override
+	public InputStream generateStream(IData data, String mimeType, String schema)
+			throws IOException {
+
+		InputStream in = null;
+
+		if(data instanceof RawJSONDataBinding){
+
+			in = ((RawJSONDataBinding)data).getPayload().openStream();
+
+		}
+
+		return in;
+	}
+
+}
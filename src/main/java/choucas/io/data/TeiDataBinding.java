@@ -0,0 +1,44 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import org.n52.wps.io.data.IComplexData;
+
+import choucas.utils.TeiDocument;
+
+/**
+ * 
+ * This class holds a XML/TEI tagged text as payload, without XML tree. 
+ *
+ */
+
+public class TeiDataBinding implements IComplexData {
+
+	private static final long serialVersionUID = 4119867062431937255L;
+
+	private final TeiDocument document;
+
+	public TeiDataBinding(TeiDocument document) {
+		this.document = document;
+	}
+
+	@Override
+	public TeiDocument getPayload() {
+		return document;
+	}
+
+	@Override
+	public Class<TeiDocument> getSupportedClass() {
+		return TeiDocument.class;
+	}
+
+	@Override
+	public void dispose() {}
+}
@@ -0,0 +1,59 @@
+/**
+ * Package choucas.io.data
+ * Provides classes and methods to handle data for WPS processes (services)
+ * Data bindings are the internal representation of WPS in- and outputs
+ * Data bindings are wrapping data objects used in computation 
+ * They are returned by parsers (inputs) or provided by generators(outputs)  
+ * For more details, see https://wiki.52north.org/Geoprocessing/CreateNewDataBinding
+ */
+
+package choucas.io.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.datahandler.generator.AbstractGenerator;
+
+/**
+ * 
+ * This Class is a generator for a XML/TEI tagged text : the text is written as received
+ * from the service, never parsed into a XML tree. 
+ * 
+ */
+
+public class TeiDataGenerator extends AbstractGenerator {
+
+	public TeiDataGenerator(){
+		super();
+		supportedIDataTypes.add(TeiDataBinding.class);
+		supportedFormats.add("text/xml");
+		supportedFormats.add("application/xml");
+		supportedFormats.add("application/tei+xml");
+	}
+
+	@Override
+	public boolean isSupportedSchema(String schema) {
+		//no schema checks
+		return true;
+	}
+
+	@Override
+	public InputStream generateStream(IData data, String mimeType, String schema)
+			throws IOException {
+
+		InputStream in = null;
+
+		if(data instanceof TeiDataBinding){
+
+			String text = ((TeiDataBinding)data).getPayload().getText();
+			in = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+
+		}
+
+		return in;
+	}
+
+}
@@ -0,0 +1,30 @@
+/**
+ * Package choucas.monitoring
+ * Provides runtime metrics of the WPS adapters : upstream calls and pipeline stages
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.monitoring;
+
+/**
+ * JMX view of the WPS adapters metrics, registered as choucas.monitoring:type=ChoucasMetrics
+ */
+
+public interface ChoucasMetricsMXBean {
+
+	/**
+	 * The JSON snapshot returned by the ChoucasMetrics process
+	 */
+	String getSnapshot();
+
+	long getUpstreamCalls();
+
+	long getUpstreamErrors();
+
+	long getStageCalls();
+
+	long getStageErrors();
+
+	void reset();
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Package choucas.monitoring
+ * Provides runtime metrics of the WPS adapters : upstream calls and pipeline stages
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.monitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONObject;
+
+/**
+ * This class is a latency histogram with log-linear buckets, as HdrHistogram :
+ * values below 64 have their own bucket, then each power of two is split in 32 buckets,
+ * so recorded values are known within 3%, from 1 microsecond up to several days.
+ * Recording is lock-free, a snapshot read during recording may be off by the values in flight.
+ */
+
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5; // 32 buckets per power of two
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int LINEAR = 2 * SUB_COUNT; // values recorded exactly
+	private static final int MAX_EXPONENT = 40; // 2^40 us, about 12 days
+	private static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS - 1) * SUB_COUNT + 1; // last one for larger values
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a duration in microseconds
+	 */
+	public void record(long micros) {
+		long value = Math.max(0, micros);
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// retry until the max is updated
+		}
+	}
+
+	protected static int index(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent >= MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return LINEAR + (exponent - SUB_BITS - 1) * SUB_COUNT + sub;
+	}
+
+	/**
+	 * Lowest value of a bucket
+	 */
+	protected static long lowerBound(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int exponent = (index - LINEAR) / SUB_COUNT + SUB_BITS + 1;
+		int sub = (index - LINEAR) % SUB_COUNT;
+		return (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+	}
+
+	protected static long upperBound(int index) {
+		return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Value (microseconds) below which the given percentage of values fall, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				// middle of the bucket, never above the max recorded
+				long lower = lowerBound(i);
+				return Math.min(lower + (upperBound(i) - lower) / 2, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Count, mean and percentiles, in milliseconds
+	 */
+	public JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		json.put("count", getCount());
+		json.put("mean", getMean() / 1000);
+		json.put("p50", getValueAtPercentile(50) / 1000.0);
+		json.put("p90", getValueAtPercentile(90) / 1000.0);
+		json.put("p95", getValueAtPercentile(95) / 1000.0);
+		json.put("p99", getValueAtPercentile(99) / 1000.0);
+		json.put("p999", getValueAtPercentile(99.9) / 1000.0);
+		json.put("max", getMax() / 1000.0);
+		return json;
+	}
+
+}
@@ -0,0 +1,315 @@
+/**
+ * Package choucas.monitoring
+ * Provides runtime metrics of the WPS adapters : upstream calls and pipeline stages
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.monitoring;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import choucas.utils.ArtifactStore;
+import choucas.utils.SingleFlight;
+import choucas.utils.ToponymCache;
+import choucas.utils.WsCache;
+import choucas.utils.WsCalls;
+import choucas.utils.WsClients;
+
+/**
+ * This class records metrics of every upstream call made by WsUtils, labelled by
+ * algorithm, stage and upstream host, and of every pipeline stage, labelled by algorithm and stage :
+ * latency histogram, calls, errors, request and response bytes.
+ * Pipeline stages label the calls they make. Calls made out of a stage are labelled
+ * by their service path. Every call is also recorded by endpoint (host and path), all callers.
+ * The metrics are exposed by the ChoucasMetrics process and through JMX.
+ */
+
+public class WsMetrics {
+
+	public static final String NONE = "-";
+	public static final String OBJECT_NAME = "choucas.monitoring:type=ChoucasMetrics";
+
+	private static final Map<String, CallMetrics> upstream = new ConcurrentHashMap<String, CallMetrics>();
+	private static final Map<String, CallMetrics> stages = new ConcurrentHashMap<String, CallMetrics>();
+	private static final Map<String, CallMetrics> endpoints = new ConcurrentHashMap<String, CallMetrics>();
+	private static final ThreadLocal<String[]> labels = new ThreadLocal<String[]>();
+
+	static {
+		registerMBean();
+	}
+
+	/**
+	 * Metrics of one label set
+	 */
+	public static class CallMetrics {
+		private final String[] labels;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong calls = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong requestBytes = new AtomicLong();
+		private final AtomicLong responseBytes = new AtomicLong();
+
+		protected CallMetrics(String... labels) {
+			this.labels = labels;
+		}
+
+		public void record(long micros, boolean success, long requestSize, long responseSize) {
+			latency.record(micros);
+			calls.incrementAndGet();
+			if (!success) {
+				errors.incrementAndGet();
+			}
+			if (requestSize > 0) {
+				requestBytes.addAndGet(requestSize);
+			}
+			if (responseSize > 0) {
+				responseBytes.addAndGet(responseSize);
+			}
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		public long getCalls() {
+			return calls.get();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		protected JSONObject toJson(String... names) {
+			JSONObject json = new JSONObject();
+			for (int i = 0; i < names.length; i++) {
+				json.put(names[i], labels[i]);
+			}
+			json.put("calls", calls.get());
+			json.put("errors", errors.get());
+			json.put("requestBytes", requestBytes.get());
+			json.put("responseBytes", responseBytes.get());
+			json.put("latency", latency.toJson());
+			return json;
+		}
+
+		protected void reset() {
+			latency.reset();
+			calls.set(0);
+			errors.set(0);
+			requestBytes.set(0);
+			responseBytes.set(0);
+		}
+	}
+
+	/**
+	 * Labels of the calls made by the current thread until closed
+	 */
+	public static class Scope implements AutoCloseable {
+		private final String[] previous;
+
+		protected Scope(String[] previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (previous == null) {
+				labels.remove();
+			}
+			else {
+				labels.set(previous);
+			}
+		}
+	}
+
+	/**
+	 * An upstream call in progress, labelled when started
+	 */
+	public static class Call {
+		private final CallMetrics metrics;
+		private final CallMetrics endpoint;
+		private final long requestBytes;
+		private final long start = System.nanoTime();
+
+		protected Call(CallMetrics metrics, CallMetrics endpoint, long requestBytes) {
+			this.metrics = metrics;
+			this.endpoint = endpoint;
+			this.requestBytes = requestBytes;
+		}
+
+		public void success(long responseBytes) {
+			long micros = (System.nanoTime() - start) / 1000;
+			metrics.record(micros, true, requestBytes, responseBytes);
+			endpoint.record(micros, true, requestBytes, responseBytes);
+		}
+
+		public void failure() {
+			long micros = (System.nanoTime() - start) / 1000;
+			metrics.record(micros, false, requestBytes, 0);
+			endpoint.record(micros, false, requestBytes, 0);
+		}
+	}
+
+	public static Scope scope(String algorithm, String stage) {
+		String[] previous = labels.get();
+		labels.set(new String[] {algorithm, stage});
+		return new Scope(previous);
+	}
+
+	/**
+	 * Starts timing an upstream call, labelled by the current scope
+	 */
+	public static Call start(String host, String path, long requestBytes) {
+		return start(labels(), host, path, requestBytes);
+	}
+
+	/**
+	 * Starts timing an upstream call with the labels of another thread scope,
+	 * for calls retried or hedged out of the caller thread
+	 */
+	public static Call start(String[] scope, String host, String path, long requestBytes) {
+		String algorithm = scope == null ? NONE : scope[0];
+		String stage = scope == null ? path : scope[1];
+		return new Call(upstream(algorithm, stage, host), endpoint(host, path), requestBytes);
+	}
+
+	/**
+	 * Labels of the current thread scope, null out of any scope
+	 */
+	public static String[] labels() {
+		return labels.get();
+	}
+
+	public static CallMetrics upstream(String algorithm, String stage, String host) {
+		return get(upstream, algorithm, stage, host);
+	}
+
+	/**
+	 * Metrics of a service endpoint, all callers : the latency budgets of EndpointPolicy
+	 */
+	public static CallMetrics endpoint(String host, String path) {
+		return get(endpoints, host, path);
+	}
+
+	public static CallMetrics stage(String algorithm, String stage) {
+		return get(stages, algorithm, stage);
+	}
+
+	protected static CallMetrics get(Map<String, CallMetrics> registry, String... labels) {
+		String key = String.join("|", labels);
+		CallMetrics metrics = registry.get(key);
+		if (metrics == null) {
+			registry.putIfAbsent(key, new CallMetrics(labels));
+			metrics = registry.get(key);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Returns every metric : upstream calls, stages, connection pools and caches
+	 */
+	public static JSONObject getSnapshot() {
+		JSONObject snapshot = new JSONObject();
+		snapshot.put("timestamp", System.currentTimeMillis());
+		JSONArray calls = new JSONArray();
+		for (CallMetrics metrics : upstream.values()) {
+			calls.put(metrics.toJson("algorithm", "stage", "host"));
+		}
+		snapshot.put("upstream", calls);
+		JSONArray stageCalls = new JSONArray();
+		for (CallMetrics metrics : stages.values()) {
+			stageCalls.put(metrics.toJson("algorithm", "stage"));
+		}
+		snapshot.put("stages", stageCalls);
+		JSONArray endpointCalls = new JSONArray();
+		for (CallMetrics metrics : endpoints.values()) {
+			endpointCalls.put(metrics.toJson("host", "path"));
+		}
+		snapshot.put("endpoints", endpointCalls);
+		snapshot.put("pools", WsClients.getPoolStats());
+		snapshot.put("policies", WsCalls.getStats());
+		JSONObject caches = new JSONObject();
+		caches.put("responses", WsCache.getStats());
+		caches.put("toponyms", ToponymCache.getStats());
+		snapshot.put("caches", caches);
+		snapshot.put("artifacts", ArtifactStore.getStats());
+		return snapshot;
+	}
+
+	public static void reset() {
+		for (CallMetrics metrics : upstream.values()) {
+			metrics.reset();
+		}
+		for (CallMetrics metrics : stages.values()) {
+			metrics.reset();
+		}
+		for (CallMetrics metrics : endpoints.values()) {
+			metrics.reset();
+		}
+		SingleFlight.reset();
+		ArtifactStore.reset();
+	}
+
+	protected static long total(Map<String, CallMetrics> registry, boolean errors) {
+		long total = 0;
+		for (CallMetrics metrics : registry.values()) {
+			total += errors ? metrics.getErrors() : metrics.getCalls();
+		}
+		return total;
+	}
+
+	protected static void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			// the WPS webapp may be redeployed in the same JVM
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(new ChoucasMetricsMXBean() {
+				@Override
+				public String getSnapshot() {
+					return WsMetrics.getSnapshot().toString();
+				}
+
+				@Override
+				public long getUpstreamCalls() {
+					return total(upstream, false);
+				}
+
+				@Override
+				public long getUpstreamErrors() {
+					return total(upstream, true);
+				}
+
+				@Override
+				public long getStageCalls() {
+					return total(stages, false);
+				}
+
+				@Override
+				public long getStageErrors() {
+					return total(stages, true);
+				}
+
+				@Override
+				public void reset() {
+					WsMetrics.reset();
+				}
+			}, name);
+		} catch (Exception e) {
+			System.out.println("WsMetrics : JMX registration failed, metrics only available through ChoucasMetrics");
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Package choucas.monitoring
+ * Provides runtime metrics of the WPS adapters : upstream calls and pipeline stages
+ * See https://52north.org/software/software-projects/wps/
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.monitoring.algorithm;
+
+import org.json.JSONObject;
+
+import org.n52.wps.algorithm.annotation.Algorithm;
+import org.n52.wps.algorithm.annotation.ComplexDataOutput;
+import org.n52.wps.algorithm.annotation.Execute;
+import org.n52.wps.algorithm.annotation.LiteralDataInput;
+import org.n52.wps.server.AbstractAnnotatedAlgorithm;
+
+import choucas.io.data.GenericJSONDataBinding;
+import choucas.monitoring.WsMetrics;
+import choucas.utils.WsUtils;
+
+/**
+ * This WPS process returns the metrics of the WPS adapters :
+ * latency percentiles, calls, errors and bytes of every upstream call and pipeline stage,
+ * connection pools and caches statistics.
+ */
+
+@Algorithm(
+		version = "1.0.0",
+		title = "Choucas WPS adapters metrics",
+		abstrakt = "Returns a JSON snapshot of the runtime metrics of the Choucas WPS adapters : "
+				+ "latency histograms (ms), calls, errors, request and response bytes, labelled by algorithm, stage and upstream host. "
+				+ "Connection pools and caches statistics are included."
+				)
+
+public class ChoucasMetrics extends AbstractAnnotatedAlgorithm {
+
+	private String reset = "false";
+
+	private JSONObject complexOutput;
+
+	@LiteralDataInput(
+			identifier = "reset",
+			abstrakt = "Resets upstream and stage metrics once the snapshot is taken",
+			defaultValue = "false",
+			allowedValues = {"true", "false"},
+			minOccurs = 0,
+			maxOccurs = 1
+			)
+	public void setLiteralReset(String literalInput) {
+		this.reset = literalInput;
+	}
+
+	@ComplexDataOutput(identifier = "complexOutput", binding = GenericJSONDataBinding.class)
+	public JSONObject getComplexOutput() {
+		return complexOutput;
+	}
+
+	@Execute
+	public void run() {
+		complexOutput = WsMetrics.getSnapshot();
+		if ("true".equals(reset)) {
+			WsMetrics.reset();
+		}
+		if (WsUtils.getStdoutFlag()) {
+			System.out.println("\nOutput :\n" + complexOutput.toString());
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Package choucas.monitoring
+ * Provides runtime metrics of the WPS adapters : upstream calls and pipeline stages
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.monitoring.tests;
+
+import choucas.erig.algorithm.ErigGeocoding;
+import choucas.monitoring.algorithm.ChoucasMetrics;
+import choucas.utils.IoUtils;
+
+/**
+ * Test application for the metrics process : calls Erig Geocoding twice, then prints the metrics.
+ */
+
+public class ChoucasMetricsTest
+{
+    public static void main( String[] args )
+    {
+    	ErigGeocoding geocoding = new ErigGeocoding();
+    	geocoding.setLiteralContent("On est passé au col de la Mine de Fer. On descend vers le Lac de Crop.");
+    	geocoding.run();
+    	geocoding.run();
+
+    	ChoucasMetrics service = new ChoucasMetrics();
+
+        System.out.println( "-------------------------------------" );
+        System.out.println( "Test : Calling Choucas Metrics");
+        service.run();
+        System.out.println("\n---------------------------------------" );
+        System.out.println("\nTest: Result of Choucas Metrics");
+        IoUtils.prettyPrintJson(service.getComplexOutput().toString());
+
+    }
+}
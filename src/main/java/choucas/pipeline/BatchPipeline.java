@@ -0,0 +1,224 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import choucas.utils.WsClients;
+
+/**
+ * This class runs a pipeline on many documents in one WPS request (archive re-processing).
+ * Up to choucas.batch.inFlight documents run at once, each stage of every document on the
+ * worker pool of the stage, choucas.batch.workers.[stage] threads (choucas.batch.workers by default) :
+ * documents flow through the stages like an assembly line, and batch work never holds the
+ * task threads of interactive requests.
+ * The result of each document is a JSON line {"id":..., "status":"ok", [outputs]}, or
+ * {"id":..., "status":"error", "error":...} : a failing document does not fail the batch.
+ * Results are streamed by BatchResults as they are done, at most choucas.batch.inFlight
+ * results wait to be read.
+ * The stage timeouts include the wait for a worker, pools should not be smaller than inFlight
+ * for the slow stages.
+ */
+
+public class BatchPipeline {
+
+	protected static int maxInFlight = Integer.getInteger("choucas.batch.inFlight", 32);
+	protected static int defaultWorkers = Integer.getInteger("choucas.batch.workers", maxInFlight);
+
+	/**
+	 * A document of a batch, identified by its file name or its JSON lines id
+	 */
+	public static class Document {
+		private final String id;
+		private final String text;
+
+		public Document(String id, String text) {
+			this.id = id;
+			this.text = text;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+
+	private final Pipeline pipeline;
+	private final Map<String, Executor> pools = new HashMap<String, Executor>();
+	private final Map<String, String> outputs = new LinkedHashMap<String, String>();
+
+	public BatchPipeline(Pipeline pipeline) {
+		this.pipeline = pipeline;
+		for (Stage stage : pipeline.getStages()) {
+			int workers = Integer.getInteger("choucas.batch.workers." + stage.getName(), defaultWorkers);
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), WsClients.threadFactory("choucas-batch-" + stage.getName() + "-"));
+			pool.allowCoreThreadTimeOut(true);
+			pools.put(stage.getName(), pool);
+		}
+	}
+
+	/**
+	 * Declares a stage output written in the document results under the given name.
+	 * JSON outputs are written as JSON, others as strings.
+	 */
+	public BatchPipeline output(String name, String stage) {
+		outputs.put(name, stage);
+		return this;
+	}
+
+	public Pipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Starts the run of every document, with the parameters of the context (api_key, lang, priority).
+	 * Returns at once, results are read from BatchResults.
+	 */
+	public BatchResults run(final List<Document> documents, final PipelineContext context) {
+		System.out.println("Adapter : " + pipeline.getName() + " on " + documents.size() + " documents");
+		return new Run(documents, context).results;
+	}
+
+	protected class Run {
+		final List<Document> documents;
+		final PipelineContext context;
+		final BatchResults results;
+		final List<CompletableFuture<PipelineContext>> running = new ArrayList<CompletableFuture<PipelineContext>>();
+		int next = 0;
+		int inFlight = 0;
+		boolean cancelled = false;
+
+		Run(List<Document> documents, PipelineContext context) {
+			this.documents = documents;
+			this.context = context;
+			this.results = new BatchResults(documents.size());
+			results.onRead(this::pump);
+			results.onCancel(this::cancel);
+			pump();
+		}
+
+		/**
+		 * Starts documents while the in flight and unread results allow
+		 */
+		protected void pump() {
+			List<Integer> started = new ArrayList<Integer>();
+			synchronized (this) {
+				while (next < documents.size() && (cancelled || inFlight + results.pending() < maxInFlight)) {
+					started.add(next++);
+					if (!cancelled) {
+						inFlight++;
+					}
+				}
+			}
+			for (int index : started) {
+				start(documents.get(index));
+			}
+		}
+
+		protected void start(final Document document) {
+			if (isCancelled()) {
+				results.add(error(document, "cancelled"), false);
+				return;
+			}
+			final PipelineContext documentContext = context.copy().put(Stages.TEXT, document.getText());
+			final CompletableFuture<PipelineContext> run = pipeline.runAsync(documentContext, (Stage stage) -> pools.get(stage.getName()));
+			synchronized (this) {
+				running.add(run);
+			}
+			run.whenComplete((done, t) -> {
+				synchronized (this) {
+					running.remove(run);
+					inFlight--;
+				}
+				String line;
+				boolean success = t == null;
+				try {
+					line = success ? result(document, documentContext) : error(document, message(t));
+				} catch (Exception e) {
+					success = false;
+					line = error(document, "cannot write the result, " + e.getMessage());
+				}
+				if (!success) {
+					System.out.println("Adapter : " + pipeline.getName() + ", document " + document.getId() + " failed");
+				}
+				results.add(line, success);
+				pump();
+			});
+		}
+
+		protected synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		protected void cancel() {
+			List<CompletableFuture<PipelineContext>> runs;
+			synchronized (this) {
+				cancelled = true;
+				runs = new ArrayList<CompletableFuture<PipelineContext>>(running);
+			}
+			for (CompletableFuture<PipelineContext> run : runs) {
+				run.cancel(true);
+			}
+			pump();
+		}
+	}
+
+	protected String result(Document document, PipelineContext context) {
+		JSONObject result = new JSONObject();
+		result.put("id", document.getId());
+		result.put("status", "ok");
+		for (Map.Entry<String, String> output : outputs.entrySet()) {
+			String value = context.getString(output.getValue());
+			String trimmed = value == null ? "" : value.trim();
+			if (trimmed.startsWith("{")) {
+				result.put(output.getKey(), new JSONObject(trimmed));
+			}
+			else if (trimmed.startsWith("[")) {
+				result.put(output.getKey(), new JSONArray(trimmed));
+			}
+			else {
+				result.put(output.getKey(), value);
+			}
+		}
+		// one line : JSON strings escape the line breaks of the texts
+		return result.toString();
+	}
+
+	protected static String error(Document document, String message) {
+		JSONObject result = new JSONObject();
+		result.put("id", document.getId());
+		result.put("status", "error");
+		result.put("error", String.valueOf(message));
+		return result.toString();
+	}
+
+	protected static String message(Throwable t) {
+		while ((t instanceof CompletionException || t instanceof PipelineException) && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t.getMessage() != null ? t.getMessage() : t.toString();
+	}
+
+}
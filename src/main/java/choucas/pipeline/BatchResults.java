@@ -0,0 +1,140 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds the results of a BatchPipeline run, one JSON line per document,
+ * in completion order. They are read while the run goes on : openStream blocks until
+ * the next result is done, and ends after the result of the last document.
+ * Reading a result lets the run start the next documents.
+ */
+
+public class BatchResults {
+
+	private final int total;
+	private final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+	private final AtomicInteger read = new AtomicInteger();
+	private final AtomicInteger succeeded = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private volatile Runnable onRead = () -> {};
+	private volatile Runnable onCancel = () -> {};
+
+	public BatchResults(int total) {
+		this.total = total;
+	}
+
+	protected void add(String line, boolean success) {
+		(success ? succeeded : failed).incrementAndGet();
+		lines.add(line);
+	}
+
+	protected int pending() {
+		return lines.size();
+	}
+
+	protected void onRead(Runnable onRead) {
+		this.onRead = onRead;
+	}
+
+	protected void onCancel(Runnable onCancel) {
+		this.onCancel = onCancel;
+	}
+
+	/**
+	 * The next result, waiting for it, null after the last one
+	 */
+	public String next() throws InterruptedException {
+		if (read.get() >= total) {
+			return null;
+		}
+		String line = lines.take();
+		read.incrementAndGet();
+		onRead.run();
+		return line;
+	}
+
+	/**
+	 * Stops the run : documents not started are skipped, they get no result
+	 */
+	public void cancel() {
+		onCancel.run();
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getSucceeded() {
+		return succeeded.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * The results as JSON lines in UTF-8. Closing the stream before its end cancels the run.
+	 */
+	public InputStream openStream() {
+		return new InputStream() {
+			private byte[] line = new byte[0];
+			private int position = 0;
+			private boolean ended = false;
+
+			@Override
+			public int read() throws IOException {
+				byte[] one = new byte[1];
+				return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				if (length == 0) {
+					return 0;
+				}
+				while (position == line.length) {
+					if (ended) {
+						return -1;
+					}
+					try {
+						String next = next();
+						if (next == null) {
+							ended = true;
+							return -1;
+						}
+						line = (next + "\n").getBytes(StandardCharsets.UTF_8);
+						position = 0;
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for the batch results");
+					}
+				}
+				int count = Math.min(length, line.length - position);
+				System.arraycopy(line, position, buffer, offset, count);
+				position += count;
+				return count;
+			}
+
+			@Override
+			public void close() {
+				if (!ended) {
+					ended = true;
+					cancel();
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,263 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import choucas.monitoring.WsMetrics;
+import choucas.utils.IoUtils;
+import choucas.utils.Priority;
+import choucas.utils.WsClients;
+import choucas.utils.WsUtils;
+
+/**
+ * This class is a graph of stages. A stage starts as soon as the stages producing
+ * its inputs are done, so independent branches of a chain run in parallel.
+ * Stages must be added after the stages they depend on, the graph is thus acyclic.
+ * Each stage is bounded by its timeout and its duration is recorded in WsMetrics.
+ * Stages run with the Priority of the context (Stages.PRIORITY), as do their upstream calls.
+ */
+
+public class Pipeline {
+
+	private static final String separator = "****************";
+
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+		Thread thread = new Thread(runnable, "choucas-pipeline-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	private final String name;
+	private final Set<String> sources;
+	private final List<Stage> stages = new ArrayList<Stage>();
+	private final Set<String> outputs = new HashSet<String>();
+
+	/**
+	 * @param name the pipeline name, usually the WPS algorithm name
+	 * @param sources the values the caller puts in the context before running the pipeline
+	 */
+	public Pipeline(String name, String... sources) {
+		this.name = name;
+		this.sources = new HashSet<String>(Arrays.asList(sources));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<Stage> getStages() {
+		return stages;
+	}
+
+	/**
+	 * Adds a stage, its inputs must be sources or outputs of stages already added
+	 */
+	public Pipeline add(Stage stage) {
+		if (sources.contains(stage.getName()) || outputs.contains(stage.getName())) {
+			throw new IllegalArgumentException(name + " : stage " + stage.getName() + " is already defined");
+		}
+		for (String input : stage.getInputs()) {
+			if (!sources.contains(input) && !outputs.contains(input)) {
+				throw new IllegalArgumentException(name + " : input " + input + " of stage " + stage.getName() + " is not produced before");
+			}
+		}
+		stages.add(stage);
+		outputs.add(stage.getName());
+		return this;
+	}
+
+	/**
+	 * Runs every stage and waits for the last one, stage outputs are stored in the context
+	 */
+	public PipelineContext run(PipelineContext context) throws PipelineException {
+		return run(context, WsClients.getExecutor());
+	}
+
+	public PipelineContext run(PipelineContext context, Executor executor) throws PipelineException {
+		CompletableFuture<PipelineContext> run = runAsync(context, executor);
+		try {
+			return run.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+			if (cause instanceof PipelineException) {
+				throw (PipelineException) cause;
+			}
+			throw new PipelineException(name + " : " + cause.getMessage(), cause);
+		} catch (InterruptedException e) {
+			run.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new PipelineException(name + " : interrupted", e);
+		}
+	}
+
+	/**
+	 * Starts every stage without waiting, the future completes with the context when the last stage is done.
+	 * Cancelling the future cancels the stages not yet done.
+	 */
+	public CompletableFuture<PipelineContext> runAsync(final PipelineContext context, Executor executor) {
+		return runAsync(context, stage -> executor);
+	}
+
+	/**
+	 * Starts every stage, each one on the executor given for it (BatchPipeline stage pools)
+	 */
+	public CompletableFuture<PipelineContext> runAsync(final PipelineContext context, Function<Stage, Executor> executors) {
+		final CompletableFuture<PipelineContext> result = new CompletableFuture<PipelineContext>();
+		for (String source : sources) {
+			if (!context.has(source)) {
+				result.completeExceptionally(new PipelineException(name + " : missing input " + source));
+				return result;
+			}
+		}
+
+		Map<String, CompletableFuture<Void>> produced = new HashMap<String, CompletableFuture<Void>>();
+		final List<CompletableFuture<Void>> running = new ArrayList<CompletableFuture<Void>>();
+
+		for (final Stage stage : stages) {
+			List<CompletableFuture<Void>> dependencies = new ArrayList<CompletableFuture<Void>>();
+			for (String input : stage.getInputs()) {
+				if (produced.containsKey(input)) {
+					dependencies.add(produced.get(input));
+				}
+			}
+			CompletableFuture<Void> future = CompletableFuture
+					.allOf(dependencies.toArray(new CompletableFuture<?>[dependencies.size()]))
+					.thenCompose(done -> {
+						CompletableFuture<Void> started = execute(stage, context, executors.apply(stage));
+						// the run already failed : the stage is not run when its thread comes
+						if (result.isDone()) {
+							started.cancel(false);
+						}
+						else {
+							result.whenComplete((ended, t) -> {
+								if (t != null) {
+									started.cancel(false);
+								}
+							});
+						}
+						return started;
+					});
+			produced.put(stage.getName(), future);
+			running.add(future);
+		}
+
+		// fail fast : the first failing stage ends the run
+		CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[running.size()]))
+				.thenRun(() -> result.complete(context));
+		for (CompletableFuture<Void> future : running) {
+			future.whenComplete((done, t) -> {
+				if (t != null) {
+					Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+					result.completeExceptionally(new PipelineException(name + " : " + cause.getMessage(), cause));
+				}
+			});
+		}
+		result.whenComplete((done, t) -> {
+			if (t != null) {
+				cancel(running);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Runs the stage on the executor. Its timeout starts when it starts running : a stage waiting
+	 * for a thread does not time out, and a stage already failed or cancelled when its thread comes is not run.
+	 */
+	protected CompletableFuture<Void> execute(final Stage stage, final PipelineContext context, Executor executor) {
+		final Priority priority = Priority.parse(context.getString(Stages.PRIORITY));
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		// set by the stage or by its timeout, whichever ends first
+		final AtomicBoolean settled = new AtomicBoolean();
+		Runnable task = () -> {
+			if (future.isDone()) {
+				return;
+			}
+			// the stage thread is not interrupted on timeout, its late result is ignored
+			final ScheduledFuture<?> timeout = timer.schedule(() -> {
+				if (settled.compareAndSet(false, true)) {
+					future.completeExceptionally(new TimeoutException("stage " + stage.getName() + " timed out after " + stage.getTimeout() + " ms"));
+				}
+			}, stage.getTimeout(), TimeUnit.MILLISECONDS);
+			System.out.println("\n" + separator);
+			System.out.println("Adapter : Calling " + stage.getName() + "...");
+			long start = System.nanoTime();
+			boolean success = false;
+			try (WsMetrics.Scope scope = WsMetrics.scope(name, stage.getName());
+					Priority.Scope priorityScope = Priority.scope(priority)) {
+				Object output = stage.call(context);
+				if (output == null) {
+					throw new IllegalStateException("No output from stage " + stage.getName());
+				}
+				success = true;
+				if (!future.isDone() && settled.compareAndSet(false, true)) {
+					context.put(stage.getName(), output);
+					future.complete(null);
+				}
+				if (WsUtils.getStdoutFlag()) {
+					System.out.println("\nOutput of " + stage.getName() + " :\n");
+					print(output.toString());
+				}
+				System.out.println("\nAdapter : " + stage.getName() + " Invoked Successfully !");
+			} catch (Throwable t) {
+				if (settled.compareAndSet(false, true)) {
+					future.completeExceptionally(t);
+				}
+			} finally {
+				timeout.cancel(false);
+				long micros = (System.nanoTime() - start) / 1000;
+				context.setTiming(stage.getName(), micros / 1000);
+				WsMetrics.stage(name, stage.getName()).record(micros, success, 0, 0);
+			}
+		};
+		try {
+			WsClients.withPriority(executor, priority).execute(task);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	protected static void cancel(List<CompletableFuture<Void>> futures) {
+		for (CompletableFuture<Void> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	protected static void print(String output) {
+		if (output.startsWith("{") || output.startsWith("[")) {
+			IoUtils.prettyPrintJson(output);
+		}
+		else {
+			System.out.println(output);
+		}
+	}
+
+}
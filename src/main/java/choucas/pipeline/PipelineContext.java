@@ -0,0 +1,63 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds the values shared by the stages of one pipeline run :
+ * the request parameters and the output of every stage, keyed by stage name.
+ */
+
+public class PipelineContext {
+
+	private final Map<String, Object> values = new ConcurrentHashMap<String, Object>();
+	private final Map<String, Long> timings = new ConcurrentHashMap<String, Long>(); // stage durations (ms)
+
+	/**
+	 * Stores a value, null values are ignored (optional WPS inputs)
+	 */
+	public PipelineContext put(String name, Object value) {
+		if (value != null) {
+			values.put(name, value);
+		}
+		return this;
+	}
+
+	public boolean has(String name) {
+		return values.containsKey(name);
+	}
+
+	public Object get(String name) {
+		return values.get(name);
+	}
+
+	public String getString(String name) {
+		Object value = values.get(name);
+		return value == null ? null : value.toString();
+	}
+
+	/**
+	 * Returns a new context with the values of this one, e.g. the request parameters
+	 */
+	public PipelineContext copy() {
+		PipelineContext copy = new PipelineContext();
+		copy.values.putAll(values);
+		return copy;
+	}
+
+	public Map<String, Long> getTimings() {
+		return timings;
+	}
+
+	protected void setTiming(String stage, long duration) {
+		timings.put(stage, duration);
+	}
+
+}
@@ -0,0 +1,26 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+/**
+ * This exception is thrown when a pipeline is badly defined or when one of its stages fails.
+ */
+
+public class PipelineException extends Exception {
+
+	private static final long serialVersionUID = -4215790427419866052L;
+
+	public PipelineException(String message) {
+		super(message);
+	}
+
+	public PipelineException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
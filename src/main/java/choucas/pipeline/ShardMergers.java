@@ -0,0 +1,114 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import choucas.utils.TeiDom;
+import choucas.utils.ToponymCache;
+
+/**
+ * This class provides the mergers of sharded outputs :
+ * XML/TEI documents (NER, geoparsing) and GeoJSON FeatureCollections (GEO, geocoding).
+ */
+
+public class ShardMergers {
+
+	/**
+	 * Appends the body content of every shard document to the body of the first one.
+	 * Numbered ids (w12, s3) are renumbered after the ids of the previous shards, other ids
+	 * get the shard index as suffix, references (#id) follow.
+	 * Offsets refer to the content the stage was sent, the output of the input stage
+	 * (unitex : the POS tagged text, not the raw text) : they are shifted by the length
+	 * of this content in the previous shards.
+	 */
+	public static ShardedPipeline.Merger tei(final String input) {
+		return (outputs, shards, contexts) -> {
+			DocumentBuilder builder = TeiDom.documentBuilder();
+
+			Document merged = TeiDom.parse(builder, outputs.get(0).toString());
+			Element body = body(merged);
+			Map<String, Integer> lastIds = new HashMap<String, Integer>();
+			TeiDom.collectIds(merged.getDocumentElement(), lastIds, Math::max);
+
+			int offset = 0;
+			for (int i = 1; i < outputs.size(); i++) {
+				String previous = contexts.get(i - 1).getString(input);
+				offset += previous == null ? 0 : previous.length();
+				Document shard = TeiDom.parse(builder, outputs.get(i).toString());
+				Element shardBody = body(shard);
+				Map<String, String> renamed = new HashMap<String, String>();
+				TeiDom.renumber(shardBody, new HashMap<String, Integer>(lastIds), "-" + i, renamed);
+				TeiDom.collectIds(shardBody, lastIds, Math::max);
+				TeiDom.references(shardBody, renamed);
+				TeiDom.shiftOffsets(shardBody, offset);
+
+				for (Node child = shardBody.getFirstChild(); child != null; child = child.getNextSibling()) {
+					body.appendChild(merged.importNode(child, true));
+				}
+			}
+
+			return TeiDom.serialize(merged);
+		};
+	}
+
+	/**
+	 * Concatenates the features of every shard collection, a feature found
+	 * in several shards (same name and geometry) is kept once
+	 */
+	public static ShardedPipeline.Merger geoJson() {
+		return (outputs, shards, contexts) -> {
+			JSONObject merged = new JSONObject(outputs.get(0).toString());
+			JSONArray features = new JSONArray();
+			Set<String> seen = new HashSet<String>();
+			for (Object output : outputs) {
+				JSONArray shardFeatures = new JSONObject(output.toString()).optJSONArray("features");
+				for (int i = 0; shardFeatures != null && i < shardFeatures.length(); i++) {
+					Object feature = shardFeatures.get(i);
+					if (seen.add(featureKey(feature))) {
+						features.put(feature);
+					}
+				}
+			}
+			merged.put("features", features);
+			return merged.toString();
+		};
+	}
+
+	protected static String featureKey(Object feature) {
+		if (!(feature instanceof JSONObject)) {
+			return String.valueOf(feature);
+		}
+		JSONObject object = (JSONObject) feature;
+		JSONObject properties = object.optJSONObject("properties");
+		String name = properties == null ? "" : ToponymCache.normalize(properties.optString("name"));
+		Object geometry = object.opt("geometry");
+		return name + "|" + geometry;
+	}
+
+	/**
+	 * The TEI body, or the root element of a document without body
+	 */
+	protected static Element body(Document document) {
+		NodeList bodies = document.getElementsByTagNameNS("*", "body");
+		return bodies.getLength() > 0 ? (Element) bodies.item(0) : document.getDocumentElement();
+	}
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import choucas.utils.WsClients;
+
+/**
+ * This class runs a pipeline on every shard of a long text at once, then merges
+ * the outputs of the shards runs. Only the merged outputs are put in the caller context,
+ * the other stage outputs stay in the shards contexts.
+ * Latency then depends on the shard size rather than on the text length.
+ */
+
+public class ShardedPipeline {
+
+	/**
+	 * Merges the outputs of a stage, in shards order, the shards contexts hold the other stage outputs
+	 */
+	public interface Merger {
+		Object merge(List<Object> outputs, List<TextSharder.Shard> shards, List<PipelineContext> contexts) throws Exception;
+	}
+
+	private final Pipeline pipeline;
+	private final Map<String, Merger> mergers = new LinkedHashMap<String, Merger>();
+
+	public ShardedPipeline(Pipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * Declares a stage output to merge
+	 */
+	public ShardedPipeline merge(String output, Merger merger) {
+		mergers.put(output, merger);
+		return this;
+	}
+
+	public Pipeline getPipeline() {
+		return pipeline;
+	}
+
+	public PipelineContext run(PipelineContext context, List<TextSharder.Shard> shards) throws PipelineException {
+		return run(context, shards, WsClients.getExecutor());
+	}
+
+	public PipelineContext run(PipelineContext context, List<TextSharder.Shard> shards, Executor executor) throws PipelineException {
+		if (shards.size() <= 1) {
+			return pipeline.run(context, executor);
+		}
+		System.out.println("Adapter : " + pipeline.getName() + " on " + shards.size() + " shards");
+
+		List<PipelineContext> contexts = new ArrayList<PipelineContext>();
+		List<CompletableFuture<PipelineContext>> runs = new ArrayList<CompletableFuture<PipelineContext>>();
+		for (TextSharder.Shard shard : shards) {
+			PipelineContext shardContext = context.copy().put(Stages.TEXT, shard.getText());
+			contexts.add(shardContext);
+			runs.add(pipeline.runAsync(shardContext, executor));
+		}
+
+		// fail fast : the first failing shard cancels the others
+		CompletableFuture<Void> all = CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[runs.size()]));
+		for (CompletableFuture<PipelineContext> run : runs) {
+			run.whenComplete((done, t) -> {
+				if (t != null) {
+					all.completeExceptionally(t);
+				}
+			});
+		}
+		try {
+			all.get();
+		} catch (ExecutionException e) {
+			cancel(runs);
+			if (e.getCause() instanceof PipelineException) {
+				throw (PipelineException) e.getCause();
+			}
+			throw new PipelineException(pipeline.getName() + " : " + e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			cancel(runs);
+			Thread.currentThread().interrupt();
+			throw new PipelineException(pipeline.getName() + " : interrupted", e);
+		}
+
+		for (Map.Entry<String, Merger> entry : mergers.entrySet()) {
+			List<Object> outputs = new ArrayList<Object>();
+			for (PipelineContext shardContext : contexts) {
+				outputs.add(shardContext.get(entry.getKey()));
+			}
+			try {
+				context.put(entry.getKey(), entry.getValue().merge(outputs, shards, contexts));
+			} catch (Exception e) {
+				throw new PipelineException(pipeline.getName() + " : cannot merge " + entry.getKey() + " outputs, " + e.getMessage(), e);
+			}
+		}
+
+		// the slowest shard of each stage
+		for (PipelineContext shardContext : contexts) {
+			for (Map.Entry<String, Long> timing : shardContext.getTimings().entrySet()) {
+				Long current = context.getTimings().get(timing.getKey());
+				if (current == null || current < timing.getValue()) {
+					context.setTiming(timing.getKey(), timing.getValue());
+				}
+			}
+		}
+		return context;
+	}
+
+	protected static void cancel(List<CompletableFuture<PipelineContext>> runs) {
+		for (CompletableFuture<PipelineContext> run : runs) {
+			run.cancel(true);
+		}
+	}
+
+}
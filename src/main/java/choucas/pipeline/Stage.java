@@ -0,0 +1,73 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+/**
+ * This class describes a pipeline stage : a named task reading declared inputs
+ * from the pipeline context. Its result is stored in the context under the stage name.
+ * Stages are immutable and can be shared by several pipelines.
+ */
+
+public class Stage {
+
+	/**
+	 * The work done by a stage, usually a service call
+	 */
+	public interface Task {
+		Object call(PipelineContext context) throws Exception;
+	}
+
+	public static final long DEFAULT_TIMEOUT = 300000; // ms
+
+	private final String name;
+	private final String[] inputs;
+	private final Task task;
+	private final long timeout;
+
+	public Stage(String name, String[] inputs, Task task) {
+		this(name, inputs, task, DEFAULT_TIMEOUT);
+	}
+
+	public Stage(String name, String[] inputs, Task task, long timeout) {
+		this.name = name;
+		this.inputs = inputs;
+		this.task = task;
+		this.timeout = timeout;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String[] getInputs() {
+		return inputs;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Returns a copy of this stage with another timeout (ms)
+	 */
+	public Stage withTimeout(long timeout) {
+		return new Stage(name, inputs, task, timeout);
+	}
+
+	/**
+	 * Returns a copy of this stage stored under another name
+	 */
+	public Stage as(String name) {
+		return new Stage(name, inputs, task, timeout);
+	}
+
+	protected Object call(PipelineContext context) throws Exception {
+		return task.call(context);
+	}
+
+}
@@ -0,0 +1,211 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+import java.net.URLEncoder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import choucas.utils.IoUtils;
+import choucas.utils.JsonRequest;
+import choucas.utils.MicroBatcher;
+import choucas.utils.ToponymCache;
+import choucas.utils.WsUtils;
+
+/**
+ * This class provides the stages shared by the WPS chains :
+ * services hosted on choucas.univ-pau.fr (text_to_POS, create_ngram, create_vector, use_model),
+ * services hosted on erig.univ-pau.fr (POS, NER, geoparsing, geocoding, TOP, GEO)
+ * and the conversions between their outputs.
+ * Every stage stores the raw service response under its name, the next stages convert it.
+ * Short texts sent at once to POS and geoparsing may be joined in one request by MicroBatcher.
+ * See http://choucas.univ-pau.fr/docs and http://erig.univ-pau.fr/PERDIDO/api.jsp
+ */
+
+public class Stages {
+
+	public static final String CHOUCAS_URL = "http://choucas.univ-pau.fr";
+	public static final String ERIG_URL = "http://erig.univ-pau.fr";
+
+	// Request parameters, put in the context by the WPS process
+	public static final String TEXT = "text";
+	public static final String URL = "url";
+	public static final String API_KEY = "api_key";
+	public static final String LANG = "lang";
+	public static final String PRIORITY = "priority"; // interactive or batch, see Priority
+
+	// Stage outputs
+	public static final String TEXT_TO_POS = "text_to_POS";
+	public static final String CREATE_NGRAM = "create_ngram";
+	public static final String CREATE_VECTOR = "create_vector";
+	public static final String USE_MODEL = "use_model";
+	public static final String POS = "POS";
+	public static final String UNITEX = "unitex";
+	public static final String NER = "NER";
+	public static final String GEOPARSING = "geoparsing";
+	public static final String GEOCODING = "geocoding";
+	public static final String TOP = "TOP";
+	public static final String GEO = "GEO";
+
+	protected static final String CONTENT_TYPE = "text/plain";
+
+	// choucas.univ-pau.fr services
+
+	/**
+	 * text_to_POS service, input : text
+	 */
+	public static Stage textToPos() {
+		return new Stage(TEXT_TO_POS, new String[] {TEXT}, context ->
+			WsUtils.callServicePostM(CHOUCAS_URL + "/api/text_to_POS/", context.getString(URL), "inputFile.txt", context.getString(TEXT), CONTENT_TYPE));
+	}
+
+	/**
+	 * create_ngram service, input : text_to_POS output
+	 */
+	public static Stage createNgram() {
+		return new Stage(CREATE_NGRAM, new String[] {TEXT_TO_POS}, context -> {
+			String pos = WsUtils.jsonToPos(new JSONObject(context.getString(TEXT_TO_POS)).getJSONArray("texte_sortie"));
+			return WsUtils.callServicePostM(CHOUCAS_URL + "/api/create_ngram/", context.getString(URL), "posFile.tsv", pos, CONTENT_TYPE);
+		});
+	}
+
+	/**
+	 * create_vector service, input : create_ngram output
+	 */
+	public static Stage createVector() {
+		return new Stage(CREATE_VECTOR, new String[] {CREATE_NGRAM}, context -> {
+			String ngram = WsUtils.jsonToNgram(new JSONObject(context.getString(CREATE_NGRAM)).getJSONArray("texte_sortie_2"));
+			return WsUtils.callServicePostM(CHOUCAS_URL + "/api/create_vector/", context.getString(URL), "mpFile.tsv", ngram, CONTENT_TYPE);
+		});
+	}
+
+	/**
+	 * use_model service, inputs : create_vector and create_ngram outputs
+	 */
+	public static Stage useModel() {
+		return new Stage(USE_MODEL, new String[] {CREATE_VECTOR, CREATE_NGRAM}, context -> {
+			JSONObject ngram = new JSONObject(context.getString(CREATE_NGRAM));
+			JSONObject vector = new JSONObject(context.getString(CREATE_VECTOR));
+			return WsUtils.callServicePostUseM(CHOUCAS_URL + "/api/use_model/", context.getString(URL),
+					WsUtils.jsonToVector(vector.getJSONArray("texte_sortie")),
+					WsUtils.jsonToNgram(ngram.getJSONArray("texte_sortie_2")),
+					WsUtils.jsonToText(ngram.getJSONArray("texte_sortie_1")),
+					CONTENT_TYPE);
+		});
+	}
+
+	/**
+	 * Unitex formatted text classified by use_model, input : use_model output
+	 */
+	public static Stage unitexFromModel() {
+		return new Stage(UNITEX, new String[] {USE_MODEL}, context ->
+			new JSONObject(context.getString(USE_MODEL)).getString("texte_sortie"));
+	}
+
+	// erig.univ-pau.fr services
+
+	/**
+	 * POS processing service, unitex output, input : text
+	 */
+	public static Stage posUnitex() {
+		return new Stage(POS, new String[] {TEXT}, context ->
+			MicroBatcher.TEXT.call(ERIG_URL + "/PERDIDO/api/pos/txt_unitex/", request(context, context.getString(TEXT)).getParams()));
+	}
+
+	/**
+	 * Unitex formatted text, input : POS output, sent as is
+	 */
+	public static Stage unitexFromPos() {
+		return new Stage(UNITEX, new String[] {POS}, context -> context.getString(POS));
+	}
+
+	/**
+	 * Expanded named entity recognition service, input : unitex text
+	 */
+	public static Stage ner() {
+		return new Stage(NER, new String[] {UNITEX}, context ->
+			WsUtils.callServicePost(ERIG_URL + "/PERDIDO/api/ner/pos_xml/", request(context, context.getString(UNITEX))));
+	}
+
+	/**
+	 * Geoparsing service without classification, input : unitex text
+	 */
+	public static Stage geoparsing() {
+		return geoparsing("false", "nominal", "Standard", "s", "bdnyme_ign", null);
+	}
+
+	public static Stage geoparsing(String geocoding, String POStagger, String version, String mode, String gazetier, String bbox) {
+		return new Stage(GEOPARSING, new String[] {UNITEX}, context ->
+			MicroBatcher.TEI.callCached(ERIG_URL + "/PERDIDO/api/geoparsing/",
+					WsUtils.perdidoParams(context.getString(API_KEY), context.getString(UNITEX), context.getString(LANG),
+							geocoding, POStagger, version, mode, gazetier, bbox)));
+	}
+
+	/**
+	 * Geocoding service with classification, input : unitex text
+	 */
+	public static Stage geocoding() {
+		return geocoding("true", "nominal", "Standard", "s", "bdnyme_ign", null);
+	}
+
+	public static Stage geocoding(String geocoding, String POStagger, String version, String mode, String gazetier, String bbox) {
+		return new Stage(GEOCODING, new String[] {UNITEX}, context ->
+			WsUtils.callServicePostCached(ERIG_URL + "/PERDIDO/api/geocoding/",
+					WsUtils.perdidoParams(context.getString(API_KEY), context.getString(UNITEX), context.getString(LANG),
+							geocoding, POStagger, version, mode, gazetier, bbox)));
+	}
+
+	/**
+	 * GetToponyms service, input : text
+	 */
+	public static Stage toponymsFromText() {
+		return new Stage(TOP, new String[] {TEXT}, context ->
+			WsUtils.callServicePost(ERIG_URL + "/PERDIDO/api/toponyms/txt_json/",
+					request(context, IoUtils.stringCleaning(context.getString(TEXT)))));
+	}
+
+	/**
+	 * GetToponyms service, input : NER output
+	 */
+	public static Stage toponymsFromNer() {
+		return new Stage(TOP, new String[] {NER}, context -> {
+			String content = URLEncoder.encode(IoUtils.stringCleaning(context.getString(NER)), "UTF-8");
+			return WsUtils.callServicePost(ERIG_URL + "/PERDIDO/api/toponyms/ner_json/", request(context, content));
+		});
+	}
+
+	/**
+	 * GeoJson service : geo-location of a list of toponyms, input : TOP output
+	 * Only the toponyms missing from ToponymCache are sent to the service
+	 */
+	public static Stage geoJson() {
+		return new Stage(GEO, new String[] {TOP}, context -> {
+			JSONArray content = new JSONArray(context.getString(TOP));
+			return ToponymCache.locate(content, ToponymCache.SERVICE_DEFAULT, ToponymCache.SERVICE_DEFAULT, toponyms -> {
+				JsonRequest request = new JsonRequest()
+						.put("api_key", context.getString(API_KEY))
+						.putRaw("content", toponyms.toString())
+						.put("outputFormat", "GeoJson")
+						.put("getURL", "false");
+				return WsUtils.callServicePost(ERIG_URL + "/PERDIDO/api/toponyms/json_gps/", request);
+			});
+		});
+	}
+
+	/**
+	 * Request of the PERDIDO text services : api_key, content and lang
+	 */
+	protected static JsonRequest request(PipelineContext context, String content) {
+		return new JsonRequest()
+				.put("api_key", context.getString(API_KEY))
+				.put("content", content)
+				.put("lang", context.getString(LANG));
+	}
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Package choucas.pipeline
+ * Provides a pipeline engine chaining WPS adapters stages (service calls and conversions)
+ * Stages declare their inputs, independent stages run in parallel
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.pipeline;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class splits a long text into shards of whole sentences or paragraphs,
+ * processed concurrently by ShardedPipeline.
+ * Consecutive sentences (paragraphs) are grouped up to maxChars characters per shard,
+ * a single longer sentence (paragraph) makes its own shard.
+ * Shards are contiguous : their concatenation is the text, spacing included.
+ */
+
+public class TextSharder {
+
+	public static final String NONE = "none";
+	public static final String SENTENCE = "sentence";
+	public static final String PARAGRAPH = "paragraph";
+
+	protected static int maxChars = Integer.getInteger("choucas.pipeline.shardChars", 4000);
+	protected static int maxShards = Integer.getInteger("choucas.pipeline.maxShards", 32);
+
+	private static final Pattern PARAGRAPH_END = Pattern.compile("\\n\\s*\\n");
+
+	/**
+	 * A part of the text, with its offset (in chars) in the text
+	 */
+	public static class Shard {
+		private final int index;
+		private final int offset;
+		private final String text;
+
+		public Shard(int index, int offset, String text) {
+			this.index = index;
+			this.offset = offset;
+			this.text = text;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+
+	public static List<Shard> split(String text, String mode) {
+		return split(text, mode, Locale.FRENCH);
+	}
+
+	public static List<Shard> split(String text, String mode, Locale locale) {
+		if (text == null || mode == null || NONE.equals(mode) || text.length() <= maxChars) {
+			List<Shard> shards = new ArrayList<Shard>();
+			shards.add(new Shard(0, 0, text));
+			return shards;
+		}
+		List<Integer> boundaries = PARAGRAPH.equals(mode) ? paragraphBoundaries(text) : sentenceBoundaries(text, locale);
+
+		// never more than maxShards shards : larger shards on very long texts
+		int shardChars = Math.max(maxChars, (text.length() + maxShards - 1) / maxShards);
+		List<Shard> shards = new ArrayList<Shard>();
+		int start = 0;
+		int previous = 0;
+		for (int boundary : boundaries) {
+			if (boundary - start > shardChars && previous > start) {
+				shards.add(new Shard(shards.size(), start, text.substring(start, previous)));
+				start = previous;
+			}
+			previous = boundary;
+		}
+		if (start < text.length()) {
+			shards.add(new Shard(shards.size(), start, text.substring(start)));
+		}
+		return shards;
+	}
+
+	/**
+	 * Sentence ends, the text end included
+	 */
+	protected static List<Integer> sentenceBoundaries(String text, Locale locale) {
+		List<Integer> boundaries = new ArrayList<Integer>();
+		BreakIterator iterator = BreakIterator.getSentenceInstance(locale);
+		iterator.setText(text);
+		iterator.first();
+		for (int end = iterator.next(); end != BreakIterator.DONE; end = iterator.next()) {
+			boundaries.add(end);
+		}
+		return boundaries;
+	}
+
+	/**
+	 * Paragraph ends, after the blank lines, the text end included
+	 */
+	protected static List<Integer> paragraphBoundaries(String text) {
+		List<Integer> boundaries = new ArrayList<Integer>();
+		Matcher matcher = PARAGRAPH_END.matcher(text);
+		while (matcher.find()) {
+			boundaries.add(matcher.end());
+		}
+		boundaries.add(text.length());
+		return boundaries;
+	}
+
+}
@@ -8,12 +8,7 @@ package choucas.sources.algorithm;
  * @author Eric Gouardères
  */
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
 
 import org.n52.wps.algorithm.annotation.Algorithm;
 import org.n52.wps.algorithm.annotation.Execute;
@@ -29,6 +24,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 
 import choucas.io.data.FeaturesDataBinding;
+import choucas.utils.WsUtils;
 /**
  * 
  * Process to access Refuges.info API
@@ -150,6 +146,7 @@ public class RefugesInfoAlgorithm extends AbstractAnnotatedAlgorithm  {
             } catch (Exception e) {
                 System.out.println("\nError while calling REST Service");
                 e.printStackTrace();
+                WsUtils.failIfUnavailable(e);
             }
 
  //       log.debug("Finished erig process, literal output is : {}", literalOutput);
@@ -175,23 +172,7 @@ public class RefugesInfoAlgorithm extends AbstractAnnotatedAlgorithm  {
 	
 	protected static String callServiceREST(String api_url, String payload) throws IOException
     {
-    	String response = "";
-    		 		
-    	URL url = new URL(api_url+payload);
-		URLConnection connection = url.openConnection();
-		
-		InputStreamReader input = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8);
-		BufferedReader in = new BufferedReader(input);
-		
-		String line = null;
-			 
-		while ((line = in.readLine()) != null) {
-			response+=line;
-		}
-			 
-		in.close();
-			 
-		return response;
+		return WsUtils.callServiceGet(api_url+payload);
     }
 	
 	
@@ -0,0 +1,297 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+
+/**
+ * This class manages the files published by the chains (taggedText, topoList) in the temp directory
+ * served by the HTTP server (ChoucasConfig.getTempPath() + getTempDir()), under the same urls.
+ * Files are named by the SHA-256 hash of their content : names never collide, and publishing the
+ * same content again reuses the file.
+ * Files are written behind the request, by one writer thread, to a temporary file renamed when
+ * complete : the server never serves a partial file. When choucas.artifacts.pending writes are waiting,
+ * the request thread writes itself.
+ * The evictor deletes, every choucas.artifacts.evictSeconds, the files older than
+ * choucas.artifacts.maxAgeMinutes, then the oldest ones while the directory holds more than
+ * choucas.artifacts.quotaMB. It also runs as soon as the written files exceed the quota.
+ * Only the files of the store (prefix-hash.extension) and the files published before it
+ * (taggedText*, topoList*) are evicted, the other files of the directory are left alone.
+ */
+
+public class ArtifactStore {
+
+	protected static long maxAge = TimeUnit.MINUTES.toMillis(Long.getLong("choucas.artifacts.maxAgeMinutes", 24 * 60));
+	protected static long quota = Long.getLong("choucas.artifacts.quotaMB", 512) * 1024 * 1024;
+	protected static long evictInterval = Long.getLong("choucas.artifacts.evictSeconds", 300);
+	protected static int maxPending = Integer.getInteger("choucas.artifacts.pending", 256);
+
+	// file name -> content, while it is being written
+	private static final Map<String, byte[]> pending = new ConcurrentHashMap<String, byte[]>();
+	// held to publish an existing file again and to delete a file : a file published again is not deleted
+	private static final Object lock = new Object();
+
+	private static final Pattern STORED_NAME = Pattern.compile(".+-[0-9a-f]{32}(\\..*)?");
+	private static final Pattern LEGACY_NAME = Pattern.compile("(taggedText|topoList).*");
+
+	private static final AtomicLong published = new AtomicLong();
+	private static final AtomicLong reused = new AtomicLong();
+	private static final AtomicLong written = new AtomicLong();
+	private static final AtomicLong writeErrors = new AtomicLong();
+	private static final AtomicLong evicted = new AtomicLong();
+	private static final AtomicLong evictedBytes = new AtomicLong();
+	// size of the directory at the last eviction, plus the files written since
+	private static final AtomicLong usedBytes = new AtomicLong();
+
+	/**
+	 * Publishes a text in UTF-8 and returns its url
+	 */
+	public static String publish(String prefix, String extension, String content) {
+		return publish(prefix, extension, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static String publish(String prefix, String extension, byte[] content) {
+		String name = prefix + "-" + hash(content) + extension;
+		published.incrementAndGet();
+		if (pending.putIfAbsent(name, content) != null) {
+			reused.incrementAndGet();
+		}
+		else {
+			File file = new File(directory(), name);
+			boolean exists;
+			synchronized (lock) {
+				exists = file.exists();
+				if (exists) {
+					pending.remove(name);
+					// published again : its age starts over
+					file.setLastModified(System.currentTimeMillis());
+				}
+			}
+			if (exists) {
+				reused.incrementAndGet();
+			}
+			else {
+				getWriter().execute(() -> write(file, content));
+			}
+		}
+		return ChoucasConfig.getHostUrl() + ChoucasConfig.getTempDir() + name;
+	}
+
+	protected static File directory() {
+		File directory = new File(ChoucasConfig.getTempPath() + ChoucasConfig.getTempDir());
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+		return directory;
+	}
+
+	/**
+	 * 128 first bits of the SHA-256 hash, in hexadecimal
+	 */
+	protected static String hash(byte[] content) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+			StringBuilder hex = new StringBuilder(32);
+			for (int i = 0; i < 16; i++) {
+				hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e); // mandatory in every JVM
+		}
+	}
+
+	protected static void write(File file, byte[] content) {
+		File temp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+		try {
+			Files.write(temp.toPath(), content);
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			written.incrementAndGet();
+			// the first write starts the periodic eviction
+			ScheduledThreadPoolExecutor evictor = getEvictor();
+			if (usedBytes.addAndGet(content.length) > quota) {
+				evictor.execute(ArtifactStore::evict);
+			}
+		} catch (Exception e) {
+			writeErrors.incrementAndGet();
+			temp.delete();
+			System.out.println("Artifact store : cannot write " + file);
+			e.printStackTrace();
+		} finally {
+			pending.remove(file.getName());
+		}
+	}
+
+	/**
+	 * Executors made on first use by their holder class, without locking the publishing threads
+	 */
+	private static class Writer {
+		// full queue : the request thread writes the file itself
+		static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(maxPending), WsClients.threadFactory("choucas-artifacts-"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		static {
+			executor.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	private static class Evictor {
+		static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, WsClients.threadFactory("choucas-evictor-"));
+
+		static {
+			executor.scheduleWithFixedDelay(ArtifactStore::evict, 0, evictInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	protected static ThreadPoolExecutor getWriter() {
+		return Writer.executor;
+	}
+
+	protected static ScheduledThreadPoolExecutor getEvictor() {
+		return Evictor.executor;
+	}
+
+	/**
+	 * Waits for the files published so far to be written
+	 */
+	public static void flush() throws InterruptedException {
+		try {
+			getWriter().submit(() -> {}).get();
+		} catch (ExecutionException e) {
+			// an empty task does not fail
+		}
+	}
+
+	/**
+	 * Deletes the expired files, then the oldest ones over the quota. Files being written,
+	 * or published again since the scan, are kept. Runs on the evictor thread only.
+	 */
+	protected static void evict() {
+		try {
+			File[] files = directory().listFiles((dir, name) -> isStored(name));
+			if (files == null) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			List<File> kept = new ArrayList<File>();
+			List<Long> keptModified = new ArrayList<Long>();
+			long total = 0;
+			Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+			for (File file : files) {
+				long modified = file.lastModified();
+				if (!file.isFile() || isPending(file)) {
+					continue;
+				}
+				if (now - modified > maxAge && delete(file, modified)) {
+					continue;
+				}
+				kept.add(file);
+				keptModified.add(modified);
+				total += file.length();
+			}
+			for (int i = 0; i < kept.size() && total > quota; i++) {
+				File file = kept.get(i);
+				long length = file.length();
+				if (delete(file, keptModified.get(i))) {
+					total -= length;
+				}
+			}
+			usedBytes.set(total);
+		} catch (Exception e) {
+			System.out.println("Artifact store : eviction failed");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Files written by the store, their temporary files, and the files published before the store
+	 */
+	protected static boolean isStored(String name) {
+		if (name.startsWith(".") && name.endsWith(".tmp")) {
+			name = name.substring(1, name.length() - 4);
+		}
+		return STORED_NAME.matcher(name).matches() || LEGACY_NAME.matcher(name).matches();
+	}
+
+	protected static boolean isPending(File file) {
+		String name = file.getName();
+		if (name.startsWith(".") && name.endsWith(".tmp")) {
+			name = name.substring(1, name.length() - 4);
+		}
+		return pending.containsKey(name);
+	}
+
+	/**
+	 * Deletes the file unless it was published again (modified) or is being written since the scan
+	 */
+	protected static boolean delete(File file, long modified) {
+		synchronized (lock) {
+			if (isPending(file) || file.lastModified() != modified) {
+				return false;
+			}
+			long length = file.length();
+			if (file.delete()) {
+				evicted.incrementAndGet();
+				evictedBytes.addAndGet(length);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	public static JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("published", published.get());
+		stats.put("reused", reused.get());
+		stats.put("written", written.get());
+		stats.put("writeErrors", writeErrors.get());
+		stats.put("pending", pending.size());
+		stats.put("evicted", evicted.get());
+		stats.put("evictedBytes", evictedBytes.get());
+		stats.put("usedBytes", usedBytes.get());
+		stats.put("quotaBytes", quota);
+		stats.put("maxAgeMinutes", TimeUnit.MILLISECONDS.toMinutes(maxAge));
+		return stats;
+	}
+
+	public static void reset() {
+		published.set(0);
+		reused.set(0);
+		written.set(0);
+		writeErrors.set(0);
+		evicted.set(0);
+		evictedBytes.set(0);
+	}
+
+}
@@ -0,0 +1,269 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * This class is a circuit breaker in front of an upstream host or endpoint.
+ * Calls are counted in a rolling window of windowMillis : a closed breaker opens when, with
+ * at least minCalls calls in the window, the failure rate or the slow call rate reaches its threshold.
+ * An open breaker rejects calls at once with an UpstreamUnavailableException. After openMillis
+ * it turns half-open and lets probes calls through : it closes when they all succeed,
+ * opens again when one fails.
+ * WsCalls checks the breakers of the host and of the endpoint before every attempt.
+ * Only transient failures count (network, timeouts, server errors), a client error is an answer.
+ */
+
+public class CircuitBreaker {
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	protected static boolean enabled = !Boolean.getBoolean("choucas.ws.breaker.disabled");
+	protected static long windowMillis = Long.getLong("choucas.ws.breaker.window", 10000);
+	protected static int buckets = 10;
+	protected static int minCalls = Integer.getInteger("choucas.ws.breaker.minCalls", 10);
+	protected static double failureRateThreshold = Double.parseDouble(System.getProperty("choucas.ws.breaker.failureRate", "0.5"));
+	protected static double slowRateThreshold = Double.parseDouble(System.getProperty("choucas.ws.breaker.slowRate", "0.8"));
+	protected static long openMillis = Long.getLong("choucas.ws.breaker.open", 30000);
+	protected static int probes = Integer.getInteger("choucas.ws.breaker.probes", 3);
+
+	private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private final String name;
+	private final long bucketMillis = Math.max(1, windowMillis / buckets);
+	private final long[] bucketStarts = new long[buckets];
+	private final int[] calls = new int[buckets];
+	private final int[] failures = new int[buckets];
+	private final int[] slowCalls = new int[buckets];
+
+	private State state = State.CLOSED;
+	private long openedAt;
+	private int probesStarted;
+	private int probesSucceeded;
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong opened = new AtomicLong();
+
+	/**
+	 * Admission of one call through the host and endpoint breakers, to be completed once
+	 */
+	public static class Permit {
+		private final CircuitBreaker host;
+		private final CircuitBreaker endpoint;
+		private final boolean hostProbe;
+		private final boolean endpointProbe;
+		private final long slowCallNanos;
+		private final long start = System.nanoTime();
+
+		protected Permit(CircuitBreaker host, boolean hostProbe, CircuitBreaker endpoint, boolean endpointProbe, long slowCallMillis) {
+			this.host = host;
+			this.hostProbe = hostProbe;
+			this.endpoint = endpoint;
+			this.endpointProbe = endpointProbe;
+			this.slowCallNanos = slowCallMillis > 0 ? slowCallMillis * 1000000 : Long.MAX_VALUE;
+		}
+
+		public void success() {
+			boolean slow = System.nanoTime() - start >= slowCallNanos;
+			host.record(true, slow, hostProbe);
+			endpoint.record(true, slow, endpointProbe);
+		}
+
+		public void failure() {
+			host.record(false, false, hostProbe);
+			endpoint.record(false, false, endpointProbe);
+		}
+
+		/**
+		 * The call was cancelled, its outcome is unknown
+		 */
+		public void release() {
+			host.releaseProbe(hostProbe);
+			endpoint.releaseProbe(endpointProbe);
+		}
+	}
+
+	protected CircuitBreaker(String name) {
+		this.name = name;
+	}
+
+	public static CircuitBreaker get(String name) {
+		CircuitBreaker breaker = breakers.get(name);
+		if (breaker == null) {
+			breakers.putIfAbsent(name, new CircuitBreaker(name));
+			breaker = breakers.get(name);
+		}
+		return breaker;
+	}
+
+	/**
+	 * Admits a call to an endpoint, or throws at once when the host or the endpoint breaker is open.
+	 * Returns null when breakers are disabled.
+	 */
+	public static Permit acquire(String host, String path, long slowCallMillis) throws UpstreamUnavailableException {
+		if (!enabled) {
+			return null;
+		}
+		CircuitBreaker hostBreaker = get(host);
+		CircuitBreaker endpointBreaker = get(host + path);
+		boolean hostProbe = hostBreaker.admit();
+		boolean endpointProbe;
+		try {
+			endpointProbe = endpointBreaker.admit();
+		} catch (UpstreamUnavailableException e) {
+			hostBreaker.releaseProbe(hostProbe);
+			throw e;
+		}
+		return new Permit(hostBreaker, hostProbe, endpointBreaker, endpointProbe, slowCallMillis);
+	}
+
+	/**
+	 * Returns true when the admitted call is a half-open probe
+	 */
+	protected synchronized boolean admit() throws UpstreamUnavailableException {
+		if (state == State.OPEN) {
+			long elapsed = System.currentTimeMillis() - openedAt;
+			if (elapsed < openMillis) {
+				rejected.incrementAndGet();
+				throw new UpstreamUnavailableException(name, openMillis - elapsed);
+			}
+			state = State.HALF_OPEN;
+			probesStarted = 0;
+			probesSucceeded = 0;
+			System.out.println("CircuitBreaker : " + name + " half-open");
+		}
+		if (state == State.HALF_OPEN) {
+			if (probesStarted >= probes) {
+				rejected.incrementAndGet();
+				throw new UpstreamUnavailableException(name, 0);
+			}
+			probesStarted++;
+			return true;
+		}
+		return false;
+	}
+
+	protected synchronized void record(boolean success, boolean slow, boolean probe) {
+		if (probe) {
+			if (state != State.HALF_OPEN) {
+				return;
+			}
+			if (!success) {
+				open();
+			}
+			else if (++probesSucceeded >= probes) {
+				state = State.CLOSED;
+				clear();
+				System.out.println("CircuitBreaker : " + name + " closed");
+			}
+			return;
+		}
+		int bucket = bucket(System.currentTimeMillis());
+		calls[bucket]++;
+		if (!success) {
+			failures[bucket]++;
+		}
+		if (slow) {
+			slowCalls[bucket]++;
+		}
+		if (state == State.CLOSED) {
+			int total = sum(calls);
+			if (total >= minCalls && (sum(failures) >= failureRateThreshold * total || sum(slowCalls) >= slowRateThreshold * total)) {
+				open();
+			}
+		}
+	}
+
+	protected synchronized void releaseProbe(boolean probe) {
+		if (probe && state == State.HALF_OPEN && probesStarted > 0) {
+			probesStarted--;
+		}
+	}
+
+	protected void open() {
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+		opened.incrementAndGet();
+		System.out.println("CircuitBreaker : " + name + " open for " + openMillis + " ms");
+	}
+
+	/**
+	 * Index of the bucket of the current time, emptied if it holds counts of an older period
+	 */
+	protected int bucket(long now) {
+		long start = now - now % bucketMillis;
+		int index = (int) ((now / bucketMillis) % buckets);
+		if (bucketStarts[index] != start) {
+			bucketStarts[index] = start;
+			calls[index] = 0;
+			failures[index] = 0;
+			slowCalls[index] = 0;
+		}
+		return index;
+	}
+
+	protected int sum(int[] counts) {
+		long oldest = System.currentTimeMillis() - windowMillis;
+		int sum = 0;
+		for (int i = 0; i < buckets; i++) {
+			if (bucketStarts[i] > oldest) {
+				sum += counts[i];
+			}
+		}
+		return sum;
+	}
+
+	protected void clear() {
+		for (int i = 0; i < buckets; i++) {
+			bucketStarts[i] = 0;
+			calls[i] = 0;
+			failures[i] = 0;
+			slowCalls[i] = 0;
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		json.put("state", state.name());
+		int total = sum(calls);
+		json.put("calls", total);
+		json.put("failureRate", total == 0 ? 0 : (double) sum(failures) / total);
+		json.put("slowRate", total == 0 ? 0 : (double) sum(slowCalls) / total);
+		json.put("rejected", rejected.get());
+		json.put("opened", opened.get());
+		return json;
+	}
+
+	public static JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		for (Map.Entry<String, CircuitBreaker> entry : breakers.entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().toJson());
+		}
+		return stats;
+	}
+
+	/**
+	 * Closes every breaker, e.g. once an upstream is known to be back
+	 */
+	public static void reset() {
+		for (CircuitBreaker breaker : breakers.values()) {
+			synchronized (breaker) {
+				breaker.state = State.CLOSED;
+				breaker.clear();
+			}
+		}
+	}
+
+}
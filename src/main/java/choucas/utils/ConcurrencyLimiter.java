@@ -0,0 +1,380 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import choucas.monitoring.LatencyHistogram;
+
+/**
+ * This class bounds the calls in flight to an upstream host, the bound adapting to the
+ * latency measured on the calls (gradient algorithm) : while latency stays near the latency
+ * without load, the limit grows by about its square root, when latency rises the limit shrinks
+ * in proportion, down to half, and it shrinks by a tenth on every call timing out or failing to connect.
+ * One host serves endpoints of very different latencies (json_gps in less than a second, geoparsing
+ * up to minutes) : each latency is compared to the latency without load of its own endpoint, the
+ * limit of the host follows the ratio.
+ * Calls beyond the limit wait locally, at most maxWait ms (batchMaxWait for batch calls) and at most
+ * maxQueue of them : past that they are shed with an UpstreamOverloadedException.
+ * Queueing then happens here, bounded, instead of on the upstream server.
+ * Waiting calls are served by weighted fair queuing between the Priority classes, in arrival
+ * order within a class : with both classes waiting, interactive calls get 8 slots for 1 batch call.
+ * A call waiting longer than maxAge ms is served first (no starvation), and batch calls never hold
+ * more than batchShare of the limit, the rest is kept for interactive calls.
+ */
+
+public class ConcurrencyLimiter {
+
+	protected static boolean enabled = !Boolean.getBoolean("choucas.ws.limiter.disabled");
+	protected static int initialLimit = Integer.getInteger("choucas.ws.limiter.initial", 16);
+	protected static int minLimit = Integer.getInteger("choucas.ws.limiter.min", 2);
+	protected static int maxLimit = Integer.getInteger("choucas.ws.limiter.max", 64); // WsClients maxRequestsPerHost
+	protected static long maxWait = Long.getLong("choucas.ws.limiter.maxWait", 10000); // ms
+	protected static long batchMaxWait = Long.getLong("choucas.ws.limiter.batchMaxWait", 60000); // ms
+	protected static int maxQueue = Integer.getInteger("choucas.ws.limiter.maxQueue", 256);
+	protected static long maxAge = Long.getLong("choucas.ws.limiter.maxAge", 5000); // ms
+	protected static double batchShare = Double.parseDouble(System.getProperty("choucas.ws.limiter.batchShare", "0.75"));
+	protected static double tolerance = 1.5; // latency ratio tolerated before shrinking
+	protected static double smoothing = 0.2;
+	protected static double backoffRatio = 0.9; // decrease on a dropped call
+
+	private static final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+	private final String host;
+	private double limit = initialLimit;
+	private int inFlight = 0;
+	private final int[] inFlightByClass = new int[Priority.values().length];
+	private double shortRatio = 0; // recent calls latency, divided by the latency without load of their endpoint
+	// ns by endpoint, latency without load : the minimum, drifting slowly to the recent latency
+	private final Map<String, Double> baseRtts = new ConcurrentHashMap<String, Double>();
+	private final Map<Priority, ArrayDeque<Waiter>> waiters = new EnumMap<Priority, ArrayDeque<Waiter>>(Priority.class);
+	private int waiting = 0;
+	private double virtualTime = 0; // finish tag of the last served call
+	private final double[] lastTags = new double[Priority.values().length];
+	private final Map<Priority, LatencyHistogram> waits = new EnumMap<Priority, LatencyHistogram>(Priority.class);
+	private final AtomicLong shed = new AtomicLong();
+	private final AtomicLong queued = new AtomicLong();
+
+	/**
+	 * A waiting call, its finish tag orders it with the waiting calls of the other classes
+	 */
+	protected static class Waiter {
+		final CompletableFuture<Slot> future = new CompletableFuture<Slot>();
+		final Priority priority;
+		final String endpoint;
+		final double tag;
+		final long since = System.nanoTime();
+
+		Waiter(Priority priority, String endpoint, double tag) {
+			this.priority = priority;
+			this.endpoint = endpoint;
+			this.tag = tag;
+		}
+	}
+
+	/**
+	 * A call in flight, to be completed once
+	 */
+	public class Slot {
+		private final Priority priority;
+		private final String endpoint;
+		private final long start = System.nanoTime();
+		private boolean done = false;
+
+		protected Slot(Priority priority, String endpoint) {
+			this.priority = priority;
+			this.endpoint = endpoint;
+		}
+
+		/**
+		 * The upstream answered, or failed because of its own error
+		 */
+		public void success() {
+			complete(System.nanoTime() - start, false);
+		}
+
+		/**
+		 * The call timed out or the connection failed : a sign of overload
+		 */
+		public void dropped() {
+			complete(System.nanoTime() - start, true);
+		}
+
+		/**
+		 * The call was cancelled, no latency sample
+		 */
+		public void release() {
+			complete(-1, false);
+		}
+
+		protected void complete(long rtt, boolean dropped) {
+			synchronized (ConcurrencyLimiter.this) {
+				if (done) {
+					return;
+				}
+				done = true;
+			}
+			ConcurrencyLimiter.this.release(priority, endpoint, rtt, dropped);
+		}
+	}
+
+	protected ConcurrencyLimiter(String host) {
+		this.host = host;
+		for (Priority priority : Priority.values()) {
+			waiters.put(priority, new ArrayDeque<Waiter>());
+			waits.put(priority, new LatencyHistogram());
+		}
+	}
+
+	public static ConcurrencyLimiter forHost(String host) {
+		ConcurrencyLimiter limiter = limiters.get(host);
+		if (limiter == null) {
+			limiters.putIfAbsent(host, new ConcurrencyLimiter(host));
+			limiter = limiters.get(host);
+		}
+		return limiter;
+	}
+
+	/**
+	 * Waits for a slot, with the priority of the current thread. Returns null when limiters are disabled.
+	 */
+	public Slot acquire() throws UpstreamOverloadedException, InterruptedIOException {
+		return acquire("");
+	}
+
+	/**
+	 * Waits for a slot for a call to the endpoint (url path), its latency is compared to the endpoint's
+	 */
+	public Slot acquire(String endpoint) throws UpstreamOverloadedException, InterruptedIOException {
+		if (!enabled) {
+			return null;
+		}
+		CompletableFuture<Slot> slot = acquireAsync(Priority.current(), endpoint);
+		try {
+			return slot.get();
+		} catch (InterruptedException e) {
+			slot.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + host);
+		} catch (ExecutionException e) {
+			throw (UpstreamOverloadedException) e.getCause();
+		}
+	}
+
+	/**
+	 * The future slot : completed at once when under the limit, when a call ends otherwise.
+	 * Fails with an UpstreamOverloadedException when the load is shed.
+	 * Cancelling the future leaves the queue.
+	 */
+	public CompletableFuture<Slot> acquireAsync(Priority priority) {
+		return acquireAsync(priority, "");
+	}
+
+	public CompletableFuture<Slot> acquireAsync(Priority priority, String endpoint) {
+		if (!enabled) {
+			return CompletableFuture.completedFuture(null);
+		}
+		final Waiter waiter;
+		synchronized (this) {
+			if (waiting == 0 && admits(priority)) {
+				start(priority);
+				waits.get(priority).record(0);
+				return CompletableFuture.completedFuture(new Slot(priority, endpoint));
+			}
+			if (waiting >= maxQueue) {
+				shed.incrementAndGet();
+				CompletableFuture<Slot> rejected = new CompletableFuture<Slot>();
+				rejected.completeExceptionally(new UpstreamOverloadedException(host, waiting + " calls already waiting"));
+				return rejected;
+			}
+			double tag = Math.max(virtualTime, lastTags[priority.ordinal()]) + 1.0 / priority.getWeight();
+			lastTags[priority.ordinal()] = tag;
+			waiter = new Waiter(priority, endpoint, tag);
+			waiters.get(priority).add(waiter);
+			waiting++;
+			queued.incrementAndGet();
+		}
+		final long wait = priority == Priority.BATCH ? batchMaxWait : maxWait;
+		final ScheduledFuture<?> timer = WsClients.getScheduler().schedule(() -> {
+			if (waiter.future.completeExceptionally(new UpstreamOverloadedException(host, "no call slot within " + wait + " ms"))) {
+				shed.incrementAndGet();
+			}
+		}, wait, TimeUnit.MILLISECONDS);
+		waiter.future.whenComplete((s, t) -> {
+			timer.cancel(false);
+			if (t != null) {
+				synchronized (this) {
+					if (waiters.get(waiter.priority).remove(waiter)) {
+						waiting--;
+					}
+				}
+				// a waiting batch call may have blocked the queue head
+				grant();
+			}
+		});
+		// served at once if its class may start a call, while the other class waits
+		grant();
+		return waiter.future;
+	}
+
+	/**
+	 * A call of the class may start now : under the limit, and under the batch share for batch calls
+	 */
+	protected boolean admits(Priority priority) {
+		if (inFlight >= (int) limit) {
+			return false;
+		}
+		return priority != Priority.BATCH || inFlightByClass[priority.ordinal()] < Math.max(1, (int) (limit * batchShare));
+	}
+
+	protected void start(Priority priority) {
+		inFlight++;
+		inFlightByClass[priority.ordinal()]++;
+	}
+
+	protected void release(Priority priority, String endpoint, long rtt, boolean dropped) {
+		synchronized (this) {
+			if (rtt >= 0) {
+				adapt(endpoint, rtt, dropped);
+			}
+			inFlight--;
+			inFlightByClass[priority.ordinal()]--;
+		}
+		grant();
+	}
+
+	/**
+	 * Gives free slots to the waiting calls
+	 */
+	protected void grant() {
+		while (true) {
+			Waiter waiter;
+			Slot slot;
+			synchronized (this) {
+				waiter = next();
+				if (waiter == null) {
+					return;
+				}
+				waiters.get(waiter.priority).poll();
+				waiting--;
+				virtualTime = Math.max(virtualTime, waiter.tag);
+				start(waiter.priority);
+				slot = new Slot(waiter.priority, waiter.endpoint);
+			}
+			// completed out of the lock : the waiter may start its call at once
+			if (waiter.future.complete(slot)) {
+				waits.get(waiter.priority).record((System.nanoTime() - waiter.since) / 1000);
+			}
+			else {
+				// timed out or cancelled meanwhile
+				synchronized (this) {
+					inFlight--;
+					inFlightByClass[waiter.priority.ordinal()]--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The waiting call to serve : the oldest one past maxAge, else the smallest finish tag
+	 * among the heads of the classes which may start a call
+	 */
+	protected Waiter next() {
+		long agedSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(maxAge);
+		Waiter next = null;
+		boolean aged = false;
+		for (ArrayDeque<Waiter> queue : waiters.values()) {
+			Waiter head = queue.peek();
+			if (head == null || !admits(head.priority)) {
+				continue;
+			}
+			boolean headAged = head.since - agedSince < 0;
+			if (next == null
+					|| (headAged && (!aged || head.since - next.since < 0))
+					|| (!headAged && !aged && head.tag < next.tag)) {
+				next = head;
+				aged = headAged;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Gradient update of the limit from the latency of a call, relative to the latency of its endpoint
+	 */
+	protected void adapt(String endpoint, long rtt, boolean dropped) {
+		if (dropped) {
+			// the latency of a timed out call is the timeout, not a sample
+			limit = Math.max(minLimit, limit * backoffRatio);
+			return;
+		}
+		Double previous = baseRtts.get(endpoint);
+		// the drift follows a durable change of the upstream (other clients, new hardware)
+		double baseRtt = previous == null || rtt < previous ? Math.max(rtt, 1) : previous + (rtt - previous) * 0.001;
+		baseRtts.put(endpoint, baseRtt);
+		double ratio = rtt / baseRtt;
+		shortRatio = shortRatio == 0 ? ratio : shortRatio * (1 - smoothing) + ratio * smoothing;
+		if (inFlight < limit / 2) {
+			// too few calls to tell anything about the upstream capacity
+			return;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, tolerance / shortRatio));
+		double newLimit = limit * gradient + Math.sqrt(limit);
+		limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + newLimit * smoothing));
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		json.put("limit", (int) limit);
+		json.put("inFlight", inFlight);
+		json.put("waiting", waiting);
+		for (Priority priority : Priority.values()) {
+			JSONObject byClass = new JSONObject();
+			byClass.put("inFlight", inFlightByClass[priority.ordinal()]);
+			byClass.put("waiting", waiters.get(priority).size());
+			byClass.put("wait", waits.get(priority).toJson());
+			json.put(priority.toString(), byClass);
+		}
+		json.put("queued", queued.get());
+		json.put("shed", shed.get());
+		json.put("shortRatio", shortRatio);
+		JSONObject baseRtt = new JSONObject();
+		for (Map.Entry<String, Double> entry : baseRtts.entrySet()) {
+			baseRtt.put(entry.getKey(), entry.getValue() / 1000000);
+		}
+		json.put("baseRtt", baseRtt);
+		return json;
+	}
+
+	public static JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		for (Map.Entry<String, ConcurrencyLimiter> entry : limiters.entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().toJson());
+		}
+		return stats;
+	}
+
+}
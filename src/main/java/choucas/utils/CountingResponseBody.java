@@ -0,0 +1,65 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * This class wraps a response body to count the bytes actually read : the Content-Length
+ * header is -1 for chunked responses, the streamed ones.
+ */
+
+public class CountingResponseBody extends ResponseBody {
+
+	private final ResponseBody body;
+	private final BufferedSource source;
+	private long bytesRead = 0;
+
+	public CountingResponseBody(ResponseBody body) {
+		this.body = body;
+		this.source = Okio.buffer(new ForwardingSource(body.source()) {
+			@Override
+			public long read(Buffer sink, long byteCount) throws IOException {
+				long read = super.read(sink, byteCount);
+				if (read > 0) {
+					bytesRead += read;
+				}
+				return read;
+			}
+		});
+	}
+
+	@Override
+	public MediaType contentType() {
+		return body.contentType();
+	}
+
+	@Override
+	public long contentLength() {
+		return body.contentLength();
+	}
+
+	@Override
+	public BufferedSource source() {
+		return source;
+	}
+
+	/**
+	 * Bytes read from the network so far
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+}
@@ -0,0 +1,292 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import choucas.monitoring.LatencyHistogram;
+import choucas.monitoring.WsMetrics;
+
+/**
+ * This class holds the call policy of a service endpoint, registered by URL path prefix
+ * (/PERDIDO/api/geocoding/, /api/use_model/) : the longest matching prefix applies.
+ * A policy gives connect and read timeouts, the timeout of one attempt and the overall
+ * timeout of the call, retries included, the retries with their jittered exponential backoff,
+ * and hedging : a second request is sent when the first one runs longer than the p95
+ * latency observed on the endpoint.
+ * Timeouts are in ms, 0 keeps the host client setting (WsClients) or means no limit.
+ * A policy may be set by a system property choucas.ws.policy.[path], for instance
+ * -Dchoucas.ws.policy./PERDIDO/api/geocoding/=read=60000,timeout=120000,retries=2,hedge=true
+ */
+
+public class EndpointPolicy {
+
+	public static final String PROPERTY_PREFIX = "choucas.ws.policy.";
+
+	private static final Map<String, EndpointPolicy> policies = new ConcurrentHashMap<String, EndpointPolicy>();
+	private static final EndpointPolicy DEFAULT = new EndpointPolicy();
+
+	private long connectTimeout = 0;
+	private long readTimeout = 0;
+	private long attemptTimeout = 0;
+	private long timeout = 0;
+	private int maxRetries = 0;
+	private long backoff = 200;
+	private long maxBackoff = 5000;
+	private boolean idempotent = true; // the choucas and PERDIDO services have no side effect
+	private boolean hedged = false;
+	private long minHedgeDelay = 50;
+	private long minHedgeSamples = 20; // calls observed before the p95 is trusted
+	private long slowCall = 0; // a longer call counts as slow in the CircuitBreaker, 0 for none
+
+	private final Map<OkHttpClient, OkHttpClient> clients = new ConcurrentHashMap<OkHttpClient, OkHttpClient>();
+
+	static {
+		// PERDIDO geoparsing and geocoding : long processing, never hedged
+		register("/PERDIDO/api/geoparsing/", new EndpointPolicy().readTimeout(120000).attemptTimeout(180000).timeout(300000).maxRetries(1).slowCall(120000));
+		register("/PERDIDO/api/geocoding/", new EndpointPolicy().readTimeout(120000).attemptTimeout(180000).timeout(300000).maxRetries(1).slowCall(120000));
+		// other PERDIDO services (POS, NER, toponyms) answer within seconds
+		register("/PERDIDO/api/", new EndpointPolicy().readTimeout(60000).attemptTimeout(90000).timeout(180000).maxRetries(2).hedged(true).slowCall(30000));
+		// use_model may take up to a minute on long texts
+		register("/api/use_model/", new EndpointPolicy().readTimeout(60000).attemptTimeout(90000).timeout(180000).maxRetries(1).slowCall(60000));
+		register("/api/", new EndpointPolicy().readTimeout(30000).attemptTimeout(60000).timeout(120000).maxRetries(2).hedged(true).slowCall(20000));
+		configure(System.getProperties());
+	}
+
+	/**
+	 * Sets the policy of the endpoints whose path starts with pathPrefix
+	 */
+	public static void register(String pathPrefix, EndpointPolicy policy) {
+		policies.put(pathPrefix, policy);
+	}
+
+	public static EndpointPolicy forUrl(HttpUrl url) {
+		return forPath(url.encodedPath());
+	}
+
+	public static EndpointPolicy forPath(String path) {
+		EndpointPolicy policy = DEFAULT;
+		int length = -1;
+		for (Map.Entry<String, EndpointPolicy> entry : policies.entrySet()) {
+			if (path.startsWith(entry.getKey()) && entry.getKey().length() > length) {
+				policy = entry.getValue();
+				length = entry.getKey().length();
+			}
+		}
+		return policy;
+	}
+
+	/**
+	 * Reads the policies set by properties, a policy starting from the one
+	 * already applying to its path
+	 */
+	public static void configure(Properties properties) {
+		for (String name : properties.stringPropertyNames()) {
+			if (name.startsWith(PROPERTY_PREFIX)) {
+				String path = name.substring(PROPERTY_PREFIX.length());
+				register(path, forPath(path).copy().parse(properties.getProperty(name)));
+			}
+		}
+	}
+
+	/**
+	 * Settings of a policy : name=value pairs separated by commas
+	 */
+	public EndpointPolicy parse(String settings) {
+		for (String setting : settings.split(",")) {
+			String[] pair = setting.split("=", 2);
+			if (pair.length != 2) {
+				continue;
+			}
+			String name = pair[0].trim();
+			String value = pair[1].trim();
+			try {
+				switch (name) {
+				case "connect": connectTimeout = Long.parseLong(value); break;
+				case "read": readTimeout = Long.parseLong(value); break;
+				case "attempt": attemptTimeout = Long.parseLong(value); break;
+				case "timeout": timeout = Long.parseLong(value); break;
+				case "retries": maxRetries = Integer.parseInt(value); break;
+				case "backoff": backoff = Long.parseLong(value); break;
+				case "maxBackoff": maxBackoff = Long.parseLong(value); break;
+				case "idempotent": idempotent = Boolean.parseBoolean(value); break;
+				case "hedge": hedged = Boolean.parseBoolean(value); break;
+				case "hedgeDelay": minHedgeDelay = Long.parseLong(value); break;
+				case "slowCall": slowCall = Long.parseLong(value); break;
+				default: System.out.println("EndpointPolicy : unknown setting " + name);
+				}
+			} catch (NumberFormatException e) {
+				System.out.println("EndpointPolicy : invalid setting " + setting);
+			}
+		}
+		return this;
+	}
+
+	public EndpointPolicy copy() {
+		return new EndpointPolicy().parse(toString());
+	}
+
+	public EndpointPolicy connectTimeout(long millis) {
+		this.connectTimeout = millis;
+		return this;
+	}
+
+	public EndpointPolicy readTimeout(long millis) {
+		this.readTimeout = millis;
+		return this;
+	}
+
+	/**
+	 * Timeout of one attempt : connection, request and response
+	 */
+	public EndpointPolicy attemptTimeout(long millis) {
+		this.attemptTimeout = millis;
+		return this;
+	}
+
+	/**
+	 * Timeout of the call, every attempt and backoff included
+	 */
+	public EndpointPolicy timeout(long millis) {
+		this.timeout = millis;
+		return this;
+	}
+
+	public EndpointPolicy maxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	public EndpointPolicy backoff(long millis, long maxMillis) {
+		this.backoff = millis;
+		this.maxBackoff = maxMillis;
+		return this;
+	}
+
+	public EndpointPolicy idempotent(boolean idempotent) {
+		this.idempotent = idempotent;
+		return this;
+	}
+
+	public EndpointPolicy hedged(boolean hedged) {
+		this.hedged = hedged;
+		return this;
+	}
+
+	/**
+	 * Duration of a slow call for the CircuitBreaker
+	 */
+	public EndpointPolicy slowCall(long millis) {
+		this.slowCall = millis;
+		return this;
+	}
+
+	public long getSlowCall() {
+		return slowCall;
+	}
+
+	public long getAttemptTimeout() {
+		return attemptTimeout;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public boolean isHedged() {
+		return hedged;
+	}
+
+	/**
+	 * Only idempotent requests are retried or hedged, GET requests always are
+	 */
+	public boolean canRepeat(Request request) {
+		return idempotent || "GET".equals(request.method());
+	}
+
+	/**
+	 * Delay before retry number attempt + 1, in ms : "full jitter", uniform
+	 * between 0 and the exponential backoff, so that clients failing together do not retry together
+	 */
+	public long backoffDelay(int attempt) {
+		long ceiling = Math.min(maxBackoff, backoff << Math.min(attempt, 20));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * Delay before hedging a call to the endpoint, in ms : the observed p95 latency,
+	 * -1 when not hedged or not enough calls were observed
+	 */
+	public long hedgeDelay(String host, String path) {
+		if (!hedged) {
+			return -1;
+		}
+		LatencyHistogram latency = WsMetrics.endpoint(host, path).getLatency();
+		if (latency.getCount() < minHedgeSamples) {
+			return -1;
+		}
+		return Math.max(minHedgeDelay, latency.getValueAtPercentile(95) / 1000);
+	}
+
+	/**
+	 * The host client with the timeouts of the policy. It shares the host connection pool.
+	 */
+	public OkHttpClient client(OkHttpClient hostClient) {
+		if (connectTimeout == 0 && readTimeout == 0 && attemptTimeout == 0) {
+			return hostClient;
+		}
+		OkHttpClient client = clients.get(hostClient);
+		if (client == null) {
+			OkHttpClient.Builder builder = hostClient.newBuilder();
+			if (connectTimeout > 0) {
+				builder.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+			}
+			if (readTimeout > 0) {
+				builder.readTimeout(readTimeout, TimeUnit.MILLISECONDS);
+			}
+			if (attemptTimeout > 0) {
+				builder.callTimeout(attemptTimeout, TimeUnit.MILLISECONDS);
+			}
+			clients.putIfAbsent(hostClient, builder.build());
+			client = clients.get(hostClient);
+		}
+		return client;
+	}
+
+	/**
+	 * The registered policies, by path prefix
+	 */
+	public static JSONObject getPolicies() {
+		JSONObject json = new JSONObject();
+		for (Map.Entry<String, EndpointPolicy> entry : policies.entrySet()) {
+			json.put(entry.getKey(), entry.getValue().toString());
+		}
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		return "connect=" + connectTimeout + ",read=" + readTimeout + ",attempt=" + attemptTimeout + ",timeout=" + timeout
+				+ ",retries=" + maxRetries + ",backoff=" + backoff + ",maxBackoff=" + maxBackoff
+				+ ",idempotent=" + idempotent + ",hedge=" + hedged + ",hedgeDelay=" + minHedgeDelay + ",slowCall=" + slowCall;
+	}
+
+}
@@ -0,0 +1,233 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * This class queries the PERDIDO geocoding service once per gazetteer of a multiple
+ * gazetier parameter (bdnyme_ign+geonames+osm), all requests at once, instead of letting
+ * the service query the gazetteers one after another.
+ * Every request has the same deadline : a gazetteer answering too late is left out,
+ * the collection is built from the gazetteers which answered (partial result).
+ * Features are merged in gazetteers order, a feature with the name of an already kept
+ * feature and located within mergeDistance meters of it is a duplicate : only its
+ * gazetteer is added to the gazetteers property of the kept feature.
+ * The fanout member of the collection gives the status of each gazetteer (ok, timeout, error).
+ */
+
+public class GazetteerFanOut {
+
+	public static final String SEPARATOR = "+";
+
+	public static final String OK = "ok";
+	public static final String TIMEOUT = "timeout";
+	public static final String ERROR = "error";
+
+	protected static long deadline = Long.getLong("choucas.geocoding.fanout.deadline", 30000); // ms
+	protected static double mergeDistance = Double.parseDouble(System.getProperty("choucas.geocoding.fanout.mergeDistance", "500")); // m
+
+	private static final double EARTH_RADIUS = 6371008.8; // m
+
+	public static boolean isMultiple(String gazetier) {
+		return gazetteers(gazetier).size() > 1;
+	}
+
+	public static List<String> gazetteers(String gazetier) {
+		List<String> gazetteers = new ArrayList<String>();
+		if (gazetier != null) {
+			for (String gazetteer : gazetier.split("\\+")) {
+				if (!gazetteer.trim().isEmpty() && !gazetteers.contains(gazetteer.trim())) {
+					gazetteers.add(gazetteer.trim());
+				}
+			}
+		}
+		return gazetteers;
+	}
+
+	public static JSONObject geocode(String api_url, Map<String, String> params) throws IOException {
+		return geocode(api_url, params, deadline);
+	}
+
+	/**
+	 * Geocoding with the gazetier parameter of params split by gazetteer.
+	 * Every gazetteer response is cached on its own.
+	 */
+	public static JSONObject geocode(String api_url, Map<String, String> params, long deadlineMillis) throws IOException {
+		List<String> gazetteers = gazetteers(params.get("gazetier"));
+		Map<String, CompletableFuture<String>> calls = new LinkedHashMap<String, CompletableFuture<String>>();
+		for (String gazetteer : gazetteers) {
+			Map<String, String> gazetteerParams = new LinkedHashMap<String, String>(params);
+			gazetteerParams.put("gazetier", gazetteer);
+			calls.put(gazetteer, WsUtils.callServicePostCachedAsync(api_url, gazetteerParams));
+		}
+
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+		Map<String, JSONObject> collections = new LinkedHashMap<String, JSONObject>();
+		JSONObject status = new JSONObject();
+		Exception failure = null;
+		for (Map.Entry<String, CompletableFuture<String>> call : calls.entrySet()) {
+			try {
+				String response = call.getValue().get(Math.max(0, end - System.nanoTime()), TimeUnit.NANOSECONDS);
+				collections.put(call.getKey(), new JSONObject(response));
+				status.put(call.getKey(), OK);
+			} catch (TimeoutException e) {
+				call.getValue().cancel(true);
+				status.put(call.getKey(), TIMEOUT);
+				System.out.println("Adapter : gazetteer " + call.getKey() + " missed the " + deadlineMillis + " ms deadline");
+			} catch (ExecutionException | RuntimeException e) {
+				failure = e;
+				status.put(call.getKey(), ERROR);
+				System.out.println("Adapter : gazetteer " + call.getKey() + " failed, " + (e.getCause() != null ? e.getCause() : e));
+			} catch (InterruptedException e) {
+				for (CompletableFuture<String> pending : calls.values()) {
+					pending.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new IOException("Geocoding interrupted", e);
+			}
+		}
+		if (collections.isEmpty()) {
+			throw new IOException("No gazetteer answered before the deadline : " + status, failure);
+		}
+
+		JSONObject merged = merge(collections);
+		merged.put("fanout", status);
+		return merged;
+	}
+
+	/**
+	 * Merges the FeatureCollections of the gazetteers, in gazetteers order
+	 */
+	public static JSONObject merge(Map<String, JSONObject> collections) {
+		JSONObject merged = null;
+		JSONArray features = new JSONArray();
+		// normalized name -> kept features with this name
+		Map<String, List<JSONObject>> kept = new HashMap<String, List<JSONObject>>();
+
+		for (Map.Entry<String, JSONObject> collection : collections.entrySet()) {
+			if (merged == null) {
+				merged = new JSONObject(collection.getValue().toString());
+			}
+			JSONArray gazetteerFeatures = collection.getValue().optJSONArray("features");
+			for (int i = 0; gazetteerFeatures != null && i < gazetteerFeatures.length(); i++) {
+				Object feature = gazetteerFeatures.get(i);
+				String name = ToponymCache.featureName(feature);
+				if (name == null) {
+					features.put(feature);
+					continue;
+				}
+				JSONObject object = (JSONObject) feature;
+				JSONObject duplicate = duplicate(object, kept.get(name));
+				if (duplicate != null) {
+					duplicate.getJSONObject("properties").getJSONArray("gazetteers").put(collection.getKey());
+					continue;
+				}
+				object.getJSONObject("properties").put("gazetteers", new JSONArray().put(collection.getKey()));
+				if (!kept.containsKey(name)) {
+					kept.put(name, new ArrayList<JSONObject>());
+				}
+				kept.get(name).add(object);
+				features.put(object);
+			}
+		}
+		if (merged == null) {
+			merged = new JSONObject();
+			merged.put("type", "FeatureCollection");
+		}
+		merged.put("features", features);
+		return merged;
+	}
+
+	/**
+	 * The kept feature within mergeDistance of the feature, null if none.
+	 * Features without geometry are duplicates of any feature with the same name.
+	 */
+	protected static JSONObject duplicate(JSONObject feature, List<JSONObject> candidates) {
+		if (candidates == null) {
+			return null;
+		}
+		double[] position = position(feature.optJSONObject("geometry"));
+		for (JSONObject candidate : candidates) {
+			double[] candidatePosition = position(candidate.optJSONObject("geometry"));
+			if (position == null || candidatePosition == null) {
+				if (position == candidatePosition) {
+					return candidate;
+				}
+			}
+			else if (distance(position[1], position[0], candidatePosition[1], candidatePosition[0]) <= mergeDistance) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Mean of the positions (lon, lat) of a geometry, null for an empty or missing geometry
+	 */
+	protected static double[] position(JSONObject geometry) {
+		if (geometry == null) {
+			return null;
+		}
+		double[] sum = new double[3]; // lon, lat, count
+		JSONArray geometries = geometry.optJSONArray("geometries");
+		if (geometries != null) {
+			for (int i = 0; i < geometries.length(); i++) {
+				double[] position = position(geometries.optJSONObject(i));
+				if (position != null) {
+					sum[0] += position[0];
+					sum[1] += position[1];
+					sum[2] += 1;
+				}
+			}
+		}
+		else {
+			addPositions(geometry.opt("coordinates"), sum);
+		}
+		return sum[2] == 0 ? null : new double[] {sum[0] / sum[2], sum[1] / sum[2]};
+	}
+
+	protected static void addPositions(Object coordinates, double[] sum) {
+		if (!(coordinates instanceof JSONArray)) {
+			return;
+		}
+		JSONArray array = (JSONArray) coordinates;
+		if (array.length() >= 2 && array.opt(0) instanceof Number) {
+			sum[0] += array.getDouble(0);
+			sum[1] += array.getDouble(1);
+			sum[2] += 1;
+			return;
+		}
+		for (int i = 0; i < array.length(); i++) {
+			addPositions(array.opt(i), sum);
+		}
+	}
+
+	/**
+	 * Haversine distance in meters
+	 */
+	public static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+}
@@ -34,6 +34,14 @@ public class IoUtils {
 		writer.close();	
 	}
 	
+	/**
+	 * Publishes content in the temp directory served by the HTTP server and returns its url.
+	 * The file is named by its content hash and written in background (ArtifactStore).
+	 */
+	public static String publishFile(String prefix, String extension, String content) {
+		return ArtifactStore.publish(prefix, extension, content);
+	}
+	
 	public static String readFile(String filePath) throws IOException {
 	
     	String response="";
@@ -0,0 +1,205 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+/**
+ * This class encodes the JSON requests of the PERDIDO services : {"request":{"name":"value",...}}.
+ * Parameters are written in UTF-8 straight into the HTTP body, string values escaped on the fly
+ * (quotes, backslashes, control characters), the texts are never copied.
+ * The body length is computed without encoding, so the body is sent with a Content-Length.
+ */
+
+public class JsonRequest {
+
+	protected static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json;charset=UTF-8");
+
+	private static final String ENVELOPE_START = "{\"request\":{";
+	private static final String ENVELOPE_END = "}}";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final List<String> names = new ArrayList<String>();
+	private final List<String> values = new ArrayList<String>();
+	private final List<Boolean> raws = new ArrayList<Boolean>();
+
+	/**
+	 * Adds a string parameter. A null value is sent as the string "null", as the services always received it.
+	 */
+	public JsonRequest put(String name, String value) {
+		names.add(name);
+		values.add(String.valueOf(value));
+		raws.add(Boolean.FALSE);
+		return this;
+	}
+
+	/**
+	 * Adds a parameter whose value is already JSON (array, object), written as is
+	 */
+	public JsonRequest putRaw(String name, String json) {
+		names.add(name);
+		values.add(json);
+		raws.add(Boolean.TRUE);
+		return this;
+	}
+
+	public static JsonRequest of(Map<String, String> params) {
+		JsonRequest request = new JsonRequest();
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			request.put(param.getKey(), param.getValue());
+		}
+		return request;
+	}
+
+	/**
+	 * The parameters by name, raw values as written
+	 */
+	public Map<String, String> getParams() {
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		for (int i = 0; i < names.size(); i++) {
+			params.put(names.get(i), values.get(i));
+		}
+		return params;
+	}
+
+	public void writeTo(BufferedSink sink) throws IOException {
+		sink.writeUtf8(ENVELOPE_START);
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				sink.writeByte(',');
+			}
+			writeString(sink, names.get(i));
+			sink.writeByte(':');
+			if (raws.get(i)) {
+				sink.writeUtf8(values.get(i));
+			}
+			else {
+				writeString(sink, values.get(i));
+			}
+		}
+		sink.writeUtf8(ENVELOPE_END);
+	}
+
+	/**
+	 * Encoded length in bytes
+	 */
+	public long contentLength() {
+		long length = ENVELOPE_START.length() + ENVELOPE_END.length() + Math.max(0, names.size() - 1);
+		for (int i = 0; i < names.size(); i++) {
+			length += stringLength(names.get(i)) + 1;
+			length += raws.get(i) ? UploadPart.utf8Length(values.get(i)) : stringLength(values.get(i));
+		}
+		return length;
+	}
+
+	public RequestBody toRequestBody() {
+		final long length = contentLength();
+		return new RequestBody() {
+			@Override
+			public MediaType contentType() {
+				return JSON_MEDIA_TYPE;
+			}
+
+			@Override
+			public long contentLength() {
+				return length;
+			}
+
+			@Override
+			public void writeTo(BufferedSink sink) throws IOException {
+				JsonRequest.this.writeTo(sink);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		Buffer buffer = new Buffer();
+		try {
+			writeTo(buffer);
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // never thrown by a Buffer
+		}
+		return buffer.readUtf8();
+	}
+
+	/**
+	 * Writes a JSON string, quoted and escaped. Runs of characters needing no escape are written at once.
+	 */
+	public static void writeString(BufferedSink sink, String value) throws IOException {
+		sink.writeByte('"');
+		int length = value.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				continue;
+			}
+			if (i > start) {
+				sink.writeUtf8(value, start, i);
+			}
+			switch (c) {
+			case '"':
+				sink.writeByte('\\').writeByte('"');
+				break;
+			case '\\':
+				sink.writeByte('\\').writeByte('\\');
+				break;
+			case '\n':
+				sink.writeByte('\\').writeByte('n');
+				break;
+			case '\r':
+				sink.writeByte('\\').writeByte('r');
+				break;
+			case '\t':
+				sink.writeByte('\\').writeByte('t');
+				break;
+			case '\b':
+				sink.writeByte('\\').writeByte('b');
+				break;
+			case '\f':
+				sink.writeByte('\\').writeByte('f');
+				break;
+			default:
+				sink.writeByte('\\').writeByte('u').writeByte('0').writeByte('0')
+						.writeByte(HEX[c >> 4]).writeByte(HEX[c & 0xF]);
+			}
+			start = i + 1;
+		}
+		if (length > start) {
+			sink.writeUtf8(value, start, length);
+		}
+		sink.writeByte('"');
+	}
+
+	/**
+	 * Length in bytes of the string written by writeString
+	 */
+	public static long stringLength(String value) {
+		long length = 2 + UploadPart.utf8Length(value);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f') {
+				length += 1;
+			}
+			else if (c < 0x20) {
+				length += 5;
+			}
+		}
+		return length;
+	}
+
+}
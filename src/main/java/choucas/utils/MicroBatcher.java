@@ -0,0 +1,404 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import choucas.monitoring.WsMetrics;
+
+/**
+ * This class joins small texts sent at the same time to a PERDIDO text service (POS, geoparsing)
+ * into one request : the texts of the requests started within choucas.batching.window ms,
+ * with the same other parameters, are sent as one content, separated by a sentinel word
+ * alone in its paragraph. The response is split back at the sentinel, each caller getting
+ * its part, offsets shifted to its own text and numbered ids (w12, s3) renumbered from the
+ * first ids of the joined document, as if the text had been sent alone.
+ * A response that cannot be split (sentinel missing, merged with the texts, JSON output)
+ * makes every caller send its own request. A failed joined call (timeout, upstream error,
+ * overload, open breaker) fails every caller with its error : sending the texts again would
+ * multiply the load on a failing upstream.
+ * Optional, enabled by the system property choucas.batching.enabled.
+ */
+
+public class MicroBatcher {
+
+	public static final String SENTINEL = "choucasmicrobatchseparator";
+	protected static final String DELIMITER = "\n\n" + SENTINEL + "\n\n";
+	protected static final String CONTENT = "content";
+
+	protected static boolean enabled = Boolean.getBoolean("choucas.batching.enabled");
+	protected static long window = Long.getLong("choucas.batching.window", 10); // ms
+	protected static int smallChars = Integer.getInteger("choucas.batching.smallChars", 500); // longer texts are sent alone
+	protected static int maxChars = Integer.getInteger("choucas.batching.maxChars", 8000);
+	protected static int maxTexts = Integer.getInteger("choucas.batching.maxTexts", 32);
+
+	// text output (POS unitex), TEI output (geoparsing)
+	public static final MicroBatcher TEXT = new MicroBatcher(MicroBatcher::splitText);
+	public static final MicroBatcher TEI = new MicroBatcher(MicroBatcher::splitTei);
+
+	private static final AtomicLong batches = new AtomicLong();
+	private static final AtomicLong batchedTexts = new AtomicLong();
+	private static final AtomicLong fallbacks = new AtomicLong();
+	private static final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Splits the response to joined texts, starting at the given offsets of the content,
+	 * null when the response cannot be split
+	 */
+	public interface Splitter {
+		List<String> split(String response, int[] offsets) throws Exception;
+	}
+
+	private final Splitter splitter;
+	private final Map<String, Batch> open = new HashMap<String, Batch>();
+
+	public MicroBatcher(Splitter splitter) {
+		this.splitter = splitter;
+	}
+
+	/**
+	 * Texts waiting to be sent together
+	 */
+	protected class Batch {
+		final String api_url;
+		final Map<String, String> params;
+		final Priority priority;
+		final String[] labels;
+		final List<String> texts = new ArrayList<String>();
+		final List<CompletableFuture<String>> callers = new ArrayList<CompletableFuture<String>>();
+		int chars = 0;
+
+		Batch(String api_url, Map<String, String> params) {
+			this.api_url = api_url;
+			this.params = params;
+			this.priority = Priority.current();
+			this.labels = WsMetrics.labels();
+		}
+	}
+
+	/**
+	 * Blocking call of a text service, the text being the content parameter
+	 */
+	public String call(String api_url, Map<String, String> params) throws IOException {
+		String content = params.get(CONTENT);
+		if (!enabled || content == null || content.length() > smallChars || content.contains(SENTINEL)) {
+			return WsUtils.callServicePost(api_url, JsonRequest.of(params));
+		}
+		return WsCalls.await(join(api_url, params, content));
+	}
+
+	/**
+	 * Blocking call through WsCache : only the texts missing from the cache are batched
+	 */
+	public String callCached(final String api_url, final Map<String, String> params) throws IOException {
+		return WsCache.cached(api_url, params, () -> call(api_url, params));
+	}
+
+	protected CompletableFuture<String> join(String api_url, Map<String, String> params, String content) {
+		CompletableFuture<String> caller = new CompletableFuture<String>();
+		String key = key(api_url, params);
+		Batch full = null;
+		synchronized (open) {
+			Batch batch = open.get(key);
+			if (batch == null) {
+				batch = new Batch(api_url, params);
+				open.put(key, batch);
+				final Batch scheduled = batch;
+				WsClients.getScheduler().schedule(() -> flush(key, scheduled), window, TimeUnit.MILLISECONDS);
+			}
+			batch.texts.add(content);
+			batch.callers.add(caller);
+			batch.chars += content.length() + DELIMITER.length();
+			if (batch.texts.size() >= maxTexts || batch.chars >= maxChars) {
+				open.remove(key);
+				full = batch;
+			}
+		}
+		if (full != null) {
+			send(full);
+		}
+		return caller;
+	}
+
+	protected void flush(String key, Batch batch) {
+		synchronized (open) {
+			// already sent when full
+			if (!open.remove(key, batch)) {
+				return;
+			}
+		}
+		send(batch);
+	}
+
+	protected void send(final Batch batch) {
+		if (batch.texts.size() == 1) {
+			individual(batch, 0);
+			return;
+		}
+		batches.incrementAndGet();
+		batchedTexts.addAndGet(batch.texts.size());
+		final int[] offsets = new int[batch.texts.size()];
+		StringBuilder content = new StringBuilder(batch.chars);
+		for (int i = 0; i < batch.texts.size(); i++) {
+			if (i > 0) {
+				content.append(DELIMITER);
+			}
+			offsets[i] = content.length();
+			content.append(batch.texts.get(i));
+		}
+		Map<String, String> params = new LinkedHashMap<String, String>(batch.params);
+		params.put(CONTENT, content.toString());
+
+		enqueue(batch, params).whenComplete((response, t) -> {
+			if (t != null) {
+				failures.incrementAndGet();
+				Throwable cause = WsCalls.unwrap(t);
+				for (CompletableFuture<String> caller : batch.callers) {
+					caller.completeExceptionally(cause);
+				}
+				return;
+			}
+			List<String> parts = null;
+			try {
+				parts = splitter.split(response, offsets);
+			} catch (Exception e) {
+				System.out.println("MicroBatcher : cannot split the response of " + batch.api_url + ", " + e.getMessage());
+			}
+			if (parts == null || parts.size() != offsets.length) {
+				// every text sent alone
+				fallbacks.incrementAndGet();
+				for (int i = 0; i < offsets.length; i++) {
+					individual(batch, i);
+				}
+				return;
+			}
+			for (int i = 0; i < offsets.length; i++) {
+				batch.callers.get(i).complete(parts.get(i));
+			}
+		});
+	}
+
+	protected void individual(Batch batch, int index) {
+		Map<String, String> params = new LinkedHashMap<String, String>(batch.params);
+		params.put(CONTENT, batch.texts.get(index));
+		final CompletableFuture<String> caller = batch.callers.get(index);
+		enqueue(batch, params).whenComplete((response, t) -> {
+			if (t == null) {
+				caller.complete(response);
+			}
+			else {
+				caller.completeExceptionally(WsCalls.unwrap(t));
+			}
+		});
+	}
+
+	/**
+	 * Sends the request with the priority and metrics labels of the first caller
+	 */
+	protected CompletableFuture<String> enqueue(Batch batch, Map<String, String> params) {
+		try (Priority.Scope priorityScope = Priority.scope(batch.priority);
+				WsMetrics.Scope scope = batch.labels == null ? null : WsMetrics.scope(batch.labels[0], batch.labels[1])) {
+			return WsUtils.enqueue(WsUtils.postRequest(batch.api_url, JsonRequest.of(params))).thenApply(WsUtils::joinLines);
+		}
+	}
+
+	/**
+	 * Texts are batched with the texts sent to the same url, with the same other parameters and priority
+	 */
+	protected static String key(String api_url, Map<String, String> params) {
+		Map<String, String> others = new HashMap<String, String>(params);
+		others.remove(CONTENT);
+		others.put("priority", Priority.current().toString());
+		return WsCache.key(api_url, others, new String[0]);
+	}
+
+	/**
+	 * Text response : cut at each sentinel word, the word and the spaces around it removed
+	 */
+	public static List<String> splitText(String response, int[] offsets) {
+		if (response.startsWith("{") || response.startsWith("[")) {
+			return null; // cutting would break the JSON structure
+		}
+		List<String> parts = new ArrayList<String>();
+		int start = 0;
+		for (int index = response.indexOf(SENTINEL); index >= 0; index = response.indexOf(SENTINEL, index + SENTINEL.length())) {
+			// the sentinel token, with its annotations
+			int tokenStart = index;
+			while (tokenStart > start && !Character.isWhitespace(response.charAt(tokenStart - 1))) {
+				tokenStart--;
+			}
+			int tokenEnd = index + SENTINEL.length();
+			while (tokenEnd < response.length() && !Character.isWhitespace(response.charAt(tokenEnd))) {
+				tokenEnd++;
+			}
+			if (tokenEnd - tokenStart > SENTINEL.length() + 64) {
+				return null; // glued to the texts
+			}
+			parts.add(trimEnd(response.substring(start, tokenStart)));
+			start = tokenEnd;
+			while (start < response.length() && Character.isWhitespace(response.charAt(start))) {
+				start++;
+			}
+		}
+		parts.add(response.substring(start));
+		return parts;
+	}
+
+	protected static String trimEnd(String text) {
+		int end = text.length();
+		while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+			end--;
+		}
+		return text.substring(0, end);
+	}
+
+	/**
+	 * TEI response : the elements holding only a sentinel (its sentence, its paragraph) must
+	 * be siblings. Each part is the document with the siblings between two of them,
+	 * the offset attributes shifted to its text, the numbered ids renumbered.
+	 * An offset before the start of its text means the parts do not match the texts : the split fails.
+	 */
+	public static List<String> splitTei(String response, int[] offsets) throws Exception {
+		Document document = TeiDom.parse(TeiDom.documentBuilder(), response);
+
+		List<Element> separators = new ArrayList<Element>();
+		collectSeparators(document.getDocumentElement(), separators);
+		if (separators.size() != offsets.length - 1) {
+			return null;
+		}
+		Node container = separators.get(0).getParentNode();
+		for (Element separator : separators) {
+			if (separator.getParentNode() != container) {
+				return null;
+			}
+		}
+
+		Map<String, Integer> firstIds = new HashMap<String, Integer>();
+		for (Node child = container.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element) {
+				TeiDom.collectIds((Element) child, firstIds, Math::min);
+			}
+		}
+
+		List<String> parts = new ArrayList<String>();
+		for (int part = 0; part < offsets.length; part++) {
+			Document copy = (Document) document.cloneNode(true);
+			Node copyContainer = find(copy.getDocumentElement(), container, document.getDocumentElement());
+			List<Element> kept = new ArrayList<Element>();
+			int boundary = 0;
+			Node child = copyContainer.getFirstChild();
+			while (child != null) {
+				Node next = child.getNextSibling();
+				boolean separator = child instanceof Element && isSeparator((Element) child);
+				if (separator || boundary != part) {
+					copyContainer.removeChild(child);
+				}
+				else if (child instanceof Element) {
+					TeiDom.shiftOffsets((Element) child, -offsets[part]);
+					kept.add((Element) child);
+				}
+				if (separator) {
+					boundary++;
+				}
+				child = next;
+			}
+			// numbered ids start again at the first number of the joined document
+			Map<String, Integer> partIds = new HashMap<String, Integer>();
+			for (Element element : kept) {
+				TeiDom.collectIds(element, partIds, Math::min);
+			}
+			Map<String, Integer> shifts = new HashMap<String, Integer>();
+			for (Map.Entry<String, Integer> id : partIds.entrySet()) {
+				shifts.put(id.getKey(), firstIds.get(id.getKey()) - id.getValue());
+			}
+			Map<String, String> renamed = new HashMap<String, String>();
+			for (Element element : kept) {
+				TeiDom.renumber(element, shifts, null, renamed);
+			}
+			if (!renamed.isEmpty()) {
+				TeiDom.references(copy.getDocumentElement(), renamed);
+			}
+			parts.add(TeiDom.serialize(copy));
+		}
+		return parts;
+	}
+
+	/**
+	 * The highest elements holding only the sentinel and punctuation
+	 */
+	protected static void collectSeparators(Element element, List<Element> separators) {
+		String text = element.getTextContent();
+		if (text.contains(SENTINEL)) {
+			if (isSeparator(element)) {
+				separators.add(element);
+				return;
+			}
+			for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+				if (child instanceof Element) {
+					collectSeparators((Element) child, separators);
+				}
+			}
+		}
+	}
+
+	protected static boolean isSeparator(Element element) {
+		String text = element.getTextContent();
+		int index = text.indexOf(SENTINEL);
+		if (index < 0 || text.indexOf(SENTINEL, index + 1) >= 0) {
+			return false;
+		}
+		String rest = text.substring(0, index) + text.substring(index + SENTINEL.length());
+		return rest.replaceAll("[\\s\\p{Punct}]", "").isEmpty();
+	}
+
+	/**
+	 * The node of the copy at the place of the node in the original document
+	 */
+	protected static Node find(Node copyRoot, Node node, Node root) {
+		List<Integer> path = new ArrayList<Integer>();
+		for (Node current = node; current != root; current = current.getParentNode()) {
+			int index = 0;
+			for (Node sibling = current.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+				index++;
+			}
+			path.add(0, index);
+		}
+		Node current = copyRoot;
+		for (int index : path) {
+			current = current.getChildNodes().item(index);
+		}
+		return current;
+	}
+
+	/**
+	 * Joined requests, texts sent in them, joined requests whose texts were sent again alone,
+	 * and failed joined requests
+	 */
+	public static JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("enabled", enabled);
+		stats.put("batches", batches.get());
+		stats.put("batchedTexts", batchedTexts.get());
+		stats.put("fallbacks", fallbacks.get());
+		stats.put("failures", failures.get());
+		return stats;
+	}
+
+}
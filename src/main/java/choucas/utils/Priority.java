@@ -0,0 +1,93 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.util.Locale;
+
+/**
+ * Priority classes of the WPS requests : live localisation requests are interactive,
+ * re-processing of archived reports is batch.
+ * The priority of the running request is held by the thread, set by the pipeline stages,
+ * and read by the schedulers of the upstream calls (ConcurrencyLimiter) and of the stage tasks (WsClients).
+ * Weights give the share of upstream slots of each class when both are waiting.
+ */
+
+public enum Priority {
+
+	INTERACTIVE(8),
+	BATCH(1);
+
+	public static final String[] VALUES = {"interactive", "batch"};
+
+	private static final ThreadLocal<Priority> current = new ThreadLocal<Priority>();
+
+	private final int weight;
+
+	Priority(int weight) {
+		this.weight = weight;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Priority of the WPS input value, interactive when missing or unknown
+	 */
+	public static Priority parse(String value) {
+		if (value == null || value.isEmpty()) {
+			return INTERACTIVE;
+		}
+		try {
+			return valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			System.out.println("Unknown priority " + value + ", interactive used");
+			return INTERACTIVE;
+		}
+	}
+
+	/**
+	 * Priority of the request run by the current thread, interactive by default
+	 */
+	public static Priority current() {
+		Priority priority = current.get();
+		return priority == null ? INTERACTIVE : priority;
+	}
+
+	/**
+	 * Sets the priority of the current thread until the scope is closed
+	 */
+	public static Scope scope(Priority priority) {
+		Priority previous = current.get();
+		current.set(priority);
+		return new Scope(previous);
+	}
+
+	public static class Scope implements AutoCloseable {
+		private final Priority previous;
+
+		protected Scope(Priority previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public void close() {
+			if (previous == null) {
+				current.remove();
+			}
+			else {
+				current.set(previous);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+
+}
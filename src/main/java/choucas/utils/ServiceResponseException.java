@@ -0,0 +1,39 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+
+import okhttp3.Response;
+
+/**
+ * Thrown when a service answers with an HTTP error status
+ */
+
+public class ServiceResponseException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int code;
+
+	public ServiceResponseException(Response response) {
+		super("Unexpected code " + response);
+		this.code = response.code();
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * Server errors, request timeout and throttling may succeed when repeated
+	 */
+	public boolean isTransient() {
+		return code >= 500 || code == 408 || code == 429;
+	}
+
+}
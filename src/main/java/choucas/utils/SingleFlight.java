@@ -0,0 +1,224 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+
+/**
+ * This class coalesces identical upstream calls in flight : a call whose endpoint and parameters
+ * are those of a running call sends no request and receives the response, or the failure, of the
+ * running one. It covers the burst of identical geoparsing and geocoding requests sent when several
+ * operators open the same report, before the first response reaches WsCache.
+ * Requests are coalesced when they carry a Key tag (WsUtils.postRequest) : the endpoint url
+ * and a SHA-256 hash of the parameters sorted by name, the api_key included since a failure is shared too.
+ * The shared call is cancelled only when every caller has cancelled.
+ * Disabled by the system property choucas.ws.singleFlight.disabled.
+ */
+
+public class SingleFlight {
+
+	protected static boolean enabled = !Boolean.getBoolean("choucas.ws.singleFlight.disabled");
+
+	private static final Map<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+	private static final Map<String, AtomicLong[]> counts = new ConcurrentHashMap<String, AtomicLong[]>();
+
+	/**
+	 * Request tag identifying the calls that may be coalesced
+	 */
+	public static final class Key {
+		private final String value;
+		private final String endpoint;
+
+		public Key(String api_url, Map<String, String> params) {
+			this.value = WsCache.key(api_url, params, new String[0]);
+			int query = api_url.indexOf('?');
+			this.endpoint = query < 0 ? api_url : api_url.substring(0, query);
+		}
+
+		public String getEndpoint() {
+			return endpoint;
+		}
+
+		@Override
+		public String toString() {
+			return value;
+		}
+	}
+
+	public static Key key(String api_url, Map<String, String> params) {
+		return new Key(api_url, params);
+	}
+
+	public static Key key(String api_url, String request) {
+		return new Key(api_url, Collections.singletonMap("request", request));
+	}
+
+	/**
+	 * A call in flight and the number of callers waiting for it
+	 */
+	protected static class Flight {
+		final CompletableFuture<String> shared = new CompletableFuture<String>();
+		private int callers = 1; // the leader
+
+		/**
+		 * A future of the shared response for one more caller, null when every caller has left
+		 */
+		protected synchronized CompletableFuture<String> join() {
+			if (callers == 0) {
+				return null;
+			}
+			callers++;
+			return view();
+		}
+
+		protected CompletableFuture<String> view() {
+			final CompletableFuture<String> view = new CompletableFuture<String>();
+			shared.whenComplete((response, t) -> {
+				if (t == null) {
+					view.complete(response);
+				}
+				else {
+					view.completeExceptionally(WsCalls.unwrap(t));
+				}
+			});
+			view.whenComplete((response, t) -> {
+				if (view.isCancelled()) {
+					leave();
+				}
+			});
+			return view;
+		}
+
+		protected synchronized void leave() {
+			if (--callers == 0) {
+				shared.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Blocking call : runs the loader, or waits for the identical call in flight
+	 */
+	public static String execute(Key key, WsCache.Loader loader) throws IOException {
+		if (!enabled) {
+			return loader.load();
+		}
+		Flight flight = new Flight();
+		CompletableFuture<String> joined = join(key, flight);
+		if (joined != null) {
+			return WsCalls.await(joined);
+		}
+		try {
+			String response = loader.load();
+			flight.shared.complete(response);
+			return response;
+		} catch (IOException | RuntimeException e) {
+			flight.shared.completeExceptionally(e);
+			throw e;
+		} finally {
+			flights.remove(key.value, flight);
+		}
+	}
+
+	/**
+	 * Asynchronous call : starts the loader call, or joins the identical call in flight
+	 */
+	public static CompletableFuture<String> enqueue(final Key key, Supplier<CompletableFuture<String>> loader) {
+		if (!enabled) {
+			return loader.get();
+		}
+		final Flight flight = new Flight();
+		CompletableFuture<String> joined = join(key, flight);
+		if (joined != null) {
+			return joined;
+		}
+		CompletableFuture<String> leader = flight.view();
+		final CompletableFuture<String> call;
+		try {
+			call = loader.get();
+		} catch (RuntimeException e) {
+			flight.shared.completeExceptionally(e);
+			flights.remove(key.value, flight);
+			return leader;
+		}
+		flight.shared.whenComplete((response, t) -> {
+			// done, or left by every caller
+			flights.remove(key.value, flight);
+			call.cancel(true);
+		});
+		call.whenComplete((response, t) -> {
+			if (t == null) {
+				flight.shared.complete(response);
+			}
+			else {
+				flight.shared.completeExceptionally(WsCalls.unwrap(t));
+			}
+		});
+		return leader;
+	}
+
+	/**
+	 * Joins the flight of the key, null when flight is registered and its caller leads the call
+	 */
+	protected static CompletableFuture<String> join(Key key, Flight flight) {
+		AtomicLong[] endpoint = counts(key.endpoint);
+		while (true) {
+			Flight running = flights.putIfAbsent(key.value, flight);
+			if (running == null) {
+				endpoint[0].incrementAndGet();
+				return null;
+			}
+			CompletableFuture<String> joined = running.join();
+			if (joined != null) {
+				endpoint[1].incrementAndGet();
+				return joined;
+			}
+			// left by every caller, being removed
+			flights.remove(key.value, running);
+		}
+	}
+
+	protected static AtomicLong[] counts(String endpoint) {
+		AtomicLong[] endpointCounts = counts.get(endpoint);
+		if (endpointCounts == null) {
+			counts.putIfAbsent(endpoint, new AtomicLong[] {new AtomicLong(), new AtomicLong()});
+			endpointCounts = counts.get(endpoint);
+		}
+		return endpointCounts;
+	}
+
+	/**
+	 * Calls sent and calls coalesced, by endpoint, and calls in flight
+	 */
+	public static JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("enabled", enabled);
+		stats.put("inFlight", flights.size());
+		JSONObject endpoints = new JSONObject();
+		for (Map.Entry<String, AtomicLong[]> entry : counts.entrySet()) {
+			JSONObject endpoint = new JSONObject();
+			endpoint.put("calls", entry.getValue()[0].get());
+			endpoint.put("coalesced", entry.getValue()[1].get());
+			endpoints.put(entry.getKey(), endpoint);
+		}
+		stats.put("endpoints", endpoints);
+		return stats;
+	}
+
+	public static void reset() {
+		counts.clear();
+	}
+
+}
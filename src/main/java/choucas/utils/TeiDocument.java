@@ -0,0 +1,80 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.Serializable;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+
+/**
+ * This class holds a XML/TEI tagged text as returned by the PERDIDO services.
+ * The text is checked and its named entities read in one StAX pass (TeiReader) ;
+ * the XmlBeans tree is only built when asked for, the WPS output (TeiDataGenerator)
+ * streams the text as is. Only the text is serialized, the named entities are read again
+ * when asked for.
+ */
+
+public class TeiDocument implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String text;
+	private transient List<TeiReader.Span> spans;
+	private transient XmlObject xmlObject;
+
+	protected TeiDocument(String text, List<TeiReader.Span> spans) {
+		this.text = text;
+		this.spans = spans;
+	}
+
+	/**
+	 * Reads the tagged text, fails if it is not well-formed XML
+	 */
+	public static TeiDocument of(String text) throws XMLStreamException {
+		return new TeiDocument(text, TeiReader.read(text));
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public synchronized List<TeiReader.Span> getSpans() {
+		if (spans == null) {
+			try {
+				spans = TeiReader.read(text);
+			} catch (XMLStreamException e) {
+				// the text was read when the document was made
+				throw new IllegalStateException("TEI document no longer readable", e);
+			}
+		}
+		return spans;
+	}
+
+	public List<String> getToponyms() {
+		return TeiReader.toponyms(getSpans());
+	}
+
+	/**
+	 * The XmlBeans tree of the text, parsed on first call
+	 */
+	public synchronized XmlObject getXmlObject() throws XmlException {
+		if (xmlObject == null) {
+			xmlObject = XmlObject.Factory.parse(text);
+		}
+		return xmlObject;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * This class provides the DOM operations on the XML/TEI outputs of the PERDIDO services
+ * cut or joined by the WPS (ShardMergers, MicroBatcher) : hardened parsing, serialization,
+ * numbered ids (w12, s3) and the references to them (#w12), character offsets.
+ */
+
+public class TeiDom {
+
+	// numeric attributes holding a character offset in the text
+	protected static final String[] OFFSET_ATTRIBUTES = {"start", "end", "offset"};
+
+	private static final Pattern NUMBERED_ID = Pattern.compile("(\\D*)(\\d+)");
+
+	/**
+	 * Parser of the service outputs : no DTD, no external entities (XXE)
+	 */
+	public static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		factory.setXIncludeAware(false);
+		factory.setExpandEntityReferences(false);
+		return factory.newDocumentBuilder();
+	}
+
+	public static Document parse(DocumentBuilder builder, String text) throws SAXException, IOException {
+		return builder.parse(new InputSource(new StringReader(text)));
+	}
+
+	public static String serialize(Document document) throws TransformerException {
+		TransformerFactory transformerFactory = TransformerFactory.newInstance();
+		transformerFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		Transformer transformer = transformerFactory.newTransformer();
+		transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+		StringWriter writer = new StringWriter();
+		transformer.transform(new DOMSource(document), new StreamResult(writer));
+		return writer.toString();
+	}
+
+	/**
+	 * Numbers of the numbered ids, by prefix, combined by the given function (Math::max for the last ones)
+	 */
+	public static void collectIds(Element element, Map<String, Integer> ids, BinaryOperator<Integer> combine) {
+		Attr attribute = idAttribute(element);
+		if (attribute != null) {
+			Matcher matcher = NUMBERED_ID.matcher(attribute.getValue());
+			if (matcher.matches()) {
+				ids.merge(matcher.group(1), Integer.valueOf(matcher.group(2)), combine);
+			}
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element) {
+				collectIds((Element) child, ids, combine);
+			}
+		}
+	}
+
+	/**
+	 * Adds the shift of their prefix to the numbered ids, appends the suffix (if not null) to
+	 * the other ones. The changed ids are recorded in renamed.
+	 */
+	public static void renumber(Element element, Map<String, Integer> shifts, String suffix, Map<String, String> renamed) {
+		Attr attribute = idAttribute(element);
+		if (attribute != null) {
+			String id = attribute.getValue();
+			Matcher matcher = NUMBERED_ID.matcher(id);
+			String newId = id;
+			if (matcher.matches()) {
+				Integer shift = shifts.get(matcher.group(1));
+				newId = matcher.group(1) + (Integer.parseInt(matcher.group(2)) + (shift == null ? 0 : shift));
+			}
+			else if (suffix != null) {
+				newId = id + suffix;
+			}
+			if (!newId.equals(id)) {
+				renamed.put(id, newId);
+				attribute.setValue(newId);
+			}
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element) {
+				renumber((Element) child, shifts, suffix, renamed);
+			}
+		}
+	}
+
+	/**
+	 * Updates the references (#id) to renamed ids
+	 */
+	public static void references(Element element, Map<String, String> renamed) {
+		NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attribute = (Attr) attributes.item(i);
+			String value = attribute.getValue();
+			if (value.indexOf('#') < 0) {
+				continue;
+			}
+			StringBuilder references = new StringBuilder();
+			for (String token : value.split("\\s+")) {
+				if (references.length() > 0) {
+					references.append(' ');
+				}
+				if (token.startsWith("#") && renamed.containsKey(token.substring(1))) {
+					references.append('#').append(renamed.get(token.substring(1)));
+				}
+				else {
+					references.append(token);
+				}
+			}
+			attribute.setValue(references.toString());
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element) {
+				references((Element) child, renamed);
+			}
+		}
+	}
+
+	/**
+	 * Adds delta to the offset attributes. An offset shifted below 0 is not in the text :
+	 * the text was cut at the wrong place, IllegalArgumentException.
+	 */
+	public static void shiftOffsets(Element element, long delta) {
+		NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attribute = (Attr) attributes.item(i);
+			String name = attribute.getLocalName() == null ? attribute.getName() : attribute.getLocalName();
+			if (isOffset(name) && attribute.getValue().matches("\\d+")) {
+				long offset = Long.parseLong(attribute.getValue()) + delta;
+				if (offset < 0) {
+					throw new IllegalArgumentException("offset " + attribute.getValue() + " out of the text, shifted by " + delta);
+				}
+				attribute.setValue(String.valueOf(offset));
+			}
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element) {
+				shiftOffsets((Element) child, delta);
+			}
+		}
+	}
+
+	protected static boolean isOffset(String name) {
+		for (String offsetAttribute : OFFSET_ATTRIBUTES) {
+			if (offsetAttribute.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * xml:id, or id attribute
+	 */
+	public static Attr idAttribute(Element element) {
+		Attr attribute = element.getAttributeNodeNS(XMLConstants.XML_NS_URI, "id");
+		return attribute != null ? attribute : element.getAttributeNode("id");
+	}
+
+}
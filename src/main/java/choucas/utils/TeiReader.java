@@ -0,0 +1,206 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * This class reads the XML/TEI output of the PERDIDO services (NER, geoparsing) with StAX,
+ * in one pass and without building a tree : it returns the named entity spans
+ * (rs, name, placeName, geogName elements) with their type, text and offsets.
+ * The offset attributes of the TEI (start, end) are kept when present, the position
+ * of each span in the text content of the document is always computed.
+ */
+
+public class TeiReader {
+
+	protected static final Set<String> SPAN_ELEMENTS = new LinkedHashSet<String>(Arrays.asList("rs", "name", "placeName", "geogName"));
+
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	static {
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
+	/**
+	 * A named entity of the text
+	 */
+	public static class Span {
+		private final String element;
+		private final String type;
+		private final String id;
+		private final long start;
+		private final long end;
+		private final int position;
+		private final int depth;
+		private final StringBuilder text = new StringBuilder();
+
+		protected Span(String element, String type, String id, long start, long end, int position, int depth) {
+			this.element = element;
+			this.type = type;
+			this.id = id;
+			this.start = start;
+			this.end = end;
+			this.position = position;
+			this.depth = depth;
+		}
+
+		public String getElement() {
+			return element;
+		}
+
+		/**
+		 * The type attribute (place, person, ...), null if none
+		 */
+		public String getType() {
+			return type;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * Offset attributes of the TEI, -1 if none
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * Position of the span in the text content of the document, in chars
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * Number of enclosing spans, 0 for a top-level span
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * The text of the span, spaces normalized
+		 */
+		public String getText() {
+			return text.toString().trim().replaceAll("\\s+", " ");
+		}
+
+		public boolean isPlace() {
+			return "place".equals(type) || "placeName".equals(element) || "geogName".equals(element);
+		}
+
+		@Override
+		public String toString() {
+			return element + (type == null ? "" : "[" + type + "]") + " " + getText() + " @" + position;
+		}
+	}
+
+	public static List<Span> read(String tei) throws XMLStreamException {
+		return read(new StringReader(tei));
+	}
+
+	public static List<Span> read(Reader tei) throws XMLStreamException {
+		List<Span> spans = new ArrayList<Span>();
+		Deque<Span> open = new ArrayDeque<Span>();
+		// elements opened, span or not, to know when a span ends
+		Deque<Span> elements = new ArrayDeque<Span>();
+		int position = 0;
+		XMLStreamReader reader = factory.createXMLStreamReader(tei);
+		try {
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					Span span = null;
+					if (SPAN_ELEMENTS.contains(reader.getLocalName())) {
+						span = new Span(reader.getLocalName(), reader.getAttributeValue(null, "type"),
+								id(reader), offset(reader, "start"), offset(reader, "end"), position, open.size());
+						spans.add(span);
+						open.push(span);
+					}
+					elements.push(span == null ? NO_SPAN : span);
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (elements.pop() != NO_SPAN) {
+						open.pop();
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					int length = reader.getTextLength();
+					for (Span enclosing : open) {
+						enclosing.text.append(reader.getTextCharacters(), reader.getTextStart(), length);
+					}
+					position += length;
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return spans;
+	}
+
+	private static final Span NO_SPAN = new Span("", null, null, -1, -1, -1, -1);
+
+	/**
+	 * Names of the places, once each, in text order. A place inside a place (a name in a rs) is not repeated.
+	 */
+	public static List<String> toponyms(List<Span> spans) {
+		Set<String> toponyms = new LinkedHashSet<String>();
+		int placeDepth = Integer.MAX_VALUE;
+		for (Span span : spans) {
+			if (span.getDepth() <= placeDepth) {
+				placeDepth = Integer.MAX_VALUE;
+			}
+			if (span.isPlace() && placeDepth == Integer.MAX_VALUE) {
+				toponyms.add(span.getText());
+				placeDepth = span.getDepth();
+			}
+		}
+		return new ArrayList<String>(toponyms);
+	}
+
+	protected static String id(XMLStreamReader reader) {
+		String id = reader.getAttributeValue(XMLConstants.XML_NS_URI, "id");
+		return id != null ? id : reader.getAttributeValue(null, "id");
+	}
+
+	protected static long offset(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		if (value == null || !value.matches("\\d+")) {
+			return -1;
+		}
+		return Long.parseLong(value);
+	}
+
+}
@@ -0,0 +1,188 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * This class caches the geo-location of toponyms, in front of the PERDIDO toponyms/json_gps service.
+ * The same toponyms (Grenoble, col de Bellefont...) occur in most documents of a mountain area :
+ * only the toponyms not yet located are sent to the service, the cached features are merged
+ * into its GeoJSON FeatureCollection.
+ * Features are keyed by (normalized name, gazetteer, mode) and stored in WsCache, with its TTL.
+ * A toponym is cached only when the service returned features named after it,
+ * a toponym without location is sent again next time. The features returned under another name
+ * are only returned to the request they were located for, they are never cached.
+ */
+
+public class ToponymCache {
+
+	// json_gps has no gazetteer or mode parameter, its own defaults apply
+	public static final String SERVICE_DEFAULT = "default";
+
+	protected static final String SCOPE = "toponym:/PERDIDO/api/toponyms/json_gps/";
+	// name of the cache entry holding the collection members, not a normalized toponym (never starts with a space)
+	protected static final String MEMBERS = " members";
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * A json_gps call, made for the toponyms not in cache, returns a GeoJSON FeatureCollection
+	 */
+	public interface Locator {
+		String locate(JSONArray toponyms) throws IOException;
+	}
+
+	/**
+	 * Returns the GeoJSON FeatureCollection locating the toponyms : the members of the service
+	 * collection, then the features of each toponym in input order (repeated toponyms repeat theirs),
+	 * then the features the service returned under other names in this call.
+	 */
+	public static String locate(JSONArray toponyms, String gazetteer, String mode, Locator locator) throws IOException {
+		if (!WsCache.enabled) {
+			return locator.locate(toponyms);
+		}
+
+		// normalized name -> cached features, null if not in cache
+		Map<String, JSONArray> located = new LinkedHashMap<String, JSONArray>();
+		List<String> names = new ArrayList<String>();
+		JSONArray missing = new JSONArray();
+		for (int i = 0; i < toponyms.length(); i++) {
+			String name = normalize(toponymName(toponyms.get(i)));
+			names.add(name);
+			if (located.containsKey(name)) {
+				continue;
+			}
+			String cached = WsCache.get(key(name, gazetteer, mode));
+			if (cached != null) {
+				hits.incrementAndGet();
+				located.put(name, new JSONArray(cached));
+			}
+			else {
+				misses.incrementAndGet();
+				located.put(name, null);
+				missing.put(toponyms.get(i));
+			}
+		}
+
+		// members of the collection but its features (type, crs...), as the service returned them last
+		String membersKey = key(MEMBERS, gazetteer, mode);
+		String cachedMembers = WsCache.get(membersKey);
+		if (cachedMembers == null && missing.length() == 0 && toponyms.length() > 0) {
+			located.put(names.get(0), null);
+			missing.put(toponyms.get(0));
+		}
+
+		JSONObject collection;
+		List<Object> others = new ArrayList<Object>();
+		if (missing.length() > 0) {
+			collection = new JSONObject(locator.locate(missing));
+			Map<String, JSONArray> fresh = new HashMap<String, JSONArray>();
+			JSONArray features = collection.optJSONArray("features");
+			for (int i = 0; features != null && i < features.length(); i++) {
+				Object feature = features.get(i);
+				String name = featureName(feature);
+				if (name != null && located.containsKey(name) && located.get(name) == null) {
+					if (!fresh.containsKey(name)) {
+						fresh.put(name, new JSONArray());
+					}
+					fresh.get(name).put(feature);
+				}
+				else {
+					// returned under another name : nothing tells which toponym it locates
+					others.add(feature);
+				}
+			}
+			for (Map.Entry<String, JSONArray> entry : fresh.entrySet()) {
+				WsCache.put(key(entry.getKey(), gazetteer, mode), entry.getValue().toString());
+				located.put(entry.getKey(), entry.getValue());
+			}
+			collection.remove("features");
+			WsCache.put(membersKey, collection.toString());
+		}
+		else {
+			collection = new JSONObject(cachedMembers != null ? cachedMembers : "{\"type\":\"FeatureCollection\"}");
+		}
+
+		JSONArray merged = new JSONArray();
+		for (String name : names) {
+			JSONArray features = located.get(name);
+			for (int i = 0; features != null && i < features.length(); i++) {
+				merged.put(features.get(i));
+			}
+		}
+		for (Object feature : others) {
+			merged.put(feature);
+		}
+		collection.put("features", merged);
+		return collection.toString();
+	}
+
+	public static String key(String normalizedName, String gazetteer, String mode) {
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("name", normalizedName);
+		params.put("gazetteer", gazetteer);
+		params.put("mode", mode);
+		return WsCache.key(SCOPE, params);
+	}
+
+	/**
+	 * Toponyms are compared case and spacing insensitive, accents are kept (Bourg-d'Oisans, Bourg-d’Oisans)
+	 */
+	public static String normalize(String name) {
+		if (name == null) {
+			return "";
+		}
+		String normalized = Normalizer.normalize(name, Normalizer.Form.NFC)
+				.replace('’', '\'')
+				.replaceAll("\\s+", " ")
+				.trim();
+		return normalized.toLowerCase(Locale.FRENCH);
+	}
+
+	/**
+	 * TOP output elements are either names or objects with a name
+	 */
+	protected static String toponymName(Object toponym) {
+		if (toponym instanceof JSONObject) {
+			JSONObject object = (JSONObject) toponym;
+			return object.has("name") ? object.optString("name") : object.optString("toponym", object.toString());
+		}
+		return String.valueOf(toponym);
+	}
+
+	protected static String featureName(Object feature) {
+		if (!(feature instanceof JSONObject)) {
+			return null;
+		}
+		JSONObject properties = ((JSONObject) feature).optJSONObject("properties");
+		if (properties == null || !properties.has("name")) {
+			return null;
+		}
+		return normalize(properties.optString("name"));
+	}
+
+	public static JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		return stats;
+	}
+
+}
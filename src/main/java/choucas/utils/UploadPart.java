@@ -0,0 +1,88 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * This class is a file part of a multipart/form-data upload built from a payload in memory.
+ * The payload is encoded in UTF-8 straight into the request body, without a temp file :
+ * the payload is already in memory, a copy on disk would not save any.
+ */
+
+public class UploadPart {
+
+	private final String fileName;
+	private final RequestBody body;
+
+	protected UploadPart(String fileName, RequestBody body) {
+		this.fileName = fileName;
+		this.body = body;
+	}
+
+	public static UploadPart of(String fileName, final String content, final MediaType mediaType) {
+		final long length = utf8Length(content);
+
+		RequestBody body = new RequestBody() {
+			@Override
+			public MediaType contentType() {
+				return mediaType;
+			}
+
+			@Override
+			public long contentLength() {
+				// an exact length avoids a chunked upload, not supported by every server
+				return length;
+			}
+
+			@Override
+			public void writeTo(BufferedSink sink) throws IOException {
+				sink.writeUtf8(content);
+			}
+		};
+		return new UploadPart(fileName, body);
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public RequestBody getBody() {
+		return body;
+	}
+
+	/**
+	 * Number of bytes of the UTF-8 encoding of a string, without encoding it
+	 */
+	public static long utf8Length(String content) {
+		long length = 0;
+		int size = content.length();
+		for (int i = 0; i < size; i++) {
+			char c = content.charAt(i);
+			if (c < 0x80) {
+				length++;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(content.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else {
+				// lone surrogates are encoded as '?' by okio
+				length += Character.isSurrogate(c) ? 1 : 3;
+			}
+		}
+		return length;
+	}
+
+}
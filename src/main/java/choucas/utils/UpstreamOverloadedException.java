@@ -0,0 +1,22 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+/**
+ * Thrown without calling an upstream service when its ConcurrencyLimiter is full
+ * and the call waited too long, or found too many calls waiting : the load is shed.
+ */
+
+public class UpstreamOverloadedException extends UpstreamUnavailableException {
+
+	private static final long serialVersionUID = 1L;
+
+	public UpstreamOverloadedException(String upstream, String reason) {
+		super("Upstream service " + upstream + " overloaded, " + reason, upstream, 0);
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown without calling an upstream service whose circuit breaker is open :
+ * the service failed too often recently. See also UpstreamOverloadedException.
+ */
+
+public class UpstreamUnavailableException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String upstream;
+	private final long retryAfter;
+
+	public UpstreamUnavailableException(String upstream, long retryAfter) {
+		this("Upstream service " + upstream + " unavailable, retry in " + Math.max(1, (retryAfter + 999) / 1000) + " s", upstream, retryAfter);
+	}
+
+	protected UpstreamUnavailableException(String message, String upstream, long retryAfter) {
+		super(message);
+		this.upstream = upstream;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * The host, or host and path, of the service
+	 */
+	public String getUpstream() {
+		return upstream;
+	}
+
+	/**
+	 * Time before the breaker lets calls through again, in ms
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * The exception in the causes of t, null if none
+	 */
+	public static UpstreamUnavailableException causeOf(Throwable t) {
+		while (t != null) {
+			if (t instanceof UpstreamUnavailableException) {
+				return (UpstreamUnavailableException) t;
+			}
+			t = t.getCause();
+		}
+		return null;
+	}
+
+}
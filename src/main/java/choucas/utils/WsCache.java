@@ -0,0 +1,387 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+
+/**
+ * This class is a process-wide cache of web services responses, used for the costly
+ * PERDIDO calls (geoparsing, geocoding) : the same text is often analysed several times.
+ * Responses are keyed by the service url and a SHA-256 hash of the request parameters,
+ * sorted by name, the api_key excluded, a null parameter being sent as "null".
+ * The memory tier is an LRU map bounded by the total size of the responses.
+ * The disk tier is optional, enabled by the system property choucas.ws.cache.dir. Entries are
+ * written to it behind the request, by the sweeper thread. It is swept
+ * every choucas.ws.cache.sweepSeconds : expired entries are deleted, then the oldest ones while
+ * the tier holds more than choucas.ws.cache.diskMB.
+ * Entries expire after choucas.ws.cache.ttl seconds (one day by default).
+ * Raw responses (cachedBytes) are kept as received, one char per byte, under their own keys.
+ */
+
+public class WsCache {
+
+	/**
+	 * A service call, made on cache miss
+	 */
+	public interface Loader {
+		String load() throws IOException;
+	}
+
+	/**
+	 * A service call returning the response bytes as received
+	 */
+	public interface BytesLoader {
+		byte[] load() throws IOException;
+	}
+
+	// key suffix of the raw responses : the String of a response is not its bytes (lines joined)
+	protected static final String BYTES = " bytes";
+
+	protected static long maxWeight = Long.getLong("choucas.ws.cache.maxChars", 64L * 1024 * 1024); // chars kept in memory
+	protected static long ttl = Long.getLong("choucas.ws.cache.ttl", 86400) * 1000; // entry lifetime, ms
+	protected static String diskDir = System.getProperty("choucas.ws.cache.dir"); // disk tier directory, none if null
+	protected static long diskQuota = Long.getLong("choucas.ws.cache.diskMB", 256) * 1024 * 1024; // disk tier size, bytes
+	protected static long sweepInterval = Long.getLong("choucas.ws.cache.sweepSeconds", 300);
+	protected static boolean enabled = !Boolean.getBoolean("choucas.ws.cache.disabled");
+
+	private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+	private static long weight = 0;
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong diskHits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+	private static final AtomicLong diskEvictions = new AtomicLong();
+	// size of the disk tier at the last sweep, plus the entries written since
+	private static final AtomicLong diskBytes = new AtomicLong();
+
+	/**
+	 * Disk tier thread, made on first use by the holder class : writes the entries and sweeps
+	 */
+	private static class Sweeper {
+		static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, WsClients.threadFactory("choucas-cache-sweeper-"));
+
+		static {
+			executor.scheduleWithFixedDelay(WsCache::sweep, 0, sweepInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	protected static class Entry {
+		final String value;
+		final long expiresAt;
+
+		Entry(String value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+	}
+
+	/**
+	 * Returns the cached response of the call, or makes the call and caches its response.
+	 * Failed calls are not cached.
+	 */
+	public static String cached(String api_url, Map<String, String> params, Loader loader) throws IOException {
+		if (!enabled) {
+			return loader.load();
+		}
+		String key = key(api_url, params);
+		String value = get(key);
+		if (value == null) {
+			value = loader.load();
+			if (value != null) {
+				put(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Non-blocking variant of cached : a cached response completes the future at once
+	 */
+	public static CompletableFuture<String> cachedAsync(String api_url, Map<String, String> params, Supplier<CompletableFuture<String>> loader) {
+		if (!enabled) {
+			return loader.get();
+		}
+		final String key = key(api_url, params);
+		String value = get(key);
+		if (value != null) {
+			return CompletableFuture.completedFuture(value);
+		}
+		CompletableFuture<String> future = loader.get();
+		future.thenAccept(response -> {
+			if (response != null) {
+				put(key, response);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * cached for raw responses. The bytes are kept as ISO-8859-1 text, one char per byte :
+	 * the memory and disk tiers give them back unchanged.
+	 */
+	public static byte[] cachedBytes(String api_url, Map<String, String> params, BytesLoader loader) throws IOException {
+		if (!enabled) {
+			return loader.load();
+		}
+		String key = key(api_url + BYTES, params);
+		String value = get(key);
+		if (value != null) {
+			return value.getBytes(StandardCharsets.ISO_8859_1);
+		}
+		byte[] bytes = loader.load();
+		if (bytes != null) {
+			put(key, new String(bytes, StandardCharsets.ISO_8859_1));
+		}
+		return bytes;
+	}
+
+	public static String key(String api_url, Map<String, String> params) {
+		return key(api_url, params, "api_key");
+	}
+
+	/**
+	 * Hash of the url and of the parameters but the excluded ones
+	 */
+	public static String key(String api_url, Map<String, String> params, String... excluded) {
+		// sorted, lengths prefixed : no two distinct parameter sets share an input
+		StringBuilder input = new StringBuilder(api_url.length() + 64);
+		input.append(api_url.length()).append(':').append(api_url);
+		for (Map.Entry<String, String> param : new TreeMap<String, String>(params).entrySet()) {
+			if (Arrays.asList(excluded).contains(param.getKey())) {
+				continue;
+			}
+			String value = String.valueOf(param.getValue());
+			input.append(param.getKey().length()).append(':').append(param.getKey());
+			input.append(value.length()).append(':').append(value);
+		}
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(input.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e); // mandatory in every JVM
+		}
+	}
+
+	public static String get(String key) {
+		long now = System.currentTimeMillis();
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (!entry.isExpired(now)) {
+					hits.incrementAndGet();
+					return entry.value;
+				}
+				remove(key);
+			}
+		}
+
+		Entry entry = readDisk(key, now);
+		if (entry != null) {
+			diskHits.incrementAndGet();
+			putMemory(key, entry);
+			return entry.value;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public static void put(String key, String value) {
+		Entry entry = new Entry(value, System.currentTimeMillis() + ttl);
+		putMemory(key, entry);
+		if (diskDir != null) {
+			// the response is returned without waiting for the disk
+			getSweeper().execute(() -> writeDisk(key, entry));
+		}
+	}
+
+	protected static void putMemory(String key, Entry entry) {
+		if (entry.value.length() > maxWeight) {
+			return;
+		}
+		synchronized (entries) {
+			remove(key);
+			entries.put(key, entry);
+			weight += entry.value.length();
+
+			// least recently used entries first
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (weight > maxWeight && iterator.hasNext()) {
+				weight -= iterator.next().getValue().value.length();
+				iterator.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private static void remove(String key) {
+		Entry previous = entries.remove(key);
+		if (previous != null) {
+			weight -= previous.value.length();
+		}
+	}
+
+	/**
+	 * Disk entries are files named by the key : expiry time on the first line, then the response
+	 */
+	protected static Entry readDisk(String key, long now) {
+		if (diskDir == null) {
+			return null;
+		}
+		File file = new File(diskDir, key + ".cache");
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			String data = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			int newline = data.indexOf('\n');
+			long expiresAt = Long.parseLong(data.substring(0, newline));
+			if (now >= expiresAt) {
+				file.delete();
+				return null;
+			}
+			return new Entry(data.substring(newline + 1), expiresAt);
+		} catch (IOException | RuntimeException e) {
+			System.out.println("WsCache : unreadable entry " + file + ", ignored");
+			file.delete();
+			return null;
+		}
+	}
+
+	protected static void writeDisk(String key, Entry entry) {
+		if (diskDir == null) {
+			return;
+		}
+		try {
+			File dir = new File(diskDir);
+			dir.mkdirs();
+			// written aside then moved, a concurrent reader never sees a partial entry
+			File temp = File.createTempFile(key, ".tmp", dir);
+			byte[] data = (entry.expiresAt + "\n" + entry.value).getBytes(StandardCharsets.UTF_8);
+			Files.write(temp.toPath(), data);
+			Files.move(temp.toPath(), new File(dir, key + ".cache").toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			if (diskBytes.addAndGet(data.length) > diskQuota) {
+				sweep();
+			}
+		} catch (IOException e) {
+			System.out.println("WsCache : could not write entry " + key + " to " + diskDir);
+			e.printStackTrace();
+		}
+	}
+
+	protected static ScheduledThreadPoolExecutor getSweeper() {
+		return Sweeper.executor;
+	}
+
+	/**
+	 * Deletes the expired disk entries, then the oldest ones over the quota. An entry expires
+	 * ttl after it was written, its file date. Temporary files left by a failed write are deleted after a ttl too.
+	 * Runs on the sweeper thread only, as the writes : no lock needed.
+	 */
+	protected static void sweep() {
+		if (diskDir == null) {
+			return;
+		}
+		try {
+			File[] files = new File(diskDir).listFiles((dir, name) -> name.endsWith(".cache") || name.endsWith(".tmp"));
+			if (files == null) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+			long total = 0;
+			for (File file : files) {
+				if (now - file.lastModified() >= ttl) {
+					deleteDisk(file);
+				}
+				else {
+					total += file.length();
+				}
+			}
+			for (File file : files) {
+				if (total <= diskQuota) {
+					break;
+				}
+				if (file.exists() && file.getName().endsWith(".cache")) {
+					long length = file.length();
+					if (deleteDisk(file)) {
+						total -= length;
+					}
+				}
+			}
+			diskBytes.set(total);
+		} catch (Exception e) {
+			System.out.println("WsCache : sweep of " + diskDir + " failed");
+			e.printStackTrace();
+		}
+	}
+
+	protected static boolean deleteDisk(File file) {
+		if (file.delete()) {
+			diskEvictions.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns hit and miss counters and the memory tier size
+	 */
+	public static JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("hits", hits.get());
+		stats.put("diskHits", diskHits.get());
+		stats.put("misses", misses.get());
+		stats.put("evictions", evictions.get());
+		stats.put("diskEvictions", diskEvictions.get());
+		stats.put("diskBytes", diskBytes.get());
+		synchronized (entries) {
+			stats.put("entries", entries.size());
+			stats.put("chars", weight);
+		}
+		return stats;
+	}
+
+	/**
+	 * Empties the memory tier, the disk tier is kept
+	 */
+	public static void clear() {
+		synchronized (entries) {
+			entries.clear();
+			weight = 0;
+		}
+	}
+
+}
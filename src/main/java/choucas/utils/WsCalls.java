@@ -0,0 +1,455 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import choucas.monitoring.WsMetrics;
+
+/**
+ * This class runs the upstream calls of WsUtils under the EndpointPolicy of their endpoint :
+ * timeouts, retries of failed attempts after a jittered backoff, and hedging of slow attempts.
+ * Every attempt is an upstream call of its own in WsMetrics, admitted by the CircuitBreaker
+ * of its host and endpoint : calls to a failing upstream fail at once, then run within the
+ * ConcurrencyLimiter of the host : calls beyond its limit wait or are shed.
+ * Blocking calls of a hedged endpoint run as asynchronous calls, waited for.
+ * Identical calls in flight are coalesced by SingleFlight, before the policy applies : one call is sent.
+ */
+
+public class WsCalls {
+
+	// outcome of a call never made or cancelled
+	protected static final CancellationException NO_OUTCOME = new CancellationException();
+
+	private static final AtomicLong retries = new AtomicLong();
+	private static final AtomicLong hedges = new AtomicLong();
+	private static final AtomicLong hedgeWins = new AtomicLong();
+	private static final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * One attempt of a blocking call
+	 */
+	protected interface Attempt<T> {
+		T call(Call.Factory client) throws IOException;
+	}
+
+	/**
+	 * Blocking call, returns the response body
+	 */
+	public static String execute(final Request request) throws IOException {
+		final EndpointPolicy policy = EndpointPolicy.forUrl(request.url());
+		if (policy.isHedged()) {
+			return await(enqueue(request));
+		}
+		SingleFlight.Key key = request.tag(SingleFlight.Key.class);
+		if (key != null) {
+			return SingleFlight.execute(key, () -> execute(request, policy));
+		}
+		return execute(request, policy);
+	}
+
+	protected static String execute(final Request request, EndpointPolicy policy) throws IOException {
+		return retry(request, policy, client -> {
+			WsMetrics.Call metrics = WsUtils.startMetrics(request);
+			try (Response response = client.newCall(request).execute()) {
+				if (!response.isSuccessful()) throw new ServiceResponseException(response);
+				String body = response.body().string();
+				metrics.success(UploadPart.utf8Length(body));
+				return body;
+			} catch (IOException | RuntimeException e) {
+				metrics.failure();
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Blocking call, the response is read by the handler. Never hedged, the handler streams the response.
+	 */
+	public static <T> T execute(final Request request, final WsUtils.ResponseHandler<T> handler) throws IOException {
+		return retry(request, EndpointPolicy.forUrl(request.url()), client -> {
+			WsMetrics.Call metrics = WsUtils.startMetrics(request);
+			try (Response response = client.newCall(request).execute()) {
+				if (!response.isSuccessful()) throw new ServiceResponseException(response);
+				CountingResponseBody body = new CountingResponseBody(response.body());
+				T result = handler.handle(body);
+				metrics.success(body.getBytesRead());
+				return result;
+			} catch (IOException | RuntimeException e) {
+				metrics.failure();
+				throw e;
+			}
+		});
+	}
+
+	protected static <T> T retry(Request request, EndpointPolicy policy, Attempt<T> attempt) throws IOException {
+		OkHttpClient client = policy.client(WsClients.getClient(request.url().toString()));
+		long deadline = deadline(policy);
+		for (int i = 0; ; i++) {
+			CircuitBreaker.Permit permit = CircuitBreaker.acquire(request.url().host(), request.url().encodedPath(), policy.getSlowCall());
+			ConcurrencyLimiter.Slot slot;
+			try {
+				slot = ConcurrencyLimiter.forHost(request.url().host()).acquire(request.url().encodedPath());
+			} catch (IOException e) {
+				settle(permit, null, NO_OUTCOME);
+				throw e;
+			}
+			long remaining = deadline == Long.MAX_VALUE ? -1 : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (deadline != Long.MAX_VALUE && remaining <= 0) {
+				settle(permit, slot, NO_OUTCOME);
+				timeouts.incrementAndGet();
+				throw new InterruptedIOException("Timeout of " + policy.getTimeout() + " ms exceeded, " + request.url());
+			}
+			try {
+				T result = attempt.call(capped(client, policy, remaining));
+				settle(permit, slot, null);
+				return result;
+			} catch (RuntimeException e) {
+				settle(permit, slot, e);
+				throw e;
+			} catch (IOException e) {
+				settle(permit, slot, e);
+				long delay = retryDelay(request, policy, i, e, deadline);
+				if (delay < 0) {
+					throw e;
+				}
+				System.out.println("Adapter : " + request.url().encodedPath() + " failed (" + e.getMessage() + "), retry in " + delay + " ms");
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted before retrying " + request.url());
+				}
+			}
+		}
+	}
+
+	/**
+	 * The client, its calls timing out at the overall deadline of the call when it comes before
+	 * the end of the attempt timeout
+	 */
+	protected static Call.Factory capped(final OkHttpClient client, EndpointPolicy policy, final long remaining) {
+		if (remaining < 0 || (policy.getAttemptTimeout() > 0 && policy.getAttemptTimeout() <= remaining)) {
+			return client;
+		}
+		return request -> {
+			Call call = client.newCall(request);
+			call.timeout().timeout(remaining, TimeUnit.MILLISECONDS);
+			return call;
+		};
+	}
+
+	/**
+	 * Asynchronous call, returns the response body.
+	 * Cancelling the returned future cancels the HTTP calls in flight, unless they are shared
+	 * with other callers by SingleFlight.
+	 */
+	public static CompletableFuture<String> enqueue(final Request request) {
+		SingleFlight.Key key = request.tag(SingleFlight.Key.class);
+		if (key != null) {
+			return SingleFlight.enqueue(key, () -> start(request));
+		}
+		return start(request);
+	}
+
+	protected static CompletableFuture<String> start(final Request request) {
+		final EndpointPolicy policy = EndpointPolicy.forUrl(request.url());
+		final OkHttpClient client = policy.client(WsClients.getClient(request.url().toString()));
+		final String[] labels = WsMetrics.labels();
+		final Priority priority = Priority.current();
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+		if (policy.getTimeout() > 0) {
+			final ScheduledFuture<?> timer = WsClients.getScheduler().schedule(() -> {
+				if (result.completeExceptionally(new InterruptedIOException("Timeout of " + policy.getTimeout() + " ms exceeded, " + request.url()))) {
+					timeouts.incrementAndGet();
+				}
+			}, policy.getTimeout(), TimeUnit.MILLISECONDS);
+			result.whenComplete((response, t) -> timer.cancel(false));
+		}
+		attempt(result, client, request, policy, labels, priority, 0, deadline(policy));
+		return result;
+	}
+
+	protected static void attempt(final CompletableFuture<String> result, final OkHttpClient client, final Request request,
+			final EndpointPolicy policy, final String[] labels, final Priority priority, final int attempt, final long deadline) {
+		if (result.isDone()) {
+			return;
+		}
+		final CompletableFuture<String> call = hedged(client, request, policy, labels, priority);
+		result.whenComplete((response, t) -> call.cancel(true));
+		call.whenComplete((response, t) -> {
+			if (t == null) {
+				result.complete(response);
+				return;
+			}
+			Throwable cause = unwrap(t);
+			long delay = retryDelay(request, policy, attempt, cause, deadline);
+			if (delay < 0 || result.isDone()) {
+				result.completeExceptionally(cause);
+				return;
+			}
+			System.out.println("Adapter : " + request.url().encodedPath() + " failed (" + cause.getMessage() + "), retry in " + delay + " ms");
+			WsClients.getScheduler().schedule(() -> attempt(result, client, request, policy, labels, priority, attempt + 1, deadline), delay, TimeUnit.MILLISECONDS);
+		});
+	}
+
+	/**
+	 * Sends the request, and a second one if the first one is still running after
+	 * the hedge delay of the endpoint. The first response wins, the other call is cancelled.
+	 * Fails when every call sent failed.
+	 */
+	protected static CompletableFuture<String> hedged(final OkHttpClient client, final Request request,
+			final EndpointPolicy policy, final String[] labels, final Priority priority) {
+		final CompletableFuture<String> first = send(client, request, labels, priority, policy);
+		long delay = policy.canRepeat(request) ? policy.hedgeDelay(request.url().host(), request.url().encodedPath()) : -1;
+		if (delay < 0) {
+			return first;
+		}
+
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+		final List<CompletableFuture<String>> calls = new ArrayList<CompletableFuture<String>>();
+		watch(result, calls, first, false);
+		final ScheduledFuture<?> timer = WsClients.getScheduler().schedule(() -> {
+			synchronized (calls) {
+				if (result.isDone()) {
+					return;
+				}
+				hedges.incrementAndGet();
+				watch(result, calls, send(client, request, labels, priority, policy), true);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+
+		result.whenComplete((response, t) -> {
+			timer.cancel(false);
+			synchronized (calls) {
+				for (CompletableFuture<String> call : calls) {
+					call.cancel(true);
+				}
+			}
+		});
+		return result;
+	}
+
+	protected static void watch(final CompletableFuture<String> result, final List<CompletableFuture<String>> calls,
+			final CompletableFuture<String> call, final boolean hedge) {
+		synchronized (calls) {
+			calls.add(call);
+		}
+		call.whenComplete((response, t) -> {
+			if (t == null) {
+				if (result.complete(response) && hedge) {
+					hedgeWins.incrementAndGet();
+				}
+				return;
+			}
+			synchronized (calls) {
+				for (CompletableFuture<String> other : calls) {
+					if (!other.isDone()) {
+						return;
+					}
+				}
+			}
+			// hedging never started, or every call failed
+			result.completeExceptionally(unwrap(t));
+		});
+	}
+
+	/**
+	 * One asynchronous HTTP call, labelled with the caller scope, started once admitted
+	 * by the breakers and given a slot by the limiter of the host, at the caller priority
+	 */
+	protected static CompletableFuture<String> send(final OkHttpClient client, final Request request, final String[] labels,
+			Priority priority, EndpointPolicy policy) {
+		final CompletableFuture<String> future = new CompletableFuture<String>();
+		final CircuitBreaker.Permit permit;
+		try {
+			permit = CircuitBreaker.acquire(request.url().host(), request.url().encodedPath(), policy.getSlowCall());
+		} catch (UpstreamUnavailableException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		final CompletableFuture<ConcurrencyLimiter.Slot> slot = ConcurrencyLimiter.forHost(request.url().host()).acquireAsync(priority, request.url().encodedPath());
+		// a call cancelled while waiting for its slot leaves the queue
+		future.whenComplete((response, t) -> slot.cancel(true));
+		slot.whenComplete((s, t) -> {
+			if (t != null) {
+				settle(permit, null, NO_OUTCOME);
+				future.completeExceptionally(unwrap(t));
+			}
+			else if (future.isDone()) {
+				settle(permit, s, NO_OUTCOME);
+			}
+			else {
+				call(client, request, labels, future, permit, s);
+			}
+		});
+		return future;
+	}
+
+	protected static void call(OkHttpClient client, Request request, String[] labels, final CompletableFuture<String> future,
+			final CircuitBreaker.Permit permit, final ConcurrencyLimiter.Slot slot) {
+		final Call call = client.newCall(request);
+		final WsMetrics.Call metrics = WsUtils.startMetrics(request, labels);
+
+		call.enqueue(new Callback() {
+			@Override
+			public void onFailure(Call call, IOException e) {
+				future.completeExceptionally(e);
+			}
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (Response r = response) {
+					if (!r.isSuccessful()) throw new ServiceResponseException(r);
+					future.complete(r.body().string());
+				} catch (IOException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+
+		future.whenComplete((response, t) -> {
+			if (t == null) {
+				metrics.success(UploadPart.utf8Length(response));
+			}
+			else if (!future.isCancelled()) {
+				// a cancelled call (hedge lost, caller gone) is neither a failure nor a latency sample
+				metrics.failure();
+			}
+			if (future.isCancelled()) {
+				call.cancel();
+			}
+			settle(permit, slot, t == null ? null : unwrap(t));
+		});
+	}
+
+	/**
+	 * Reports the outcome of an attempt to the circuit breakers and to the concurrency limiter :
+	 * only transient failures are failures of the upstream, a cancelled call has no outcome
+	 */
+	protected static void settle(CircuitBreaker.Permit permit, ConcurrencyLimiter.Slot slot, Throwable failure) {
+		boolean cancelled = failure instanceof CancellationException || (failure != null && "Canceled".equals(failure.getMessage()));
+		boolean failed = failure != null && !cancelled && isTransient(failure);
+		if (permit != null) {
+			if (cancelled) {
+				permit.release();
+			}
+			else if (failed) {
+				permit.failure();
+			}
+			else {
+				permit.success();
+			}
+		}
+		if (slot != null) {
+			if (cancelled) {
+				slot.release();
+			}
+			else if (failed) {
+				// timeouts, connection failures, server errors and throttling
+				slot.dropped();
+			}
+			else {
+				slot.success();
+			}
+		}
+	}
+
+	/**
+	 * Delay before retrying a failed attempt, in ms, -1 when the call fails
+	 */
+	protected static long retryDelay(Request request, EndpointPolicy policy, int attempt, Throwable failure, long deadline) {
+		if (attempt >= policy.getMaxRetries() || !policy.canRepeat(request) || !isTransient(failure)) {
+			return -1;
+		}
+		long delay = policy.backoffDelay(attempt);
+		if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadline) {
+			return -1;
+		}
+		retries.incrementAndGet();
+		return delay;
+	}
+
+	/**
+	 * Network failures, timeouts and HTTP server errors, not client errors, cancellations
+	 * or calls rejected by an open circuit breaker
+	 */
+	protected static boolean isTransient(Throwable failure) {
+		if (failure instanceof UpstreamUnavailableException) {
+			return false;
+		}
+		if (failure instanceof ServiceResponseException) {
+			return ((ServiceResponseException) failure).isTransient();
+		}
+		return failure instanceof IOException && !"Canceled".equals(failure.getMessage());
+	}
+
+	protected static long deadline(EndpointPolicy policy) {
+		return policy.getTimeout() > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.getTimeout()) : Long.MAX_VALUE;
+	}
+
+	protected static Throwable unwrap(Throwable t) {
+		while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t;
+	}
+
+	protected static String await(CompletableFuture<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the response");
+		} catch (CancellationException e) {
+			throw new InterruptedIOException("Call cancelled");
+		} catch (ExecutionException e) {
+			Throwable cause = unwrap(e);
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	public static JSONObject getStats() {
+		JSONObject stats = new JSONObject();
+		stats.put("retries", retries.get());
+		stats.put("hedges", hedges.get());
+		stats.put("hedgeWins", hedgeWins.get());
+		stats.put("timeouts", timeouts.get());
+		stats.put("policies", EndpointPolicy.getPolicies());
+		stats.put("breakers", CircuitBreaker.getStats());
+		stats.put("limiters", ConcurrencyLimiter.getStats());
+		stats.put("singleFlight", SingleFlight.getStats());
+		stats.put("microBatching", MicroBatcher.getStats());
+		return stats;
+	}
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Package choucas.utils
+ * Provides configuration and utility classes and methods
+ * Project : LMAP/IPRA/CHOUCAS, 2017-2022
+ */
+
+package choucas.utils;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+/**
+ * This class provides a process-wide registry of HTTP clients, one per upstream host.
+ * Each client owns its connection pool, so connections are kept alive and reused
+ * across the stages of a chain and across WPS requests.
+ * All clients share one dispatcher running asynchronous calls, and a task executor
+ * runs the work chained on their results. Both are bounded thread pools, or virtual
+ * threads when the JVM provides them and the system property choucas.ws.virtualThreads
+ * is set to true. Queued tasks are ordered by Priority.
+ */
+
+public class WsClients {
+
+	public static final String CHOUCAS_HOST = "choucas.univ-pau.fr";
+	public static final String ERIG_HOST = "erig.univ-pau.fr";
+	public static final String REFUGES_HOST = "www.refuges.info";
+
+	protected static int maxIdleConnections = 16; // idle connections kept per upstream host
+	protected static long keepAliveSeconds = 300; // lifetime of an idle connection
+	protected static int maxRequests = 256; // asynchronous calls in flight, all hosts
+	protected static int maxRequestsPerHost = 64; // asynchronous calls in flight, per host
+	protected static int maxTasks = 32; // threads running work chained on asynchronous calls
+	protected static long batchTaskDelay = Long.getLong("choucas.ws.tasks.batchDelay", 2000); // ms, see PrioritizedTask
+
+	private static final Map<String, OkHttpClient> clients = new ConcurrentHashMap<String, OkHttpClient>();
+	private static ExecutorService executor;
+	private static ScheduledExecutorService scheduler;
+	private static Dispatcher dispatcher;
+
+	/**
+	 * Returns the shared client for the host of the given url, building it on first use
+	 */
+	public static OkHttpClient getClient(String api_url) {
+		HttpUrl url = HttpUrl.parse(api_url);
+		if (url == null) {
+			throw new IllegalArgumentException("Invalid service url : " + api_url);
+		}
+		return getHostClient(url.host());
+	}
+
+	public static OkHttpClient getHostClient(String host) {
+		OkHttpClient client = clients.get(host);
+		if (client == null) {
+			synchronized (clients) {
+				client = clients.get(host);
+				if (client == null) {
+					client = newClient(host);
+					clients.put(host, client);
+				}
+			}
+		}
+		return client;
+	}
+
+	protected static OkHttpClient newClient(String host) {
+		OkHttpClient.Builder builder = new OkHttpClient.Builder()
+				.connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+				.dispatcher(getDispatcher())
+				.retryOnConnectionFailure(true)
+				.connectTimeout(10, TimeUnit.SECONDS);
+
+		if (CHOUCAS_HOST.equals(host)) {
+			// use_model may take up to a minute on long texts
+			builder.readTimeout(60, TimeUnit.SECONDS);
+		}
+		else if (ERIG_HOST.equals(host)) {
+			// PERDIDO geoparsing has no bounded processing time, EndpointPolicy sets the limits
+			builder.readTimeout(0, TimeUnit.SECONDS);
+		}
+		else {
+			builder.readTimeout(30, TimeUnit.SECONDS);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the executor running work chained on asynchronous calls (conversions, next stages)
+	 */
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = virtualThreadExecutor();
+			if (executor == null) {
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(maxTasks, maxTasks, 60, TimeUnit.SECONDS,
+						new PriorityBlockingQueue<Runnable>(), threadFactory("choucas-task-")) {
+					@Override
+					public void execute(Runnable task) {
+						super.execute(task instanceof PrioritizedTask ? task : new PrioritizedTask(task, Priority.current()));
+					}
+				};
+				pool.allowCoreThreadTimeOut(true);
+				executor = pool;
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * An executor running the tasks with the given priority on the tasks executor
+	 */
+	public static Executor withPriority(final Executor executor, final Priority priority) {
+		return task -> executor.execute(new PrioritizedTask(task, priority));
+	}
+
+	/**
+	 * A task queued for the tasks executor. Tasks run in arrival order, a batch task
+	 * being queued as if it arrived batchTaskDelay ms later : interactive tasks overtake
+	 * batch tasks, yet a batch task waits at most batchTaskDelay ms more than them.
+	 */
+	protected static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+		private static final AtomicLong sequence = new AtomicLong();
+
+		private final Runnable task;
+		private final long key;
+		private final long order = sequence.incrementAndGet();
+
+		protected PrioritizedTask(Runnable task, Priority priority) {
+			this.task = task;
+			this.key = System.nanoTime() + (priority == Priority.BATCH ? TimeUnit.MILLISECONDS.toNanos(batchTaskDelay) : 0);
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask other) {
+			if (key != other.key) {
+				return key - other.key < 0 ? -1 : 1;
+			}
+			return Long.compare(order, other.order);
+		}
+	}
+
+	/**
+	 * Returns the timer of delayed work : retries backoff, hedged requests, timeouts.
+	 * Scheduled tasks only start calls or complete futures, one thread is enough.
+	 */
+	public static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, threadFactory("choucas-timer-"));
+			timer.setRemoveOnCancelPolicy(true);
+			scheduler = timer;
+		}
+		return scheduler;
+	}
+
+	protected static synchronized Dispatcher getDispatcher() {
+		if (dispatcher == null) {
+			ExecutorService callExecutor = virtualThreadExecutor();
+			if (callExecutor == null) {
+				// the dispatcher never runs more than maxRequests calls at once
+				callExecutor = new ThreadPoolExecutor(0, maxRequests, 60, TimeUnit.SECONDS,
+						new SynchronousQueue<Runnable>(), threadFactory("choucas-ws-"));
+			}
+			dispatcher = new Dispatcher(callExecutor);
+			dispatcher.setMaxRequests(maxRequests);
+			dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+		}
+		return dispatcher;
+	}
+
+	protected static ExecutorService virtualThreadExecutor() {
+		if (Boolean.getBoolean("choucas.ws.virtualThreads")) {
+			try {
+				// Java 21+, looked up by reflection to keep the build on older JDKs
+				Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.out.println("WsClients : virtual threads not available, using a thread pool");
+			}
+		}
+		return null;
+	}
+
+	public static ThreadFactory threadFactory(final String prefix) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Returns connection pool statistics of every client built so far
+	 */
+	public static JSONObject getPoolStats() {
+		JSONObject stats = new JSONObject();
+		for (Map.Entry<String, OkHttpClient> entry : clients.entrySet()) {
+			ConnectionPool pool = entry.getValue().connectionPool();
+			JSONObject hostStats = new JSONObject();
+			hostStats.put("connections", pool.connectionCount());
+			hostStats.put("idle", pool.idleConnectionCount());
+			stats.put(entry.getKey(), hostStats);
+		}
+		if (dispatcher != null) {
+			JSONObject dispatcherStats = new JSONObject();
+			dispatcherStats.put("running", dispatcher.runningCallsCount());
+			dispatcherStats.put("queued", dispatcher.queuedCallsCount());
+			stats.put("dispatcher", dispatcherStats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Closes idle connections of every client, e.g. when the WPS server is undeployed
+	 */
+	public static void evictAll() {
+		for (OkHttpClient client : clients.values()) {
+			client.connectionPool().evictAll();
+		}
+	}
+
+}
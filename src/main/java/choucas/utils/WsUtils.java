@@ -6,18 +6,26 @@
 
 package choucas.utils;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FilterReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.concurrent.TimeUnit;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
 
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
@@ -25,6 +33,10 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+import choucas.monitoring.WsMetrics;
 
 /**
  * This class provides utility method for Web Services
@@ -35,6 +47,9 @@ import okhttp3.Response;
 
 
 public class WsUtils {
+	protected static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json;charset=UTF-8");
+	protected static final String[] USE_MODEL_PARTS = {"Fichier_recu", "Fichier_mp", "Fichier_text"};
+	
 	protected static boolean stdoutFlag = false;
 	
 	public static void setStdoutFlag(boolean flag) {
@@ -46,28 +61,221 @@ public class WsUtils {
 	}
 	
     public static String callServicePost(String api_url, String request) throws IOException, JSONException {
-    	String response = "";
-
-    	JSONObject jsonObject = new JSONObject("{\"request\":"+request+"}");
-
-    	URL url = new URL(api_url);
-    	URLConnection connection = url.openConnection();
-    	connection.setDoOutput(true); // Indicates POST method
-    	connection.setRequestProperty("Content-Type","application/json;charset=UTF-8");
-    	OutputStreamWriter out = new OutputStreamWriter(connection.getOutputStream());
-    	out.write(jsonObject.toString());
-    	out.close();
-
-    	InputStreamReader input = new InputStreamReader(connection.getInputStream(), "UTF-8");
-    	BufferedReader in = new BufferedReader(input);
-    	String line = null;
-    	while ((line = in.readLine()) != null) {
-    		response += line;
+    	return joinLines(execute(postRequest(api_url, request)));
+    }
+    
+    /**
+     * POST request encoded by JsonRequest, the parameters values are escaped
+     */
+    
+    public static String callServicePost(String api_url, JsonRequest request) throws IOException {
+    	return joinLines(execute(postRequest(api_url, request)));
+    }
+    
+    /**
+     * Streaming variants of callServicePost : the response is read from the socket by the handler,
+     * line breaks included, without a String copy of the whole response
+     */
+    
+    public interface ResponseHandler<T> {
+    	T handle(ResponseBody body) throws IOException;
+    }
+    
+    public static <T> T callServicePost(String api_url, String request, ResponseHandler<T> handler) throws IOException {
+    	return execute(postRequest(api_url, request), handler);
+    }
+    
+    public static byte[] callServicePostBytes(String api_url, String request) throws IOException {
+    	return callServicePost(api_url, request, ResponseBody::bytes);
+    }
+    
+    public static byte[] callServicePostBytes(String api_url, JsonRequest request) throws IOException {
+    	return execute(postRequest(api_url, request), ResponseBody::bytes);
+    }
+    
+    /**
+     * The response bytes, checked to be a JSON object without parsing it : an error page
+     * sent with status 200 (HTML) fails the call
+     */
+    
+    public static byte[] callServicePostJsonBytes(final String api_url, JsonRequest request) throws IOException {
+    	byte[] bytes = callServicePostBytes(api_url, request);
+    	int i = 0;
+    	// UTF-8 byte order mark
+    	if (bytes.length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF) {
+    		i = 3;
     	}
-
-    	in.close();
-
-    	return response;
+    	while (i < bytes.length && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r' || bytes[i] == '\n')) {
+    		i++;
+    	}
+    	if (i == bytes.length || bytes[i] != '{') {
+    		throw new IOException("Invalid JSON response from " + api_url + ", not an object");
+    	}
+    	return bytes;
+    }
+    
+    public static XmlObject callServicePostXml(String api_url, String request) throws IOException {
+    	return callServicePost(api_url, request, xmlHandler(api_url));
+    }
+    
+    public static XmlObject callServicePostXml(String api_url, JsonRequest request) throws IOException {
+    	return execute(postRequest(api_url, request), xmlHandler(api_url));
+    }
+    
+    protected static ResponseHandler<XmlObject> xmlHandler(final String api_url) {
+    	return body -> {
+    		try {
+    			return XmlObject.Factory.parse(body.byteStream());
+    		} catch (XmlException e) {
+    			throw new IOException("Invalid XML response from " + api_url, e);
+    		}
+    	};
+    }
+    
+    public static JSONObject callServicePostJson(String api_url, String request) throws IOException, JSONException {
+    	return callServicePost(api_url, request, body -> new JSONObject(new JSONTokener(body.charStream())));
+    }
+    
+    /**
+     * Returns the response as a Reader, closing the Reader releases the connection
+     */
+    
+    public static Reader openServicePost(String api_url, String request) throws IOException {
+    	Request httpRequest = postRequest(api_url, request);
+    	EndpointPolicy policy = EndpointPolicy.forUrl(httpRequest.url());
+    	CircuitBreaker.Permit permit = CircuitBreaker.acquire(httpRequest.url().host(), httpRequest.url().encodedPath(), policy.getSlowCall());
+    	ConcurrencyLimiter.Slot slot;
+    	try {
+    		slot = ConcurrencyLimiter.forHost(httpRequest.url().host()).acquire(httpRequest.url().encodedPath());
+    	} catch (IOException e) {
+    		WsCalls.settle(permit, null, WsCalls.NO_OUTCOME);
+    		throw e;
+    	}
+    	final WsMetrics.Call metrics = startMetrics(httpRequest);
+    	Response response = null;
+    	try {
+    		// the response is read by the caller : the policy timeouts apply, not its retries
+    		OkHttpClient client = policy.client(WsClients.getClient(api_url));
+    		response = client.newCall(httpRequest).execute();
+    		if (!response.isSuccessful()) throw new ServiceResponseException(response);
+    		WsCalls.settle(permit, slot, null);
+    		final CountingResponseBody body = new CountingResponseBody(response.body());
+    		// the call is recorded when the caller closes the Reader, with the bytes it read
+    		return new FilterReader(body.charStream()) {
+    			private boolean recorded = false;
+    			
+    			@Override
+    			public int read(char[] buffer, int offset, int length) throws IOException {
+    				try {
+    					return super.read(buffer, offset, length);
+    				} catch (IOException | RuntimeException e) {
+    					record(false);
+    					throw e;
+    				}
+    			}
+    			
+    			@Override
+    			public void close() throws IOException {
+    				record(true);
+    				super.close();
+    			}
+    			
+    			private void record(boolean success) {
+    				if (!recorded) {
+    					recorded = true;
+    					if (success) {
+    						metrics.success(body.getBytesRead());
+    					}
+    					else {
+    						metrics.failure();
+    					}
+    				}
+    			}
+    		};
+    	} catch (IOException | RuntimeException e) {
+    		metrics.failure();
+    		WsCalls.settle(permit, slot, e);
+    		if (response != null) {
+    			response.close();
+    		}
+    		throw e;
+    	}
+    }
+    
+    /**
+     * callServicePost answered from WsCache when the same parameters were already sent.
+     * The JSON request is built from the parameters in their order.
+     */
+    
+    public static String callServicePostCached(final String api_url, Map<String, String> params) throws IOException, JSONException {
+    	final JsonRequest request = JsonRequest.of(params);
+    	return WsCache.cached(api_url, params, () -> callServicePost(api_url, request));
+    }
+    
+    /**
+     * callServicePostJsonBytes answered from WsCache : the response bytes as received, only a JSON object is cached
+     */
+    
+    public static byte[] callServicePostJsonBytesCached(final String api_url, Map<String, String> params) throws IOException {
+    	final JsonRequest request = JsonRequest.of(params);
+    	return WsCache.cachedBytes(api_url, params, () -> callServicePostJsonBytes(api_url, request));
+    }
+    
+    /**
+     * Non-blocking variant of callServicePostCached
+     */
+    
+    public static CompletableFuture<String> callServicePostCachedAsync(final String api_url, Map<String, String> params) {
+    	final JsonRequest request = JsonRequest.of(params);
+    	return WsCache.cachedAsync(api_url, params, () -> {
+    		CompletableFuture<String> call = enqueue(postRequest(api_url, request));
+    		CompletableFuture<String> response = call.thenApply(WsUtils::joinLines);
+    		// cancelling the response cancels the HTTP call
+    		response.whenComplete((r, t) -> {
+    			if (response.isCancelled()) {
+    				call.cancel(true);
+    			}
+    		});
+    		return response;
+    	});
+    }
+    
+    /**
+     * Parameters of the PERDIDO geoparsing and geocoding services
+     */
+    
+    public static Map<String, String> perdidoParams(String api_key, String content, String lang, String geocoding, String POStagger, String version, String mode, String gazetier, String bbox) {
+    	Map<String, String> params = new LinkedHashMap<String, String>();
+    	params.put("api_key", api_key);
+    	params.put("content", content);
+    	params.put("lang", lang);
+    	params.put("geocoding", geocoding);
+    	params.put("POStagger", POStagger);
+    	params.put("version", version);
+    	params.put("mode", mode);
+    	params.put("gazetier", gazetier);
+    	params.put("bbox", bbox);
+    	return params;
+    }
+    
+    /**
+     * Non-blocking variant of callServicePost, the future completes on a dispatcher thread
+     */
+    
+    public static CompletableFuture<String> callServicePostAsync(String api_url, String request) {
+    	return enqueue(postRequest(api_url, request)).thenApply(WsUtils::joinLines);
+    }
+    
+    /**
+     * GET request, the payload is the url query string
+     */
+    
+    public static String callServiceGet(String api_url) throws IOException {
+    	return execute(new Request.Builder().url(api_url).get().build());
+    }
+    
+    public static CompletableFuture<String> callServiceGetAsync(String api_url) {
+    	return enqueue(new Request.Builder().url(api_url).get().build());
     }
     
     /**
@@ -76,144 +284,379 @@ public class WsUtils {
      */
     
 	 public static String callServicePostM(String api_url, String url, File fileToLoad, String contentType) {
-	
-		 String fileName = fileToLoad.getName();
-		 MediaType MEDIA_TYPE = MediaType.parse(contentType);	 
-
 		 String respBody=null;
+		 try {
+			 respBody = execute(multipartRequest(api_url, url, fileToLoad, contentType));
+		 } catch (IOException e) {
+			 // TODO Auto-generated catch block
+			 e.printStackTrace();
+		 }
+		 return respBody;
+	 }
+	 
+	 public static CompletableFuture<String> callServicePostMAsync(String api_url, String url, File fileToLoad, String contentType) {
+		 return enqueue(multipartRequest(api_url, url, fileToLoad, contentType));
+	 }
+	 
+	 public static String callServicePostUseM(String api_url, String url, File vectorFile, File mpFile, File textFile, String contentType) {
+		 String respBody=null;
+		 try {
+			 respBody = execute(useModelRequest(api_url, url, vectorFile, mpFile, textFile, contentType));
+		 } catch (IOException e) {
+			 // TODO Auto-generated catch block
+			 e.printStackTrace();
+		 }
+		 return respBody;
+	 }
+	 
+	 public static CompletableFuture<String> callServicePostUseMAsync(String api_url, String url, File vectorFile, File mpFile, File textFile, String contentType) {
+		 return enqueue(useModelRequest(api_url, url, vectorFile, mpFile, textFile, contentType));
+	 }
+	 
+	 /**
+	  * POST request using multipart/form-data content type, the file content is uploaded from memory
+	  */
+	 
+	 public static String callServicePostM(String api_url, String url, String fileName, String content, String contentType) throws IOException {
+		 UploadPart part = UploadPart.of(fileName, content, MediaType.parse(contentType));
+		 return execute(multipartRequest(api_url, url, new String[] {"Fichier_recu"}, part));
+	 }
+	 
+	 public static CompletableFuture<String> callServicePostMAsync(String api_url, String url, String fileName, String content, String contentType) {
+		 UploadPart part = UploadPart.of(fileName, content, MediaType.parse(contentType));
+		 return enqueue(multipartRequest(api_url, url, new String[] {"Fichier_recu"}, part));
+	 }
+	 
+	 public static String callServicePostUseM(String api_url, String url, String vector, String mp, String text, String contentType) throws IOException {
+		 MediaType mediaType = MediaType.parse(contentType);
+		 return execute(multipartRequest(api_url, url, USE_MODEL_PARTS, UploadPart.of("vectorFile.tsv", vector, mediaType),
+				 UploadPart.of("mpFile.tsv", mp, mediaType), UploadPart.of("textFile.tsv", text, mediaType)));
+	 }
+	 
+	 public static CompletableFuture<String> callServicePostUseMAsync(String api_url, String url, String vector, String mp, String text, String contentType) {
+		 MediaType mediaType = MediaType.parse(contentType);
+		 return enqueue(multipartRequest(api_url, url, USE_MODEL_PARTS, UploadPart.of("vectorFile.tsv", vector, mediaType),
+				 UploadPart.of("mpFile.tsv", mp, mediaType), UploadPart.of("textFile.tsv", text, mediaType)));
+	 }
+	 
+	 protected static Request multipartRequest(String api_url, String url, String[] names, UploadPart... parts) {
+		 MultipartBody.Builder builder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+		 for (int i = 0; i < parts.length; i++) {
+			 builder.addFormDataPart(names[i], parts[i].getFileName(), parts[i].getBody());
+		 }
+		 builder.addFormDataPart("url", url);
+		 
+		 return new Request.Builder()
+				  .url(api_url)
+				  .method("POST", builder.build())
+				  .build();
+	 }
+	 
+	 /**
+	  * The request is sent as {"request":request}, written straight into the socket
+	  */
+	 protected static Request postRequest(String api_url, String request) {
+		 return new Request.Builder()
+				 .url(api_url)
+				 .post(jsonBody("{\"request\":", request, "}"))
+				 .tag(SingleFlight.Key.class, SingleFlight.key(api_url, request))
+				 .build();
+	 }
+	 
+	 protected static Request postRequest(String api_url, JsonRequest request) {
+		 return new Request.Builder()
+				 .url(api_url)
+				 .post(request.toRequestBody())
+				 .tag(SingleFlight.Key.class, SingleFlight.key(api_url, request.getParams()))
+				 .build();
+	 }
+	 
+	 protected static RequestBody jsonBody(final String... parts) {
+		 long length = 0;
+		 for (String part : parts) {
+			 length += UploadPart.utf8Length(part);
+		 }
+		 final long contentLength = length;
 		 
-		 OkHttpClient client = new OkHttpClient();
+		 return new RequestBody() {
+			 @Override
+			 public MediaType contentType() {
+				 return JSON_MEDIA_TYPE;
+			 }
+			 
+			 @Override
+			 public long contentLength() {
+				 return contentLength;
+			 }
+			 
+			 @Override
+			 public void writeTo(BufferedSink sink) throws IOException {
+				 for (String part : parts) {
+					 sink.writeUtf8(part);
+				 }
+			 }
+		 };
+	 }
+	 
+	 protected static Request multipartRequest(String api_url, String url, File fileToLoad, String contentType) {
+		 MediaType MEDIA_TYPE = MediaType.parse(contentType);
 		 
 		 RequestBody requestBody = new MultipartBody.Builder()
 				 .setType(MultipartBody.FORM)
-				 .addFormDataPart("Fichier_recu", fileName,  
+				 .addFormDataPart("Fichier_recu", fileToLoad.getName(),  
 						 RequestBody.create(fileToLoad,MEDIA_TYPE))
 				  .addFormDataPart("url", url)
 				  .build();
 		 
-		Request request = new Request.Builder()
+		 return new Request.Builder()
 				  .url(api_url)
 				  .method("POST", requestBody)
 				  .build();
-		try {
-			Response response = client.newCall(request).execute();
-			if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
-			
-			respBody = response.body().string();
-		
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return respBody;
 	 }
 	 
-	 public static String callServicePostUseM(String api_url, String url, File vectorFile, File mpFile, File textFile, String contentType) {
-			
-		 String vFileName = vectorFile.getName();
-		 String mFileName = mpFile.getName();
-		 String tFileName = textFile.getName();
-		 
-		 MediaType MEDIA_TYPE = MediaType.parse(contentType);	 
-
-		 String respBody=null;
-		 
-		 //OkHttpClient client = new OkHttpClient();
-		 OkHttpClient client = new OkHttpClient.Builder()
-				 .readTimeout(60, TimeUnit.SECONDS)
-				 .build();
+	 protected static Request useModelRequest(String api_url, String url, File vectorFile, File mpFile, File textFile, String contentType) {
+		 MediaType MEDIA_TYPE = MediaType.parse(contentType);
 		 
 		 RequestBody requestBody = new MultipartBody.Builder()
 				 .setType(MultipartBody.FORM)
-				 .addFormDataPart("Fichier_recu", vFileName,  
+				 .addFormDataPart("Fichier_recu", vectorFile.getName(),  
 						 RequestBody.create(vectorFile,MEDIA_TYPE))
-				 .addFormDataPart("Fichier_mp", mFileName,  
+				 .addFormDataPart("Fichier_mp", mpFile.getName(),  
 						 RequestBody.create(mpFile,MEDIA_TYPE))
-				 .addFormDataPart("Fichier_text", tFileName,  
+				 .addFormDataPart("Fichier_text", textFile.getName(),  
 						 RequestBody.create(textFile,MEDIA_TYPE))
 				  .addFormDataPart("url", url)
 				  .build();
 		 
-		Request request = new Request.Builder()
+		 return new Request.Builder()
 				  .url(api_url)
 				  .method("POST", requestBody)
 				  .build();
-		try {
-			Response response = client.newCall(request).execute();
-			if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
-			
-			respBody = response.body().string();
-		
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} 
-		
-		return respBody;
 	 }
 	 
+	 /**
+	  * Blocking call on the shared client of the request host, returns the response body.
+	  * The EndpointPolicy of the service applies : timeouts, retries, hedging.
+	  */
+	 protected static String execute(Request request) throws IOException {
+		 return WsCalls.execute(request);
+	 }
+	 
+	 protected static <T> T execute(Request request, ResponseHandler<T> handler) throws IOException {
+		 return WsCalls.execute(request, handler);
+	 }
+	 
+	 /**
+	  * Asynchronous call on the shared client of the request host, under the EndpointPolicy of the service.
+	  * Cancelling the returned future cancels the HTTP call.
+	  */
+	 protected static CompletableFuture<String> enqueue(Request request) {
+		 return WsCalls.enqueue(request);
+	 }
+	 
+	 /**
+	  * Starts the metrics of a call, labelled by the calling stage
+	  */
+	 protected static WsMetrics.Call startMetrics(Request request) {
+		 return startMetrics(request, WsMetrics.labels());
+	 }
+	 
+	 /**
+	  * Starts the metrics of a call made out of the caller thread, labelled by the caller stage
+	  */
+	 protected static WsMetrics.Call startMetrics(Request request, String[] labels) {
+		 long requestBytes = -1;
+		 try {
+			 if (request.body() != null) {
+				 requestBytes = request.body().contentLength();
+			 }
+		 } catch (IOException e) {
+			 // unknown length, not counted
+		 }
+		 return WsMetrics.start(labels, request.url().host(), request.url().encodedPath(), requestBytes);
+	 }
+	 
+	 /**
+	  * Rethrows, unchecked, the UpstreamUnavailableException causing a failure, so that the WPS
+	  * server answers with an exception report instead of an empty output
+	  */
+	 public static void failIfUnavailable(Throwable failure) {
+		 UpstreamUnavailableException unavailable = UpstreamUnavailableException.causeOf(failure);
+		 if (unavailable != null) {
+			 throw new UncheckedIOException(unavailable.getMessage(), unavailable);
+		 }
+	 }
+	 
+	 /**
+	  * Joins response lines, as callServicePost has always returned them.
+	  * Callers needing the response as sent use the streaming variants.
+	  */
+	 protected static String joinLines(String response) {
+		 return response.replaceAll("\r\n|\r|\n", "");
+	 }
+	 
+		/**
+		 * Converters from choucas services JSON outputs to the TSV inputs of the next service.
+		 * The write methods stream the output in linear time, the String methods delegate to them.
+		 */
+		
 		public static String jsonToPos(JSONArray data) {
-			String stringData="";
+			StringWriter writer = new StringWriter();
+			try {
+				writePos(data, writer);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e); // never thrown by a StringWriter
+			}
+			return writer.toString();
+			
+		}
+		
+		public static void writePos(JSONArray data, Writer writer) throws IOException {
 			int dataLength = data.length();
 			
 			for (int i=0;i<dataLength;i++) {
+				JSONArray row = data.getJSONArray(i);
 				for (int j=0;j<3;j++) {
-					stringData+=data.getJSONArray(i).get(j).toString();
+					writer.write(row.get(j).toString());
 					if (j < 2)
-						stringData+="\t";
+						writer.write('\t');
 					}
 				if (i < dataLength - 1)
-					stringData+="\n";
+					writer.write('\n');
 				}
-			return(stringData);
 			
 		}
 		
+		public static void writePos(JSONArray data, BufferedSink sink) throws IOException {
+			Writer writer = sinkWriter(sink);
+			writePos(data, writer);
+			writer.flush();
+		}
+		
 		public static String jsonToNgram(JSONArray data) {
-			String stringData="";
+			StringWriter writer = new StringWriter();
+			try {
+				writeNgram(data, writer);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return writer.toString();
+			
+		}
+		
+		/**
+		 * Rows of the ngram array, one per line, with a space after each comma
+		 */
+		public static void writeNgram(JSONArray data, Writer writer) throws IOException {
 			int dataLength = data.length();
 			
 			for (int i=0;i<dataLength;i++) {
-				stringData+=data.getJSONArray(i).toString();
+				writeReplacing(writer, data.getJSONArray(i).toString(), ',', ", ");
 				if (i < dataLength - 1)
-					stringData+="\n";
+					writer.write('\n');
 				}
-			return(stringData.replaceAll(",", ", "));
 			
 		}
 		
+		public static void writeNgram(JSONArray data, BufferedSink sink) throws IOException {
+			Writer writer = sinkWriter(sink);
+			writeNgram(data, writer);
+			writer.flush();
+		}
+		
 		public static String jsonToVector(JSONArray data) {
-			String stringData="[";
+			StringWriter writer = new StringWriter();
+			try {
+				writeVector(data, writer);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return writer.toString();
+			
+		}
+		
+		/**
+		 * Rows of the vector array, one per line, commas replaced by spaces, the whole enclosed in brackets
+		 */
+		public static void writeVector(JSONArray data, Writer writer) throws IOException {
 			int dataLength = data.length();
 			
+			writer.write('[');
 			for (int i=0;i<dataLength;i++) {
-				stringData+=data.getJSONArray(i).toString();
+				writeReplacing(writer, data.getJSONArray(i).toString(), ',', " ");
 				if (i < dataLength - 1)
-					stringData+="\n";
+					writer.write('\n');
 				}
-			stringData+="]";
-			return(stringData.replaceAll(",", " "));
+			writer.write(']');
 			
 		}
 		
+		public static void writeVector(JSONArray data, BufferedSink sink) throws IOException {
+			Writer writer = sinkWriter(sink);
+			writeVector(data, writer);
+			writer.flush();
+		}
+		
 		public static String jsonToText(JSONArray data) {
-			String stringData="";
+			StringWriter writer = new StringWriter();
+			try {
+				writeText(data, writer);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return writer.toString();
+			
+		}
+		
+		public static void writeText(JSONArray data, Writer writer) throws IOException {
 			int dataLength = data.length();
 			
 			for (int i=0;i<dataLength - 1;i++) {
-				stringData+=data.getString(i)+"],[";
+				writer.write(data.getString(i));
+				writer.write("],[");
 			}
-			stringData+=data.getString(dataLength - 1);
-			return(stringData);
+			writer.write(data.getString(dataLength - 1));
 			
 		}
 		
+		public static void writeText(JSONArray data, BufferedSink sink) throws IOException {
+			Writer writer = sinkWriter(sink);
+			writeText(data, writer);
+			writer.flush();
+		}
+		
+		protected static void writeReplacing(Writer writer, String value, char target, String replacement) throws IOException {
+			int start = 0;
+			int index;
+			while ((index = value.indexOf(target, start)) >= 0) {
+				writer.write(value, start, index - start);
+				writer.write(replacement);
+				start = index + 1;
+			}
+			writer.write(value, start, value.length() - start);
+		}
+		
+		/**
+		 * Writer encoding in UTF-8 into the sink, closing it would close the sink
+		 */
+		protected static Writer sinkWriter(BufferedSink sink) {
+			return new BufferedWriter(new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8));
+		}
+		
+		/**
+		 * @deprecated JsonRequest escapes the content sent to the PERDIDO services
+		 */
+		@Deprecated
 		public static String jsonToUnitex(String data) {
 			String stringData = JSONObject.quote(data);
 			return(stringData.substring(1, stringData.length()-1));
 			
 		}
 		
+		/**
+		 * @deprecated JsonRequest escapes the content sent to the PERDIDO services
+		 */
+		@Deprecated
 		public static String stringToUnitex(String data) {
 			return data.replace("\\,", "\\\\,");
 			
@@ -10,6 +10,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -32,26 +33,29 @@ import org.xml.sax.SAXException;
  */
 
 public class XmlUtils {
+	  /**
+	   * The XML text of data, as written by the WPS generator, lines joined
+	   */
 	  public static String getData(XmlObject data) {
-		  String response="";
+		  StringBuilder response = new StringBuilder();
 		  GenericXMLDataBinding xmlDataBinding = new GenericXMLDataBinding(data);
 		  GenericXMLDataGenerator XmlGen = new GenericXMLDataGenerator();
-		  InputStreamReader input;
-		try {
-			input = new InputStreamReader(XmlGen.generateStream(xmlDataBinding, "", ""));
-			 BufferedReader in = new BufferedReader(input);
-			 String line = null;
-			 while ((line = in.readLine()) != null) {
-				 response += line;
-				  }
-			 in.close();
-			
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		  try (BufferedReader in = new BufferedReader(new InputStreamReader(XmlGen.generateStream(xmlDataBinding, "", ""), StandardCharsets.UTF_8))) {
+			  String line = null;
+			  while ((line = in.readLine()) != null) {
+				  response.append(line);
+			  }
+		  } catch (IOException e) {
+			  e.printStackTrace();
+		  }
+		  return response.toString();
+	  }
 
-		  return response;
+	  /**
+	   * The text of a TEI document, never serialized again
+	   */
+	  public static String getData(TeiDocument data) {
+		  return data.getText();
 	  }
 	  
 	  public static Document readFile(String filePath) throws ParserConfigurationException, SAXException, IOException   {